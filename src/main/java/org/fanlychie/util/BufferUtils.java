@@ -0,0 +1,685 @@
+package org.fanlychie.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * 缓冲区池工具类, 为 FileUtils, HttpUtils 等的读写操作提供可复用的缓冲区
+ * <p>
+ * 缓冲区按 4KB 到 1MB 之间 2 的幂次分级, 申请的大小向上取整到所在的级别. 申请时先从当前线程的缓存中获取,
+ * 为空时再从全局队列中获取, 都没有时才新分配; 归还时先放回当前线程的缓存, 缓存满时溢出到全局队列.
+ * 超出最大级别的申请直接分配, 归还时丢弃
+ * <p>
+ * 虚拟线程(JDK 21 及以上)不使用线程缓存, 直接使用全局队列. 已结束的线程留在缓存中的缓冲区,
+ * 在全局队列未命中或获取统计时回收到全局队列, 因此缓存线程池中空闲退出的线程不会使缓冲区滞留
+ * <p>
+ * BufferUtils.acquireBytes(8192) // 返回长度为 8192 的字节数组
+ * <p>
+ * BufferUtils.acquireBytes(5000) // 返回长度为 8192 的字节数组
+ * <p>
+ * 申请的缓冲区使用完后须调用 release 归还, 归还后不可再使用. 开启泄漏检测后,
+ * 未归还就被回收的缓冲区会连同申请时的调用栈报告给泄漏监听器
+ *
+ * @author fanlychie
+ */
+public final class BufferUtils {
+
+    // 最小级别 4KB
+    private static final int MIN_SHIFT = 12;
+
+    // 最大级别 1MB
+    private static final int MAX_SHIFT = 20;
+
+    // 每个线程每级缓存的字节数上限
+    private static final int THREAD_CACHE_BYTES = 256 * 1024;
+
+    // 全局队列每级缓存的字节数上限
+    private static final int GLOBAL_CACHE_BYTES = 4 * 1024 * 1024;
+
+    // 回收已结束线程的缓存的最小间隔纳秒数
+    private static final long RECLAIM_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Thread.isVirtual 方法, JDK 21 以下为 null
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    // 堆内字节数组池
+    private static final Pool<byte[]> BYTES = new Pool<>("bytes", 1, byte[]::new, bytes -> bytes.length);
+
+    // 堆内字符数组池
+    private static final Pool<char[]> CHARS = new Pool<>("chars", 2, char[]::new, chars -> chars.length);
+
+    // 直接内存缓冲区池
+    private static final Pool<ByteBuffer> DIRECT = new Pool<>("direct", 1, ByteBuffer::allocateDirect, ByteBuffer::capacity);
+
+    // 泄漏检测的引用队列, 未归还的缓冲区被回收后其跟踪记录进入此队列
+    private static final ReferenceQueue<Object> LEAK_QUEUE = new ReferenceQueue<>();
+
+    // 泄漏检测的跟踪记录, 键为缓冲区的 identityHashCode
+    private static final Map<Integer, List<LeakRecord>> LEAK_RECORDS = new HashMap<>();
+
+    // 是否开启泄漏检测
+    private static volatile boolean leakDetection;
+
+    // 泄漏监听器
+    private static volatile Consumer<Throwable> leakListener = Throwable::printStackTrace;
+
+    // 私有化
+    private BufferUtils() {
+
+    }
+
+    /**
+     * 申请字节数组
+     *
+     * @param size 最小长度
+     * @return 返回长度不小于 size 的字节数组, 内容是未定义的
+     */
+    public static byte[] acquireBytes(int size) {
+        return BYTES.acquire(size);
+    }
+
+    /**
+     * 申请字符数组
+     *
+     * @param size 最小长度
+     * @return 返回长度不小于 size 的字符数组, 内容是未定义的
+     */
+    public static char[] acquireChars(int size) {
+        return CHARS.acquire(size);
+    }
+
+    /**
+     * 申请堆内缓冲区, 底层数组来自字节数组池
+     *
+     * @param capacity 最小容量
+     * @return 返回已清空的容量不小于 capacity 的缓冲区
+     */
+    public static ByteBuffer acquireHeap(int capacity) {
+        return ByteBuffer.wrap(BYTES.acquire(capacity));
+    }
+
+    /**
+     * 申请直接内存缓冲区, 适用于通道的读写
+     *
+     * @param capacity 最小容量
+     * @return 返回已清空的容量不小于 capacity 的缓冲区
+     */
+    public static ByteBuffer acquireDirect(int capacity) {
+        ByteBuffer buffer = DIRECT.acquire(capacity);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还字节数组
+     *
+     * @param buffer 由 {@link #acquireBytes(int)} 申请的字节数组, 为 null 时忽略
+     */
+    public static void release(byte[] buffer) {
+        BYTES.release(buffer);
+    }
+
+    /**
+     * 归还字符数组
+     *
+     * @param buffer 由 {@link #acquireChars(int)} 申请的字符数组, 为 null 时忽略
+     */
+    public static void release(char[] buffer) {
+        CHARS.release(buffer);
+    }
+
+    /**
+     * 归还缓冲区
+     *
+     * @param buffer 由 {@link #acquireHeap(int)} 或 {@link #acquireDirect(int)} 申请的缓冲区, 为 null 时忽略
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (buffer.isDirect()) {
+            DIRECT.release(buffer);
+        } else if (buffer.hasArray()) {
+            BYTES.release(buffer.array());
+        }
+    }
+
+    /**
+     * 设置是否开启泄漏检测, 开启后每次申请都会记录调用栈, 仅用于调试. 开启前申请的缓冲区不受跟踪,
+     * 归还时会被视为重复归还而丢弃, 因此应在应用启动时开启
+     *
+     * @param leakDetection true/false, 默认为 false
+     */
+    public static void setLeakDetection(boolean leakDetection) {
+        BufferUtils.leakDetection = leakDetection;
+    }
+
+    /**
+     * 设置泄漏监听器, 接收描述泄漏或重复归还的异常, 其调用栈为缓冲区申请或归还时的调用栈
+     *
+     * @param leakListener 泄漏监听器, 默认打印到标准错误输出
+     */
+    public static void setLeakListener(Consumer<Throwable> leakListener) {
+        BufferUtils.leakListener = leakListener;
+    }
+
+    /**
+     * 获取各缓冲区池的使用统计, 开启泄漏检测时会先处理已回收的未归还缓冲区
+     *
+     * @return 返回字节数组, 字符数组和直接内存缓冲区池的统计
+     */
+    public static List<PoolMetrics> getMetrics() {
+        if (leakDetection) {
+            pollLeaks();
+        }
+        return Arrays.asList(BYTES.metrics(), CHARS.metrics(), DIRECT.metrics());
+    }
+
+    // 获取 Thread.isVirtual 方法, 以反射方式获取, 保持 JAVA-8 的编译兼容
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // 当前线程是否为虚拟线程
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    // 计算大小所在的级别, 超出最大级别时返回 -1
+    private static int indexOf(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    // 跟踪申请的缓冲区
+    private static void track(Object buffer, Pool<?> pool, int size) {
+        pollLeaks();
+        LeakRecord record = new LeakRecord(buffer, pool, size);
+        synchronized (LEAK_RECORDS) {
+            LEAK_RECORDS.computeIfAbsent(record.hash, key -> new ArrayList<>(1)).add(record);
+        }
+    }
+
+    // 取消跟踪归还的缓冲区, 未被跟踪时报告重复归还并返回 false
+    private static boolean untrack(Object buffer, Pool<?> pool) {
+        int hash = System.identityHashCode(buffer);
+        synchronized (LEAK_RECORDS) {
+            List<LeakRecord> records = LEAK_RECORDS.get(hash);
+            if (records != null) {
+                for (Iterator<LeakRecord> iterator = records.iterator(); iterator.hasNext(); ) {
+                    LeakRecord record = iterator.next();
+                    if (record.get() == buffer) {
+                        iterator.remove();
+                        if (records.isEmpty()) {
+                            LEAK_RECORDS.remove(hash);
+                        }
+                        record.clear();
+                        return true;
+                    }
+                }
+            }
+        }
+        report(new IllegalStateException("Buffer from pool '" + pool.name + "' released twice or not acquired from the pool"));
+        return false;
+    }
+
+    // 报告已被回收却未归还的缓冲区
+    private static void pollLeaks() {
+        LeakRecord record;
+        while ((record = (LeakRecord) LEAK_QUEUE.poll()) != null) {
+            synchronized (LEAK_RECORDS) {
+                List<LeakRecord> records = LEAK_RECORDS.get(record.hash);
+                if (records == null || !records.remove(record)) {
+                    continue;
+                }
+                if (records.isEmpty()) {
+                    LEAK_RECORDS.remove(record.hash);
+                }
+            }
+            record.pool.leaks.increment();
+            report(record.trace);
+        }
+    }
+
+    // 通知泄漏监听器
+    private static void report(Throwable e) {
+        Consumer<Throwable> listener = leakListener;
+        if (listener != null) {
+            listener.accept(e);
+        }
+    }
+
+    /**
+     * 缓冲区池
+     */
+    private static final class Pool<T> {
+
+        // 名称
+        private final String name;
+
+        // 每个元素的字节数
+        private final int elementBytes;
+
+        // 分配新的缓冲区
+        private final IntFunction<T> allocator;
+
+        // 获取缓冲区的长度
+        private final ToIntFunction<T> sizer;
+
+        // 各级的线程缓存容量
+        private final int[] threadLimits = new int[MAX_SHIFT - MIN_SHIFT + 1];
+
+        // 各级的全局队列容量
+        private final int[] globalLimits = new int[MAX_SHIFT - MIN_SHIFT + 1];
+
+        // 各级的全局队列
+        private final List<Queue<T>> globals = new ArrayList<>();
+
+        // 各级的全局队列长度
+        private final AtomicInteger[] globalCounts = new AtomicInteger[MAX_SHIFT - MIN_SHIFT + 1];
+
+        // 各线程的各级缓存
+        private final ThreadLocal<ThreadCache<T>> caches;
+
+        // 所有线程的缓存, 用于回收已结束线程的缓存
+        private final Queue<ThreadCache<T>> threadCaches = new ConcurrentLinkedQueue<>();
+
+        // 上次回收已结束线程的缓存的时间
+        private final AtomicLong lastReclaim = new AtomicLong(System.nanoTime());
+
+        private final LongAdder acquired = new LongAdder();
+
+        private final LongAdder released = new LongAdder();
+
+        private final LongAdder threadHits = new LongAdder();
+
+        private final LongAdder globalHits = new LongAdder();
+
+        private final LongAdder allocated = new LongAdder();
+
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        private final LongAdder unpooled = new LongAdder();
+
+        private final LongAdder discarded = new LongAdder();
+
+        private final LongAdder cachedBytes = new LongAdder();
+
+        private final LongAdder leaks = new LongAdder();
+
+        private Pool(String name, int elementBytes, IntFunction<T> allocator, ToIntFunction<T> sizer) {
+            this.name = name;
+            this.elementBytes = elementBytes;
+            this.allocator = allocator;
+            this.sizer = sizer;
+            for (int i = 0; i < threadLimits.length; i++) {
+                int bytes = (1 << (i + MIN_SHIFT)) * elementBytes;
+                threadLimits[i] = Math.max(1, Math.min(16, THREAD_CACHE_BYTES / bytes));
+                globalLimits[i] = Math.max(2, Math.min(64, GLOBAL_CACHE_BYTES / bytes));
+                globals.add(new ConcurrentLinkedQueue<>());
+                globalCounts[i] = new AtomicInteger();
+            }
+            this.caches = ThreadLocal.withInitial(() -> {
+                ThreadCache<T> cache = new ThreadCache<>(threadLimits);
+                threadCaches.add(cache);
+                return cache;
+            });
+        }
+
+        // 当前线程的缓存, 虚拟线程返回 null
+        private ThreadCache<T> threadCache() {
+            return isVirtualThread() ? null : caches.get();
+        }
+
+        // 申请
+        private T acquire(int size) {
+            acquired.increment();
+            int index = indexOf(size);
+            ThreadCache<T> cache;
+            T buffer;
+            if (index < 0) {
+                unpooled.increment();
+                buffer = allocate(size);
+            } else if ((cache = threadCache()) != null && (buffer = cache.levels.get(index).pollLast()) != null) {
+                threadHits.increment();
+                cachedBytes.add(-bytesOf(buffer));
+            } else if ((buffer = pollGlobal(index)) != null || reclaim(false) && (buffer = pollGlobal(index)) != null) {
+                globalHits.increment();
+                cachedBytes.add(-bytesOf(buffer));
+            } else {
+                buffer = allocate(1 << (index + MIN_SHIFT));
+            }
+            if (leakDetection) {
+                track(buffer, this, sizer.applyAsInt(buffer));
+            }
+            return buffer;
+        }
+
+        // 归还
+        private void release(T buffer) {
+            if (buffer == null || leakDetection && !untrack(buffer, this)) {
+                return;
+            }
+            released.increment();
+            int size = sizer.applyAsInt(buffer);
+            int index = indexOf(size);
+            if (index < 0 || size != 1 << (index + MIN_SHIFT)) {
+                discarded.increment();
+                return;
+            }
+            ThreadCache<T> cache = threadCache();
+            if (cache != null && cache.levels.get(index).size() < threadLimits[index]) {
+                cache.levels.get(index).addLast(buffer);
+            } else if (!offerGlobal(index, buffer)) {
+                discarded.increment();
+                return;
+            }
+            cachedBytes.add(bytesOf(buffer));
+        }
+
+        // 从全局队列中获取
+        private T pollGlobal(int index) {
+            T buffer = globals.get(index).poll();
+            if (buffer != null) {
+                globalCounts[index].decrementAndGet();
+            }
+            return buffer;
+        }
+
+        // 放入全局队列, 队列已满时返回 false
+        private boolean offerGlobal(int index, T buffer) {
+            if (globalCounts[index].incrementAndGet() > globalLimits[index]) {
+                globalCounts[index].decrementAndGet();
+                return false;
+            }
+            globals.get(index).offer(buffer);
+            return true;
+        }
+
+        // 将已结束线程的缓存移入全局队列, 全局队列已满的部分丢弃. force 为 false 时按最小间隔执行, 有移入时返回 true
+        private boolean reclaim(boolean force) {
+            long last = lastReclaim.get();
+            long now = System.nanoTime();
+            if (!force && (now - last < RECLAIM_INTERVAL_NANOS || !lastReclaim.compareAndSet(last, now))) {
+                return false;
+            }
+            boolean moved = false;
+            for (Iterator<ThreadCache<T>> iterator = threadCaches.iterator(); iterator.hasNext(); ) {
+                ThreadCache<T> cache = iterator.next();
+                Thread owner = cache.owner.get();
+                // isAlive 返回 false 后, 该线程对缓存的所有写入对当前线程可见
+                if (owner != null && owner.isAlive() || !cache.reclaimed.compareAndSet(false, true)) {
+                    continue;
+                }
+                iterator.remove();
+                for (int index = 0; index < cache.levels.size(); index++) {
+                    T buffer;
+                    while ((buffer = cache.levels.get(index).poll()) != null) {
+                        if (offerGlobal(index, buffer)) {
+                            moved = true;
+                        } else {
+                            discarded.increment();
+                            cachedBytes.add(-bytesOf(buffer));
+                        }
+                    }
+                }
+            }
+            return moved;
+        }
+
+        // 分配新的缓冲区
+        private T allocate(int size) {
+            allocated.increment();
+            allocatedBytes.add((long) size * elementBytes);
+            return allocator.apply(size);
+        }
+
+        // 缓冲区占用的字节数
+        private long bytesOf(T buffer) {
+            return (long) sizer.applyAsInt(buffer) * elementBytes;
+        }
+
+        // 统计快照
+        private PoolMetrics metrics() {
+            reclaim(true);
+            return new PoolMetrics(name, acquired.sum(), released.sum(), threadHits.sum(), globalHits.sum(),
+                    allocated.sum(), allocatedBytes.sum(), unpooled.sum(), discarded.sum(), cachedBytes.sum(), leaks.sum());
+        }
+
+    }
+
+    /**
+     * 线程缓存, 仅由所属的线程读写, 线程结束后由其它线程回收
+     */
+    private static final class ThreadCache<T> {
+
+        // 所属的线程
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+
+        // 各级的缓存
+        private final List<ArrayDeque<T>> levels;
+
+        // 是否已被回收
+        private final AtomicBoolean reclaimed = new AtomicBoolean();
+
+        private ThreadCache(int[] limits) {
+            this.levels = new ArrayList<>(limits.length);
+            for (int limit : limits) {
+                levels.add(new ArrayDeque<>(limit));
+            }
+        }
+
+    }
+
+    /**
+     * 泄漏检测的跟踪记录, 弱引用缓冲区, 缓冲区未归还就被回收时进入引用队列
+     */
+    private static final class LeakRecord extends WeakReference<Object> {
+
+        private final int hash;
+
+        private final Pool<?> pool;
+
+        // 申请时的调用栈
+        private final Throwable trace;
+
+        private LeakRecord(Object buffer, Pool<?> pool, int size) {
+            super(buffer, LEAK_QUEUE);
+            this.hash = System.identityHashCode(buffer);
+            this.pool = pool;
+            this.trace = new IllegalStateException("Buffer of " + size * pool.elementBytes + " bytes from pool '"
+                    + pool.name + "' was garbage collected without being released, acquired at:");
+            // 去掉缓冲区池内部的调用栈, 从申请缓冲区的调用方开始
+            StackTraceElement[] stack = trace.getStackTrace();
+            int from = 0;
+            while (from < stack.length && stack[from].getClassName().startsWith(BufferUtils.class.getName())) {
+                from++;
+            }
+            trace.setStackTrace(Arrays.copyOfRange(stack, from, stack.length));
+        }
+
+    }
+
+    /**
+     * 缓冲区池的使用统计
+     *
+     * @author fanlychie
+     */
+    public static final class PoolMetrics {
+
+        private final String name;
+
+        private final long acquired;
+
+        private final long released;
+
+        private final long threadHits;
+
+        private final long globalHits;
+
+        private final long allocated;
+
+        private final long allocatedBytes;
+
+        private final long unpooled;
+
+        private final long discarded;
+
+        private final long cachedBytes;
+
+        private final long leaks;
+
+        private PoolMetrics(String name, long acquired, long released, long threadHits, long globalHits, long allocated,
+                            long allocatedBytes, long unpooled, long discarded, long cachedBytes, long leaks) {
+            this.name = name;
+            this.acquired = acquired;
+            this.released = released;
+            this.threadHits = threadHits;
+            this.globalHits = globalHits;
+            this.allocated = allocated;
+            this.allocatedBytes = allocatedBytes;
+            this.unpooled = unpooled;
+            this.discarded = discarded;
+            this.cachedBytes = cachedBytes;
+            this.leaks = leaks;
+        }
+
+        /**
+         * 池的名称, bytes, chars 或 direct
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 申请次数
+         */
+        public long getAcquired() {
+            return acquired;
+        }
+
+        /**
+         * 归还次数
+         */
+        public long getReleased() {
+            return released;
+        }
+
+        /**
+         * 尚未归还的缓冲区数量
+         */
+        public long getOutstanding() {
+            return acquired - released;
+        }
+
+        /**
+         * 从线程缓存中获取的次数
+         */
+        public long getThreadHits() {
+            return threadHits;
+        }
+
+        /**
+         * 从全局队列中获取的次数
+         */
+        public long getGlobalHits() {
+            return globalHits;
+        }
+
+        /**
+         * 复用的比例, 即从线程缓存或全局队列中获取的次数占申请次数的比例
+         */
+        public double getHitRate() {
+            return acquired == 0 ? 0 : (double) (threadHits + globalHits) / acquired;
+        }
+
+        /**
+         * 新分配的缓冲区数量
+         */
+        public long getAllocated() {
+            return allocated;
+        }
+
+        /**
+         * 新分配的缓冲区的总字节数
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * 超出最大级别而直接分配的次数
+         */
+        public long getUnpooled() {
+            return unpooled;
+        }
+
+        /**
+         * 归还时因缓存已满或大小不属于任何级别而丢弃的次数, 包括回收已结束线程的缓存时因全局队列已满而丢弃的次数
+         */
+        public long getDiscarded() {
+            return discarded;
+        }
+
+        /**
+         * 当前缓存在存活线程的缓存和全局队列中的总字节数, 已结束线程的缓存在统计前被回收或丢弃
+         */
+        public long getCachedBytes() {
+            return cachedBytes;
+        }
+
+        /**
+         * 检测到的泄漏次数, 仅在开启泄漏检测时统计
+         */
+        public long getLeaks() {
+            return leaks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: acquired=%d, released=%d, outstanding=%d, hitRate=%.2f%%, allocated=%d (%s), "
+                            + "unpooled=%d, discarded=%d, cached=%s, leaks=%d", name, acquired, released, getOutstanding(),
+                    getHitRate() * 100, allocated, FileUtils.transformFileUnit(allocatedBytes), unpooled, discarded,
+                    FileUtils.transformFileUnit(cachedBytes), leaks);
+        }
+
+    }
+
+}
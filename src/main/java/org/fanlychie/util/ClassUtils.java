@@ -1,6 +1,7 @@
 package org.fanlychie.util;
 
 import java.io.File;
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.JarURLConnection;
@@ -235,6 +236,27 @@ public final class ClassUtils {
 		return getFieldFromCache(clazz, field).getType();
 	}
 	
+	/**
+	 * 获取类(含父类)的非静态字段表, 以字段名称为键, 字段已设为可访问.
+	 * 
+	 * 若此次操作的类(Class)不在内置的CLASS_METADATA_MAP内存缓存中, 则将其载入CLASS_METADATA_MAP缓存;
+	 * 
+	 * 若此次操作的类(Class)已存在于CLASS_METADATA_MAP缓存中, 则直接从CLASS_METADATA_MAP缓存中获取使用;
+	 * 
+	 * @param clazz
+	 *            类
+	 * @return
+	 */
+	public static Map<String, Field> getInstanceFields(Class<?> clazz) {
+		Map<String, Field> fieldMap = new HashMap<>();
+		getFieldMapFromCache(clazz).forEach((name, field) -> {
+			if (!java.lang.reflect.Modifier.isStatic(field.getModifiers())) {
+				fieldMap.put(name, field);
+			}
+		});
+		return fieldMap;
+	}
+	
 	/**
 	 * 调用方法, 由于缺省参数的类型列表, 使用范围比较受限, 以下几种场景可调用：
 	 * 
@@ -514,6 +536,21 @@ public final class ClassUtils {
 		}
 	}
 	
+	/**
+	 * 设置成员可访问. JDK 9 及以上, 未开放的模块(如 java.base)中的非公开成员不能设置为可访问, 回溯到
+	 * Object 等 JDK 类时这些成员保持原样, 不影响其它成员
+	 * 
+	 * @param member
+	 *            字段或方法
+	 */
+	private static void setAccessible(AccessibleObject member) {
+		try {
+			member.setAccessible(true);
+		} catch (RuntimeException e) {
+			// InaccessibleObjectException (JDK 9+)
+		}
+	}
+	
 	/**
 	 * 加载类声明的字段列表
 	 * 
@@ -541,7 +578,7 @@ public final class ClassUtils {
 				}
 				break;
 			}
-			field.setAccessible(true);
+			setAccessible(field);
 		}
 		return list;
 	}
@@ -573,7 +610,7 @@ public final class ClassUtils {
 				}
 				break;
 			}
-			method.setAccessible(true);
+			setAccessible(method);
 		}
 		return list;
 	}
@@ -4,22 +4,73 @@ import com.itextpdf.text.Document;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.itextpdf.tool.xml.XMLWorkerHelper;
 import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * 文件操作工具类, 基于 JAVA-8 开发
@@ -29,10 +80,24 @@ import java.util.regex.Pattern;
 public final class FileUtils {
 
     // 缓存数组大小
-    private static final byte[] BUFFERB = new byte[1024 * 1024];
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-    // 缓存数组大小
-    private static final char[] BUFFERC = new char[1024 * 1024];
+    // 内存映射读取时每次映射的窗口大小
+    private static final int MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // 异步读写的线程池, 执行异步文件通道的回调和输入流的读取
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "FileUtils-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 并行写出上传文件的默认线程池, 线程数与处理器数相同, 多个请求同时上传时排队等待, 调用线程仍会领取文件写出
+    private static final ExecutorService UPLOAD_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "FileUtils-upload");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     // 文件大小单位
     private static final String[] FILE_SIZE_UNIT = {"B", "KB", "M", "G"};
@@ -100,7 +165,7 @@ public final class FileUtils {
      */
     public static ReadableStream open(File file, String charset) {
         try {
-            return new ReadableStream(new FileInputStream(file), charset);
+            return new ReadableStream(file, new FileInputStream(file), charset);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
@@ -237,7 +302,7 @@ public final class FileUtils {
     }
 
     /**
-     * 获取本地上传的文件
+     * 获取本地上传的文件, 文件 Key 短于子目录级数与子目录长度的乘积时抛出 IllegalArgumentException
      *
      * @param fileKey 文件上传时返回的文件 Key
      * @return 返回文件对象
@@ -246,6 +311,17 @@ public final class FileUtils {
         return LocalFileUpload.achieveLocalFile(fileKey);
     }
 
+    /**
+     * 删除本地上传的文件, 内容寻址存储时只删除文件 Key 的引用, 内容不再被引用时才被删除.
+     * 文件 Key 短于子目录级数与子目录长度的乘积时抛出 IllegalArgumentException
+     *
+     * @param fileKey 文件上传时返回的文件 Key
+     * @return 找到并删除时返回 true, 否则返回 false
+     */
+    public static boolean deleteLocalFile(String fileKey) {
+        return LocalFileUpload.deleteLocalFile(fileKey);
+    }
+
     /**
      * 解析 HTML 内容成 PDF 文档
      *
@@ -269,6 +345,21 @@ public final class FileUtils {
 
         private boolean closable;
 
+        // 异步写出时每个缓冲区的大小
+        private int asyncBufferSize = BUFFER_SIZE;
+
+        // 异步写出时同时进行的最大写操作数
+        private int maxInFlight = 4;
+
+        // 写出文本内容使用的字符集编码, 为 null 时使用平台默认的字符集
+        private String charset;
+
+        // 写出时依次经过的处理阶段, 按添加的顺序从源排列到目标
+        private List<PipelineStage> stages;
+
+        // 摘要阶段计算得到的摘要值, 键为摘要算法
+        private Map<String, String> digests;
+
         // 私有构造
         private WritableStream(Reader reader) {
             this.reader = reader;
@@ -291,1022 +382,4785 @@ public final class FileUtils {
          * @param dest 目标文件
          */
         public void to(File dest) {
-            to(dest, false);
+            transferTo(dest, false);
         }
 
         /**
-         * 写出到目标文件
+         * 写出到目标文件, 源为文件时使用 FileChannel.transferTo 零拷贝传输
          *
          * @param dest   目标文件
          * @param append 是否追加到文件末尾, 默认为覆盖原文件
          */
         public void to(File dest, boolean append) {
+            transferTo(dest, append);
+        }
+
+        /**
+         * 写出到输出流对象, 源和目标均为文件流时使用 FileChannel.transferTo 零拷贝传输
+         *
+         * @param os 输出流对象, 该对象操作完成后不会被关闭, 若要关闭, 必须在外部手工关闭
+         */
+        public void to(OutputStream os) {
+            transferTo(os);
+        }
+
+        /**
+         * 写出到通道, 源为文件时使用 FileChannel.transferTo 零拷贝传输, 如写出到 SocketChannel 时由内核直接发送文件内容
+         *
+         * @param channel 阻塞模式的通道对象, 该对象操作完成后不会被关闭, 若要关闭, 必须在外部手工关闭
+         */
+        public void to(WritableByteChannel channel) {
+            transferTo(channel);
+        }
+
+        /**
+         * 写出到客户端以供客户端下载此文件, 兼容中文字符
+         *
+         * @param response         HttpServletResponse
+         * @param downloadFileName 客户端下载文件的名称
+         */
+        public void to(HttpServletResponse response, String downloadFileName) {
+            transferTo(response, downloadFileName);
+        }
+
+        /**
+         * 写出到目标文件, 同 {@link #to(File)}
+         *
+         * @param dest 目标文件
+         * @return 返回写出的字节数
+         */
+        public long transferTo(File dest) {
+            return transferTo(dest, false);
+        }
+
+        /**
+         * 写出到目标文件, 同 {@link #to(File, boolean)}
+         *
+         * @param dest   目标文件
+         * @param append 是否追加到文件末尾, 默认为覆盖原文件
+         * @return 返回写出的字节数
+         */
+        public long transferTo(File dest, boolean append) {
             try (OutputStream os = new FileOutputStream(dest, append)) {
-                to(os);
+                return transferTo(os);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
         /**
-         * 写出到输出流对象
+         * 写出到输出流对象, 同 {@link #to(OutputStream)}
          *
          * @param os 输出流对象, 该对象操作完成后不会被关闭, 若要关闭, 必须在外部手工关闭
+         * @return 返回写出的字节数
          */
-        public void to(OutputStream os) {
+        public long transferTo(OutputStream os) {
             try {
-                int read;
-                if (is != null) {
-                    while ((read = is.read(BUFFERB)) != -1) {
-                        os.write(BUFFERB, 0, read);
-                    }
-                    if (closable) {
-                        is.close();
+                if (stages != null) {
+                    return pipe(os);
+                } else if (is != null) {
+                    FileChannel channel = os instanceof FileOutputStream ? ((FileOutputStream) os).getChannel() : null;
+                    if (is instanceof FileInputStream && channel != null) {
+                        return transfer(((FileInputStream) is).getChannel(), channel);
                     }
+                    return transfer(is, os);
                 } else if (reader != null) {
-                    Writer writer = new BufferedWriter(new OutputStreamWriter(os));
-                    while ((read = reader.read(BUFFERC)) != -1) {
-                        writer.write(BUFFERC, 0, read);
-                    }
-                    writer.flush();
-                    reader.close();
+                    CountingOutputStream counter = new CountingOutputStream(os);
+                    writeText(counter);
+                    return counter.count;
                 }
+                return 0;
             } catch (IOException e) {
                 throw new RuntimeException(e);
+            } finally {
+                close();
             }
         }
 
         /**
-         * 写出到客户端以供客户端下载此文件, 兼容中文字符
+         * 写出到通道, 同 {@link #to(WritableByteChannel)}
+         *
+         * @param channel 阻塞模式的通道对象, 该对象操作完成后不会被关闭, 若要关闭, 必须在外部手工关闭
+         * @return 返回写出的字节数
+         */
+        public long transferTo(WritableByteChannel channel) {
+            if (is instanceof FileInputStream && stages == null) {
+                try {
+                    return transfer(((FileInputStream) is).getChannel(), channel);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    close();
+                }
+            }
+            return transferTo(Channels.newOutputStream(channel));
+        }
+
+        /**
+         * 写出到客户端以供客户端下载此文件, 同 {@link #to(HttpServletResponse, String)}
          *
          * @param response         HttpServletResponse
          * @param downloadFileName 客户端下载文件的名称
+         * @return 返回写出的字节数
          */
-        public void to(HttpServletResponse response, String downloadFileName) {
+        public long transferTo(HttpServletResponse response, String downloadFileName) {
             try (OutputStream out = response.getOutputStream()) {
                 initBrowserDownload(response, downloadFileName);
-                this.to(out);
+                return transferTo(out);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
         /**
-         * 初始化浏览器下载相关配置
+         * 设置写出文本内容使用的字符集编码, 仅对 {@link FileUtils#write(String)} 有效
          *
-         * @param response HttpServletResponse
-         * @param filename 下载显示的文件名
-         * @throws IOException
+         * @param charset 字符集编码, 默认使用平台默认的字符集
+         * @return {@link WritableStream}
          */
-        private static void initBrowserDownload(HttpServletResponse response, String filename) throws IOException {
-            filename = new String(filename.getBytes("UTF-8"), "ISO-8859-1");
-            response.setContentType("application/octet-stream; charset=iso-8859-1");
-            response.setHeader("Content-Disposition", "attachment; filename=" + filename);
-        }
-
-    }
-
-    /**
-     * 可读的流
-     *
-     * @author fanlychie
-     */
-    public static final class ReadableStream {
-
-        private InputStream is;
-
-        private String charset;
-
-        // 私有构造
-        private ReadableStream(InputStream is, String charset) {
-            this.is = is;
+        public WritableStream setCharset(String charset) {
             this.charset = charset;
+            return this;
         }
 
         /**
-         * 逐行读取
+         * 设置异步写出时每个缓冲区的大小
          *
-         * @param consumer (每行的文本内容)
+         * @param asyncBufferSize 缓冲区的字节数, 默认 64KB
+         * @return {@link WritableStream}
          */
-        public void readlines(Consumer<String> consumer) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, charset))) {
-                String read;
-                while ((read = reader.readLine()) != null) {
-                    consumer.accept(read);
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        public WritableStream setAsyncBufferSize(int asyncBufferSize) {
+            this.asyncBufferSize = asyncBufferSize;
+            return this;
         }
 
         /**
-         * 读取全部
+         * 设置异步写出时同时进行的最大写操作数, 限制占用的缓冲区内存为 asyncBufferSize * maxInFlight
          *
-         * @param consumer (读取到的全部的文本内容)
+         * @param maxInFlight 最大写操作数, 默认 4
+         * @return {@link WritableStream}
          */
-        public void read(Consumer<String> consumer) {
-            consumer.accept(read());
+        public WritableStream setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
         }
 
         /**
-         * 读取全部
+         * 异步写出到目标文件, 参考 {@link #toAsync(File, boolean)}
          *
-         * @return 返回读取到的全部的文本内容
+         * @param dest 目标文件
+         * @return 返回写出完成的 Future, 结果为写出的字节数
          */
-        public String read() {
-            StringBuilder builder = new StringBuilder();
-            readlines((line) -> builder.append(line).append("\n"));
-            return builder.length() > 0 ? builder.toString().substring(0, builder.length() - 1) : "";
+        public CompletableFuture<Long> toAsync(File dest) {
+            return toAsync(dest, false);
         }
 
-    }
-
-    /**
-     * URL 流
-     *
-     * @author fanlychie
-     */
-    public static final class UrlStream {
-
-        private String fileName;
-
-        private HttpURLConnection conn;
-
-        // 私有构造
-        private UrlStream(String url) {
-            this.conn = createHttpURLConnection(url);
-            this.fileName = substringLastSeparator(url, "/");
+        /**
+         * 异步写出到目标文件, 调用线程不会被阻塞. 目标文件通过 AsynchronousFileChannel 写入,
+         * 源的读取在后台线程中进行, 最多同时进行 maxInFlight 个写操作, 写操作完成后才继续读取源
+         *
+         * @param dest   目标文件
+         * @param append 是否追加到文件末尾, 默认为覆盖原文件
+         * @return 返回写出完成的 Future, 结果为写出的字节数
+         */
+        public CompletableFuture<Long> toAsync(File dest, boolean append) {
+            if (reader != null || stages != null) {
+                return CompletableFuture.supplyAsync(() -> transferTo(dest, append), ASYNC_EXECUTOR);
+            }
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            try {
+                Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                if (!append) {
+                    options.add(StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(dest.toPath(), options, ASYNC_EXECUTOR);
+                ReadableByteChannel source = is instanceof FileInputStream ? ((FileInputStream) is).getChannel() : Channels.newChannel(is);
+                AsyncFileWriter writer = new AsyncFileWriter(source, channel, append ? channel.size() : 0,
+                        asyncBufferSize, maxInFlight, future);
+                future.whenComplete((count, e) -> close());
+                ASYNC_EXECUTOR.execute(writer::drain);
+            } catch (IOException | RuntimeException e) {
+                close();
+                future.completeExceptionally(e);
+            }
+            return future;
         }
 
         /**
-         * 下载到本地目录
+         * 添加摘要计算阶段, 写出的同时计算经过此阶段的内容的摘要, 多个算法共用同一次读取.
+         * 写出完成后通过 {@link #getDigest(String)} 获取摘要值
          *
-         * @param localFolder 本地目录
+         * @param algorithms 摘要算法, 如 MD5, SHA-256
+         * @return {@link WritableStream}
          */
-        public void download(File localFolder) {
-            if (!localFolder.exists()) {
-                throw new IllegalArgumentException("'" + localFolder + "' not exist");
-            } else if (!localFolder.isDirectory()) {
-                throw new IllegalArgumentException("'" + localFolder + "' is not a directory");
-            }
-            try (InputStream is = conn.getInputStream(); OutputStream os = new FileOutputStream(new File(localFolder, fileName))) {
-                int read;
-                while ((read = is.read(BUFFERB)) != -1) {
-                    os.write(BUFFERB, 0, read);
+        public WritableStream digest(String... algorithms) {
+            MessageDigest[] messageDigests = new MessageDigest[algorithms.length];
+            try {
+                for (int i = 0; i < algorithms.length; i++) {
+                    messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
                 }
-            } catch (IOException e) {
+            } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException(e);
             }
+            if (digests == null) {
+                digests = new LinkedHashMap<>();
+            }
+            return addStage(out -> new DigestingOutputStream(out, messageDigests, digests));
         }
 
         /**
-         * 设置下载的文件的名称
+         * 获取摘要阶段计算得到的摘要值, 参考 {@link #digest(String...)}
          *
-         * @param fileName 文件名称
-         * @return {@link UrlStream}
+         * @param algorithm 摘要算法
+         * @return 返回十六进制小写的摘要值, 未添加该算法的摘要阶段或尚未写出完成时返回 null
          */
-        public UrlStream setFileName(String fileName) {
-            this.fileName = fileName;
-            return this;
+        public String getDigest(String algorithm) {
+            return digests == null ? null : digests.get(algorithm);
         }
 
         /**
-         * 设置读取超时时间
+         * 添加 GZIP 压缩阶段
          *
-         * @param second 秒
-         * @return {@link UrlStream}
+         * @return {@link WritableStream}
          */
-        public UrlStream setReadTimeout(int second) {
-            this.conn.setReadTimeout(second * 1000);
-            return this;
+        public WritableStream gzip() {
+            return addStage(out -> new GZIPOutputStream(out, BUFFER_SIZE));
         }
 
         /**
-         * 设置连接超时时间
+         * 添加 DEFLATE 压缩阶段
          *
-         * @param second 秒
-         * @return {@link UrlStream}
+         * @return {@link WritableStream}
          */
-        public UrlStream setConnectTimeout(int second) {
-            this.conn.setConnectTimeout(second * 1000);
-            return this;
+        public WritableStream deflate() {
+            return addStage(out -> new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            });
         }
 
         /**
-         * 创建一个 Http URL 链接对象
+         * 添加 AES 加密阶段, 使用 AES/CTR/NoPadding 流式加密, 密文与明文长度相同.
+         * CTR 模式的加密和解密是同一运算, 使用相同的密钥和向量再执行一次即可解密
          *
-         * @param url URL地址
-         * @return HttpURLConnection
+         * @param key 密钥, 长度为 16, 24 或 32 字节
+         * @param iv  初始向量, 长度为 16 字节, 同一密钥下不可重复使用
+         * @return {@link WritableStream}
          */
-        private static HttpURLConnection createHttpURLConnection(String url) {
+        public WritableStream encrypt(byte[] key, byte[] iv) {
             try {
-                HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-                conn.setReadTimeout(300000);
-                conn.setConnectTimeout(60000);
-                conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/38.0.2125.122 Safari/537.36 SE 2.X MetaSr 1.0");
-                return conn;
-            } catch (IOException e) {
+                Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+                return encrypt(cipher);
+            } catch (GeneralSecurityException e) {
                 throw new RuntimeException(e);
             }
         }
 
-    }
-
-    /**
-     * Base64 图片文件解码器
-     */
-    public static final class Base64ImageFileDecoder {
-
-        // 文件名
-        private String fileName;
+        /**
+         * 添加加密阶段, 使用已初始化的 Cipher 处理经过此阶段的内容, 传入解密模式的 Cipher 即为解密
+         *
+         * @param cipher 已初始化的 Cipher 对象
+         * @return {@link WritableStream}
+         */
+        public WritableStream encrypt(Cipher cipher) {
+            return addStage(out -> new CipherStageOutputStream(out, cipher));
+        }
 
-        // 图片文件被 Base64 编码后的字符串
-        private String base64EncodeStr;
+        /**
+         * 添加限速阶段, 限制经过此阶段的内容的平均速率
+         *
+         * @param bytesPerSecond 每秒允许通过的字节数
+         * @return {@link WritableStream}
+         */
+        public WritableStream throttle(long bytesPerSecond) {
+            if (bytesPerSecond <= 0) {
+                throw new IllegalArgumentException("bytesPerSecond must be positive: " + bytesPerSecond);
+            }
+            return addStage(out -> new ThrottledOutputStream(out, bytesPerSecond));
+        }
 
-        // 私有化
-        private Base64ImageFileDecoder(String base64EncodeStr) {
-            this.base64EncodeStr = base64EncodeStr;
+        // 添加处理阶段
+        private WritableStream addStage(PipelineStage stage) {
+            if (stages == null) {
+                stages = new ArrayList<>();
+            }
+            stages.add(stage);
+            return this;
         }
 
         /**
-         * 解码到文件夹
+         * 源只读取一次, 依次经过各处理阶段后写出到输出流, 各阶段直接处理上一阶段写入的缓冲区.
+         * 失败时仍关闭各阶段以归还缓冲区和释放压缩器, 各阶段的结尾数据被丢弃
          *
-         * @param folder 存放图片的文件夹对象
-         * @return 返回解码后的图片文件对象
+         * @param os 输出流对象, 该对象操作完成后不会被关闭
+         * @return 返回写入输出流的字节数
+         * @throws IOException
          */
-        public File to(File folder) {
-            Pattern pattern = Pattern.compile("(data:image/\\w+;base64,)(\\S+)");
-            Matcher matcher = pattern.matcher(base64EncodeStr);
-            if (fileName == null) {
-                String scheme = matcher.replaceAll("$1");
-                String extension = "";
-                int index = scheme.indexOf("/") + 1;
-                int limit = scheme.indexOf(";");
-                if (index != -1 && limit != -1) {
-                    extension = scheme.substring(index, limit);
-                    if (extension.equalsIgnoreCase("jpeg")) {
-                        extension = ".jpg";
-                    } else if (extension.equalsIgnoreCase("x-icon")) {
-                        extension = ".ico";
-                    } else {
-                        extension = "." + extension;
-                    }
+        private long pipe(OutputStream os) throws IOException {
+            PipelineSink sink = new PipelineSink(os);
+            OutputStream out = sink;
+            try {
+                for (int i = stages.size() - 1; i >= 0; i--) {
+                    out = stages.get(i).wrap(out);
                 }
-                fileName = UUID.randomUUID().toString().replace("-", "") + extension;
+                if (is != null) {
+                    transfer(is, out);
+                } else if (reader != null) {
+                    writeText(out);
+                }
+                // 关闭各阶段以写出压缩和加密的结尾数据, 输出流本身不会被关闭
+                out.close();
+                return sink.count;
+            } catch (Throwable e) {
+                sink.discard = true;
+                try {
+                    out.close();
+                } catch (Throwable suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
             }
-            File dest = new File(folder, fileName);
-            base64EncodeStr = matcher.replaceAll("$2");
-            byte[] contents = base64Decode(base64EncodeStr);
-            for (int i = 0; i < contents.length; ++i) {
-                if (contents[i] < 0) {
-                    contents[i] += 256;
+        }
+
+        // 使用设置的字符集写出文本内容
+        private void writeText(OutputStream out) throws IOException {
+            Writer writer = new BufferedWriter(charset == null
+                    ? new OutputStreamWriter(out) : new OutputStreamWriter(out, charset));
+            char[] buffer = BufferUtils.acquireChars(BUFFER_SIZE);
+            try {
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    writer.write(buffer, 0, read);
                 }
+                writer.flush();
+            } finally {
+                BufferUtils.release(buffer);
             }
+        }
+
+        // 关闭源
+        private void close() {
             try {
-                try (OutputStream out = new FileOutputStream(dest)) {
-                    out.write(contents);
-                    out.flush();
+                if (is != null && closable) {
+                    is.close();
+                } else if (reader != null) {
+                    reader.close();
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            return dest;
         }
 
         /**
-         * 设置图片文件存储的文件名
+         * 初始化浏览器下载相关配置
          *
-         * @param fileName 文件名, eg: demo.jpg
+         * @param response HttpServletResponse
+         * @param filename 下载显示的文件名
+         * @throws IOException
          */
-        public Base64ImageFileDecoder setFileName(String fileName) {
-            this.fileName = fileName;
-            return this;
+        private static void initBrowserDownload(HttpServletResponse response, String filename) throws IOException {
+            filename = new String(filename.getBytes("UTF-8"), "ISO-8859-1");
+            response.setContentType("application/octet-stream; charset=iso-8859-1");
+            response.setHeader("Content-Disposition", "attachment; filename=" + filename);
         }
 
     }
 
     /**
-     * Base64 图片文件编码器
+     * 可读的流
+     *
+     * @author fanlychie
      */
-    public static final class Base64ImageFileEncoder {
+    public static final class ReadableStream {
 
-        // 图片文件类型
-        private String type;
+        private InputStream is;
 
-        // 输入流
-        private InputStream in;
+        private String charset;
 
-        // 完成时自动关闭流
-        private boolean autoCloseStream = true;
+        // 打开的文件, 打开的是输入流时为 null
+        private File file;
 
-        // 私有化
-        private Base64ImageFileEncoder(InputStream in) {
-            this.in = in;
+        // 是否使用内存映射读取
+        private boolean memoryMapped;
+
+        // 异步读取时每个缓冲区的大小
+        private int asyncBufferSize = BUFFER_SIZE;
+
+        // 异步读取时同时进行的最大读操作数
+        private int maxInFlight = 4;
+
+        // 私有构造
+        private ReadableStream(InputStream is, String charset) {
+            this.is = is;
+            this.charset = charset;
+        }
+
+        // 私有构造
+        private ReadableStream(File file, InputStream is, String charset) {
+            this(is, charset);
+            this.file = file;
         }
 
         /**
-         * 设置文件类型
+         * 设置是否使用内存映射读取, 仅对打开的文件有效, 适用于逐行扫描大文件.
+         * <p>
+         * 文件按窗口分段映射, 直接在字节上查找换行符, 每行只在交给 consumer 时才解码, 不经过 Reader 的缓冲和解码器.
+         * 以 \n 或 \r\n 作为行结束符, 字符集须兼容 ASCII (如 UTF-8, GBK, ISO-8859-1), 否则仍使用普通方式读取
          *
-         * @param type 文件类型, eg: jpg
+         * @param memoryMapped 是否使用内存映射读取, 默认不使用
+         * @return {@link ReadableStream}
          */
-        public Base64ImageFileEncoder setType(String type) {
-            this.type = type;
+        public ReadableStream setMemoryMapped(boolean memoryMapped) {
+            this.memoryMapped = memoryMapped;
             return this;
         }
 
         /**
-         * 设置完成时是否自动关闭流, 默认自动关闭
+         * 设置异步读取时每个缓冲区的大小
          *
-         * @param autoCloseStream true/false
+         * @param asyncBufferSize 缓冲区的字节数, 默认 64KB
+         * @return {@link ReadableStream}
          */
-        public Base64ImageFileEncoder setAutoCloseStream(boolean autoCloseStream) {
-            this.autoCloseStream = autoCloseStream;
+        public ReadableStream setAsyncBufferSize(int asyncBufferSize) {
+            this.asyncBufferSize = asyncBufferSize;
             return this;
         }
 
-        @Override
-        public String toString() {
+        /**
+         * 设置异步读取时同时进行的最大读操作数, 限制占用的缓冲区内存为 asyncBufferSize * maxInFlight
+         *
+         * @param maxInFlight 最大读操作数, 默认 4
+         * @return {@link ReadableStream}
+         */
+        public ReadableStream setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * 异步读取全部, 调用线程不会被阻塞, 结果与 {@link #read()} 相同.
+         * 打开的是文件时通过 AsynchronousFileChannel 分段并发读取, 否则在后台线程中读取输入流
+         *
+         * @return 返回读取完成的 Future, 结果为读取到的全部的文本内容
+         */
+        public CompletableFuture<String> readAsync() {
+            if (file == null) {
+                return CompletableFuture.supplyAsync(this::read, ASYNC_EXECUTOR);
+            }
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
             try {
-                int read, index = 0;
-                byte[] buffer = new byte[2 * 1024 * 1024];
-                while ((read = in.read(BUFFERB)) != -1) {
-                    System.arraycopy(BUFFERB, 0, buffer, index, read);
-                    index += read;
-                }
-                byte[] data = new byte[index];
-                System.arraycopy(buffer, 0, data, 0, index);
-                String content = new String(base64Encode(data));
-                if (type == null || type.length() == 0 || type.equalsIgnoreCase("jpg")) {
-                    type = "jpeg";
-                } else if (type.equalsIgnoreCase("ico")) {
-                    type = "x-icon";
+                long start = ((FileInputStream) is).getChannel().position();
+                closeStream();
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(),
+                        EnumSet.of(StandardOpenOption.READ), ASYNC_EXECUTOR);
+                long size = Math.min(Integer.MAX_VALUE - 8, Math.max(0, channel.size() - start));
+                new AsyncFileReader(channel, start, (int) size, asyncBufferSize, maxInFlight, future).drain();
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future.thenApply(bytes -> decodeText(bytes, bytes.length));
+        }
+
+        /**
+         * 逐行读取
+         *
+         * @param consumer (每行的文本内容)
+         */
+        public void readlines(Consumer<String> consumer) {
+            if (memoryMapped && is instanceof FileInputStream && isAsciiCompatible(charset)) {
+                try (FileChannel channel = ((FileInputStream) is).getChannel()) {
+                    readMappedLines(channel, channel.position(), channel.size(), Charset.forName(charset), consumer);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, charset))) {
+                String read;
+                while ((read = reader.readLine()) != null) {
+                    consumer.accept(read);
                 }
-                content = "data:image/" + type + ";base64," + content;
-                return content;
             } catch (IOException e) {
                 throw new RuntimeException(e);
-            } finally {
-                if (autoCloseStream && in != null) {
-                    try {
-                        in.close();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
             }
         }
 
-    }
-
-    /**
-     * SpringMVC 文件上传
-     */
-    public static final class SpringMVCFileUpload extends AbstractLocalFileUpload {
-
-        // SpringMVC 文件对象数组
-        private MultipartFile[] files;
-
-        // 私有化
-        private SpringMVCFileUpload(MultipartFile[] files) {
-            this.files = files;
+        /**
+         * 逐行读取, 每行以复用的 CharSequence 交给 consumer, 读取过程中不为每行创建 String, 适用于解析大量的行.
+         * <p>
+         * consumer 返回后该 CharSequence 的内容即被下一行覆盖, 需要保留时须调用其 toString() 方法.
+         * 以 \n 或 \r\n 作为行结束符, 字符集兼容 ASCII 时直接在字节上查找行边界
+         *
+         * @param consumer (每行的文本内容, 仅在回调期间有效)
+         */
+        public void readlineViews(Consumer<CharSequence> consumer) {
+            try (InputStream in = is) {
+                if (isAsciiCompatible(charset)) {
+                    readByteLineViews(in, consumer);
+                } else {
+                    readCharLineViews(new InputStreamReader(in, charset), consumer);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         /**
-         * 设置文件上传的大小限制
+         * 读取全部
          *
-         * @param minSize 最小大小, 单位(B), 默认为0, 表示不限制
-         * @param maxSize 最大大小, 单位(B), 默认为0, 表示不限制
-         * @return
+         * @param consumer (读取到的全部的文本内容)
          */
-        public SpringMVCFileUpload setLimit(long minSize, long maxSize) {
-            this.limit(minSize, maxSize);
-            return this;
+        public void read(Consumer<String> consumer) {
+            consumer.accept(read());
         }
 
         /**
-         * 设置文件上传的允许的类型
+         * 读取全部, 按文件的大小一次读取全部字节并只解码一次, 行结束符统一转换为 \n, 末尾的行结束符被去除
          *
-         * @param extension 文件扩展名, 默认为空, 表示不限制, eg: "jpg", "png", 表示只允许 jpg 和 png 类型的文件上传
-         * @return
+         * @return 返回读取到的全部的文本内容
          */
-        public SpringMVCFileUpload setFilters(String... extension) {
-            this.filter(extension);
-            return this;
+        public String read() {
+            try (InputStream in = is) {
+                byte[] bytes;
+                int count = 0;
+                if (in instanceof FileInputStream) {
+                    // 按文件剩余的大小一次分配
+                    FileChannel channel = ((FileInputStream) in).getChannel();
+                    bytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8, channel.size() - channel.position())];
+                    int read;
+                    while (count < bytes.length && (read = in.read(bytes, count, bytes.length - count)) != -1) {
+                        count += read;
+                    }
+                } else {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 32));
+                    transfer(in, out);
+                    bytes = out.toByteArray();
+                    count = bytes.length;
+                }
+                return decodeText(bytes, count);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         /**
-         * 设置文件类型适配功能
+         * 一次解码全部的字节, 行结束符统一转换为 \n, 末尾的行结束符被去除
          *
-         * @param typeAdapter 文件类型适配功能, 当上传的文件类型不符合时, 可通过此适配器转换并手工完成上传,
-         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
-         *                    上传后工具类找不到文件位置, 可以通过 renameTo 来修改文件扩展名, 以完成文件
-         *                    类型转换。转换成功时需返回true, 失败返回false.
-         * @return
+         * @param bytes 字节数组
+         * @param count 有效的字节长度
+         * @return 返回文本内容
          */
-        public SpringMVCFileUpload setTypeAdapter(BiFunction<InputStream, File, Boolean> typeAdapter) {
-            this.typeAdapter = typeAdapter;
-            return this;
+        private String decodeText(byte[] bytes, int count) {
+            CharBuffer decoded = Charset.forName(charset).decode(ByteBuffer.wrap(bytes, 0, count));
+            char[] chars = decoded.array();
+            int length = decoded.limit();
+            // 转换行结束符
+            int n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+                if (c == '\r') {
+                    if (i + 1 < length && chars[i + 1] == '\n') {
+                        i++;
+                    }
+                    c = '\n';
+                }
+                chars[n++] = c;
+            }
+            if (n > 0 && chars[n - 1] == '\n') {
+                n--;
+            }
+            return new String(chars, 0, n);
         }
 
         /**
-         * 设置文件大小适配功能
+         * 在字节上查找行边界, 以复用的字符缓冲区解码每行
          *
-         * @param sizeAdapter 文件大小适配功能, 当上传的文件大小不符合时, 可通过此适配器转换并手工完成上传,
-         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
-         *                    上传后工具类找不到文件位置。转换成功时需返回true, 失败返回false.
-         * @return
+         * @param in       输入流
+         * @param consumer (每行的文本内容)
+         * @throws IOException
          */
-        public SpringMVCFileUpload setSizeAdapter(BiFunction<InputStream, File, Boolean> sizeAdapter) {
-            this.sizeAdapter = sizeAdapter;
-            return this;
+        private void readByteLineViews(InputStream in, Consumer<CharSequence> consumer) throws IOException {
+            LineDecoder decoder = new LineDecoder(Charset.forName(charset));
+            ByteBuffer chunkBuffer = BufferUtils.acquireHeap(BUFFER_SIZE);
+            byte[] chunk = chunkBuffer.array();
+            try {
+                // 跨越数组边界的行在此暂存
+                byte[] line = new byte[256];
+                ByteBuffer lineBuffer = ByteBuffer.wrap(line);
+                int lineLength = 0;
+                int length;
+                while ((length = in.read(chunk)) != -1) {
+                    int lineStart = 0;
+                    int i;
+                    while ((i = indexOfLineFeed(chunk, lineStart, length)) != -1) {
+                        if (lineLength == 0) {
+                            consumer.accept(decoder.decode(chunkBuffer, lineStart, i - lineStart));
+                        } else {
+                            if (lineLength + i - lineStart > line.length) {
+                                line = appendBytes(line, lineLength, chunk, lineStart, i - lineStart);
+                                lineBuffer = ByteBuffer.wrap(line);
+                            } else {
+                                System.arraycopy(chunk, lineStart, line, lineLength, i - lineStart);
+                            }
+                            consumer.accept(decoder.decode(lineBuffer, 0, lineLength + i - lineStart));
+                            lineLength = 0;
+                        }
+                        lineStart = i + 1;
+                    }
+                    if (lineLength + length - lineStart > line.length) {
+                        line = appendBytes(line, lineLength, chunk, lineStart, length - lineStart);
+                        lineBuffer = ByteBuffer.wrap(line);
+                    } else {
+                        System.arraycopy(chunk, lineStart, line, lineLength, length - lineStart);
+                    }
+                    lineLength += length - lineStart;
+                }
+                if (lineLength > 0) {
+                    consumer.accept(decoder.decode(lineBuffer, 0, lineLength));
+                }
+            } finally {
+                BufferUtils.release(chunk);
+            }
         }
 
         /**
-         * 执行文件上传
+         * 在字符上查找行边界, 以复用的字符缓冲区存放每行, 用于不兼容 ASCII 的字符集
          *
-         * @return 返回一个文件上传的报告对象
+         * @param reader   字符输入流
+         * @param consumer (每行的文本内容)
+         * @throws IOException
          */
-        public FileUploadReport execute() {
-            FileUploadReport report = new FileUploadReport();
-            Arrays.stream(files).filter(file -> file != null && !file.isEmpty()).forEach(file -> {
-                excuteFileUpload(report, file, file.getOriginalFilename(), file.getSize(), destFile -> {
-                    try {
-                        file.transferTo(destFile);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+        private void readCharLineViews(Reader reader, Consumer<CharSequence> consumer) throws IOException {
+            char[] chunk = BufferUtils.acquireChars(BUFFER_SIZE);
+            try {
+                CharBuffer line = CharBuffer.allocate(256);
+                int length;
+                while ((length = reader.read(chunk)) != -1) {
+                    int lineStart = 0;
+                    for (int i = 0; i < length; i++) {
+                        if (chunk[i] == '\n') {
+                            line = appendChars(line, chunk, lineStart, i - lineStart);
+                            consumer.accept(endLine(line));
+                            line.clear();
+                            lineStart = i + 1;
+                        }
                     }
-                });
-            });
-            return report;
+                    line = appendChars(line, chunk, lineStart, length - lineStart);
+                }
+                if (line.position() > 0) {
+                    consumer.accept(endLine(line));
+                }
+            } finally {
+                BufferUtils.release(chunk);
+            }
         }
 
-    }
+        // 追加字符到缓冲区, 容量不足时扩容
+        private CharBuffer appendChars(CharBuffer line, char[] chars, int offset, int length) {
+            if (line.remaining() < length) {
+                CharBuffer larger = CharBuffer.allocate(Math.max(line.capacity() * 2, line.position() + length));
+                line.flip();
+                line = larger.put(line);
+            }
+            return line.put(chars, offset, length);
+        }
 
-    /**
-     * HttpServletRequest 文件上传
-     */
-    public static final class HttpServletRequestFileUpload extends AbstractLocalFileUpload {
+        // 结束一行, 去除行尾的 \r, 切换为读模式
+        private CharBuffer endLine(CharBuffer line) {
+            if (line.position() > 0 && line.get(line.position() - 1) == '\r') {
+                line.position(line.position() - 1);
+            }
+            line.flip();
+            return line;
+        }
 
-        // HttpServletRequest
-        private HttpServletRequest request;
+        /**
+         * 并行逐行读取, 在公共的 ForkJoinPool 中执行
+         *
+         * @param consumer (每行的文本内容), 无序时会被多个线程并发调用, 须是线程安全的
+         * @param ordered  是否按行的先后顺序回调, 有序时需缓存尚未轮到的行, 吞吐量低于无序
+         */
+        public void parallelReadlines(Consumer<String> consumer, boolean ordered) {
+            parallelReadlines(consumer, ordered, null);
+        }
 
-        // 私有化
-        private HttpServletRequestFileUpload(HttpServletRequest request) {
-            this.request = request;
+        /**
+         * 并行逐行读取, 文件按字节范围切分, 切分点对齐到换行符, 各范围由 ForkJoinPool 的工作线程并行处理.
+         * <p>
+         * 仅对打开的文件且字符集兼容 ASCII 时并行, 否则退化为顺序读取
+         *
+         * @param consumer (每行的文本内容), 无序时会被多个线程并发调用, 须是线程安全的
+         * @param ordered  是否按行的先后顺序回调, 有序时需缓存尚未轮到的行, 吞吐量低于无序
+         * @param pool     执行的线程池, 为 null 时使用公共的 ForkJoinPool
+         */
+        public void parallelReadlines(Consumer<String> consumer, boolean ordered, ForkJoinPool pool) {
+            try (Stream<String> lines = lines().parallel()) {
+                Runnable task = ordered ? () -> lines.forEachOrdered(consumer) : () -> lines.forEach(consumer);
+                if (pool == null) {
+                    task.run();
+                } else {
+                    pool.submit(task).get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
         }
 
         /**
-         * 设置文件上传的大小限制
+         * 获取行的流, 使用完成后须关闭流以释放文件. 打开的文件且字符集兼容 ASCII 时,
+         * 流由按换行符切分字节范围的 Spliterator 支持, 调用 {@link Stream#parallel()} 即可按 CPU 核数并行处理
          *
-         * @param minSize 最小大小, 单位(B), 默认为0, 表示不限制
-         * @param maxSize 最大大小, 单位(B), 默认为0, 表示不限制
-         * @return
+         * @return 返回行的流
          */
-        public HttpServletRequestFileUpload setLimit(long minSize, long maxSize) {
-            this.limit(minSize, maxSize);
-            return this;
+        public Stream<String> lines() {
+            if (is instanceof FileInputStream && isAsciiCompatible(charset)) {
+                FileChannel channel = ((FileInputStream) is).getChannel();
+                try {
+                    LineSpliterator spliterator = new LineSpliterator(channel, channel.position(), channel.size(), Charset.forName(charset));
+                    return StreamSupport.stream(spliterator, false).onClose(this::closeStream);
+                } catch (IOException e) {
+                    closeStream();
+                    throw new RuntimeException(e);
+                }
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is, charset));
+                return reader.lines().onClose(this::closeStream);
+            } catch (UnsupportedEncodingException e) {
+                closeStream();
+                throw new RuntimeException(e);
+            }
         }
 
         /**
-         * 设置文件上传的允许的类型
+         * 转换字符集编码, eg: FileUtils.open(file, "GBK").transcode("UTF-8").to(dest)
          *
-         * @param extension 文件扩展名, 默认为空, 表示不限制, eg: "jpg", "png", 表示只允许 jpg 和 png 类型的文件上传
-         * @return
+         * @param targetCharset 目标字符集编码
+         * @return 返回输出转换后内容的可写的流对象
          */
-        public HttpServletRequestFileUpload setFilters(String... extension) {
-            this.filter(extension);
-            return this;
+        public WritableStream transcode(String targetCharset) {
+            return transcode(targetCharset, false);
         }
 
         /**
-         * 设置文件类型适配功能
+         * 转换字符集编码, 以流的方式逐块解码和编码, 解码器和编码器复用固定大小的缓冲区, 内存占用与文件大小无关.
+         * 无法解码或编码的字符以替换字符代替
          *
-         * @param typeAdapter 文件类型适配功能, 当上传的文件类型不符合时, 可通过此适配器转换并手工完成上传,
-         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
-         *                    上传后工具类找不到文件位置, 可以通过 renameTo 来修改文件扩展名, 以完成文件
-         *                    类型转换。转换成功时需返回true, 失败返回false.
-         * @return
+         * @param targetCharset 目标字符集编码
+         * @param detectCharset 是否根据开头的内容检测源字符集编码, 检测到 BOM 或有效的 UTF-8 内容时以其为准,
+         *                      否则使用打开时指定的字符集编码
+         * @return 返回输出转换后内容的可写的流对象
          */
-        public HttpServletRequestFileUpload setTypeAdapter(BiFunction<InputStream, File, Boolean> typeAdapter) {
-            this.typeAdapter = typeAdapter;
-            return this;
+        public WritableStream transcode(String targetCharset, boolean detectCharset) {
+            return new WritableStream(new TranscodingInputStream(is, Charset.forName(charset),
+                    Charset.forName(targetCharset), detectCharset), true);
         }
 
         /**
-         * 设置文件大小适配功能
+         * 跟踪文件, 从文件当前的末尾开始, 只读取此后追加的行, 参考 {@link #follow(long, Consumer)}
          *
-         * @param sizeAdapter 文件大小适配功能, 当上传的文件大小不符合时, 可通过此适配器转换并手工完成上传,
-         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
-         *                    上传后工具类找不到文件位置。转换成功时需返回true, 失败返回false.
-         * @return
+         * @param consumer (每个新追加的行的文本内容)
+         * @return 返回文件跟踪器, 不再使用时须调用 {@link FileFollower#stop()}
          */
-        public HttpServletRequestFileUpload setSizeAdapter(BiFunction<InputStream, File, Boolean> sizeAdapter) {
-            this.sizeAdapter = sizeAdapter;
-            return this;
+        public FileFollower follow(Consumer<String> consumer) {
+            return follow(file == null ? 0 : file.length(), consumer);
         }
 
         /**
-         * 执行文件上传
+         * 跟踪文件, 从指定的字节偏移开始在后台线程中读取追加的行, 类似 tail -F.
+         * <p>
+         * 通过 WatchService 监听文件的变化, 同时按固定的间隔轮询, 监听不可用(如网络文件系统)时仍能读取到追加的内容.
+         * 文件被截断时从头开始读取, 文件被轮转(重命名后重新创建)时读完旧文件剩余的行后切换到新文件.
+         * 字符集须兼容 ASCII, 以 \n 或 \r\n 作为行结束符, 未结束的行等待行结束符写入后才交给 consumer.
+         * <p>
+         * 读取文件出错时将异常交给 {@link FileFollower#setErrorHandler(Consumer)}, 并在下一个轮询间隔从最后一个完整的行之后
+         * 重新打开文件, 跟踪不会因此结束. consumer 抛出的异常同样交给错误处理器, 该行视为已读取, 偏移不会回退, 不会被再次交给 consumer
          *
-         * @return 返回一个文件上传的报告对象
+         * @param offset   开始读取的字节偏移, 可使用 {@link FileFollower#getOffset()} 记录的偏移恢复跟踪
+         * @param consumer (每个新追加的行的文本内容), 在跟踪线程中调用
+         * @return 返回文件跟踪器, 不再使用时须调用 {@link FileFollower#stop()}
          */
-        public FileUploadReport execute() {
-            FileUploadReport report = new FileUploadReport();
-            if (!ServletFileUpload.isMultipartContent(request)) {
-                report.addFailItem("不支持文件上传的表单域");
-            } else {
-                ServletFileUpload fileupload = new ServletFileUpload(new DiskFileItemFactory());
-                fileupload.setHeaderEncoding("UTF-8");
-                try {
-                    fileupload.parseRequest(request).stream().filter(fileItem -> !fileItem.isFormField()).forEach(fileItem -> {
-                        excuteFileUpload(report, fileItem, fileItem.getName(), fileItem.getSize(), file -> {
-                            try {
-                                fileItem.write(file);
-                            } catch (Exception e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
-                    });
-                } catch (FileUploadException e) {
-                    e.printStackTrace();
-                    report.addFailItem("文件上传失败, 请重新上传");
-                }
+        public FileFollower follow(long offset, Consumer<String> consumer) {
+            if (file == null) {
+                throw new IllegalStateException("Follow mode requires a file opened by FileUtils.open(File).");
+            }
+            if (!isAsciiCompatible(charset)) {
+                throw new IllegalArgumentException("Follow mode does not support charset " + charset);
+            }
+            closeStream();
+            FileFollower follower = new FileFollower(file, Charset.forName(charset), offset, consumer);
+            follower.start();
+            return follower;
+        }
+
+        // 关闭输入流
+        private void closeStream() {
+            try {
+                is.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-            return report;
         }
 
     }
 
     /**
-     * 本地文件访问器
+     * 文件跟踪器, 在后台守护线程中读取文件追加的行, 通过 {@link ReadableStream#follow(long, Consumer)} 创建
      */
-    public static final class LocalFileAccessor {
+    public static final class FileFollower {
 
-        // HttpServletResponse
-        private HttpServletResponse response;
+        // 跟踪的文件
+        private final Path path;
 
-        // 输出的 contentType
-        private String contentType;
+        // 字符集
+        private final Charset charset;
+
+        // (每个新追加的行的文本内容)
+        private final Consumer<String> consumer;
+
+        // 轮询的间隔毫秒数
+        private volatile long pollMillis = 1000;
+
+        // 错误处理器, 接收读取文件和 consumer 抛出的异常
+        private volatile Consumer<Exception> errorHandler = Throwable::printStackTrace;
+
+        // 下一个未读取的行的字节偏移
+        private volatile long offset;
+
+        // 是否正在跟踪
+        private volatile boolean running = true;
+
+        // 跟踪线程
+        private Thread thread;
+
+        // 文件变化监听服务, 不可用时为 null
+        private WatchService watchService;
+
+        // 当前读取的文件通道
+        private FileChannel channel;
+
+        // 当前读取的文件的标识, 用于识别文件轮转
+        private Object fileKey;
+
+        // 已读取到的位置
+        private long position;
+
+        // 读取的缓存, 跟踪线程运行期间从缓冲区池中申请
+        private ByteBuffer buffer;
+
+        // 未结束的行
+        private byte[] line = new byte[256];
+
+        // 未结束的行的字节长度
+        private int lineLength;
 
         // 私有化
-        private LocalFileAccessor(HttpServletResponse response) {
-            this.response = response;
+        private FileFollower(File file, Charset charset, long offset, Consumer<String> consumer) {
+            this.path = file.toPath();
+            this.charset = charset;
+            this.offset = offset;
+            this.consumer = consumer;
         }
 
         /**
-         * 设置 contentType
+         * 设置轮询的间隔毫秒数
          *
-         * @param contentType Content-Type
-         * @return
+         * @param pollMillis 轮询的间隔毫秒数, 默认 1000ms
+         * @return {@link FileFollower}
          */
-        public LocalFileAccessor setContentType(String contentType) {
-            this.contentType = contentType;
+        public FileFollower setPollMillis(long pollMillis) {
+            this.pollMillis = pollMillis;
             return this;
         }
 
         /**
-         * 访问本地文件
+         * 设置错误处理器, 在跟踪线程中接收读取文件出错和 consumer 抛出的异常. 读取出错后跟踪线程会重新打开文件继续跟踪,
+         * consumer 抛出异常的行视为已读取
          *
-         * @param fileKey 本地文件上传返回的文件 Key
+         * @param errorHandler 错误处理器, 默认打印到标准错误输出, 为 null 时忽略异常
+         * @return {@link FileFollower}
          */
-        public void access(String fileKey) {
-            access(LocalFileUpload.achieveLocalFile(fileKey));
+        public FileFollower setErrorHandler(Consumer<Exception> errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
         }
 
         /**
-         * 访问本地文件
+         * 获取下一个未读取的行的字节偏移, 可持久化后用于恢复跟踪
          *
-         * @param file 本地文件对象
+         * @return 返回字节偏移
          */
-        public void access(File file) {
-            if (file == null) {
-                throw new RuntimeException("找不到文件: " + file);
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * 是否正在跟踪
+         *
+         * @return true/false
+         */
+        public boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * 停止跟踪, 等待跟踪线程结束
+         */
+        public void stop() {
+            running = false;
+            closeWatchService();
+            thread.interrupt();
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
-            if (contentType == null) {
-                contentType = lookupMime(substringLastSeparator(file.getName(), "."));
+        }
+
+        // 启动跟踪线程
+        private void start() {
+            try {
+                Path folder = path.toAbsolutePath().getParent();
+                watchService = folder.getFileSystem().newWatchService();
+                folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                watchService = null;
             }
-            response.setContentType(contentType);
-            try (OutputStream out = response.getOutputStream()) {
-                new WritableStream(new FileInputStream(file), true).to(out);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            thread = new Thread(this::run, "FileUtils-follow-" + path.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // 跟踪循环
+        private void run() {
+            buffer = BufferUtils.acquireHeap(BUFFER_SIZE);
+            try {
+                while (running) {
+                    try {
+                        if (channel == null) {
+                            open(offset);
+                        }
+                        if (channel != null) {
+                            readAppended();
+                            checkRotation();
+                        }
+                    } catch (ClosedByInterruptException e) {
+                        // stop() 中断了正在读取文件的跟踪线程
+                        break;
+                    } catch (IOException e) {
+                        if (!running) {
+                            break;
+                        }
+                        report(e);
+                        // 关闭文件, 下一轮循环从最后一个完整的行之后重新打开
+                        closeChannel();
+                    }
+                    await();
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                // 停止跟踪
+            } finally {
+                running = false;
+                closeChannel();
+                closeWatchService();
+                BufferUtils.release(buffer);
+                buffer = null;
             }
         }
 
-        // 查找 MIME 类型
-        private String lookupMime(String extension) {
-            switch (extension) {
-                case "doc":
-                    return "application/msword";
-                case "docx":
-                    return "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-                case "rtf":
-                    return "application/rtf";
-                case "xls":
-                    return "application/vnd.ms-excel";
-                case "xlsx":
-                    return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
-                case "ppt":
-                    return "application/vnd.ms-powerpoint";
-                case "pptx":
-                    return "application/vnd.openxmlformats-officedocument.presentationml.presentation";
-                case "pdf":
-                    return "application/pdf";
-                case "swf":
-                    return "application/x-shockwave-flash";
-                case "dll":
-                    return "application/x-msdownload";
-                case "exe":
-                case "msi":
-                case "chm":
-                case "rar":
-                    return "application/octet-stream";
-                case "tar":
-                    return "application/x-tar";
-                case "zip":
-                    return "application/x-zip-compressed";
-                case "z":
-                case "tgz":
-                    return "application/x-compressed";
-                case "wav":
-                    return "audio/wav";
-                case "wma":
-                    return "audio/x-ms-wma";
-                case "wmv":
-                    return "video/x-ms-wmv";
-                case "mp2":
-                case "mp3":
-                case "mpe":
-                case "mpg":
-                case "mpeg":
-                    return "audio/mpeg";
-                case "bmp":
-                    return "image/bmp";
-                case "gif":
-                    return "image/gif";
-                case "png":
-                    return "image/png";
-                case "tif":
-                case "tiff":
-                    return "image/tiff";
-                case "jpe":
-                case "jpg":
-                case "jpeg":
-                    return "image/jpeg";
-                case "ico":
-                    return "image/x-icon";
-                case "txt":
-                    return "text/plain";
-                case "xml":
-                    return "text/xml";
-                case "html":
-                    return "text/html";
-                case "css":
-                    return "text/css";
-                case "js":
-                    return "text/javascript";
-                case "mht":
-                case "mhtml":
-                    return "message/rfc822";
-                default:
-                    return "";
+        // 打开文件, 文件不存在(包括检查后随即被删除)时等待其被创建
+        private void open(long from) throws IOException {
+            if (!Files.exists(path)) {
+                return;
+            }
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            } catch (NoSuchFileException e) {
+                closeChannel();
+                return;
+            }
+            position = from > channel.size() ? 0 : from;
+            offset = position;
+            lineLength = 0;
+        }
+
+        // 读取追加的内容, 文件被截断时从头开始读取
+        private void readAppended() throws IOException {
+            long size = channel.size();
+            if (size < position) {
+                position = offset = 0;
+                lineLength = 0;
+            }
+            byte[] chunk = buffer.array();
+            while (running && position < size) {
+                buffer.clear();
+                int length = channel.read(buffer, position);
+                if (length <= 0) {
+                    break;
+                }
+                long chunkStart = position;
+                position += length;
+                int lineStart = 0;
+                int i;
+                while ((i = indexOfLineFeed(chunk, lineStart, length)) != -1) {
+                    line = appendBytes(line, lineLength, chunk, lineStart, i - lineStart);
+                    String text = decodeLine(line, 0, lineLength + i - lineStart, charset);
+                    lineLength = 0;
+                    lineStart = i + 1;
+                    offset = chunkStart + lineStart;
+                    accept(text);
+                }
+                line = appendBytes(line, lineLength, chunk, lineStart, length - lineStart);
+                lineLength += length - lineStart;
+            }
+        }
+
+        // 文件被轮转(替换或删除)时读完旧文件, 切换到新文件
+        private void checkRotation() throws IOException {
+            Object currentKey = null;
+            try {
+                currentKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                if (currentKey == null || currentKey.equals(fileKey)) {
+                    return;
+                }
+            } catch (NoSuchFileException e) {
+                // 文件已被删除或正在轮转
+            }
+            readAppended();
+            // 旧文件最后未结束的行不会再有行结束符
+            if (lineLength > 0) {
+                String text = decodeLine(line, 0, lineLength, charset);
+                lineLength = 0;
+                accept(text);
+            }
+            closeChannel();
+            // 新文件从头读取, 轮转期间文件暂时不存在时由下一轮循环打开
+            position = offset = 0;
+            if (currentKey != null) {
+                open(0);
+            }
+        }
+
+        // 等待文件变化或轮询间隔到达
+        private void await() throws InterruptedException {
+            if (watchService == null) {
+                Thread.sleep(pollMillis);
+                return;
+            }
+            WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+        }
+
+        // 回调一行, 偏移已越过该行, consumer 抛出的异常交给错误处理器
+        private void accept(String text) {
+            try {
+                consumer.accept(text);
+            } catch (RuntimeException e) {
+                report(e);
+            }
+        }
+
+        // 通知错误处理器
+        private void report(Exception e) {
+            Consumer<Exception> handler = errorHandler;
+            if (handler != null) {
+                handler.accept(e);
+            }
+        }
+
+        // 关闭文件变化监听服务
+        private void closeWatchService() {
+            WatchService service = watchService;
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+            }
+        }
+
+        // 关闭文件通道
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+                channel = null;
             }
         }
 
     }
 
     /**
-     * 本地文件上传基类
+     * URL 流
+     *
+     * @author fanlychie
      */
-    private static abstract class AbstractLocalFileUpload {
+    public static final class UrlStream {
 
-        // 允许文件上传的最小大小
-        protected long minSize;
+        // 分段下载失败时每段的最大重试次数
+        private static final int SEGMENT_RETRY_TIMES = 3;
 
-        // 允许文件上传的最大大小
-        protected long maxSize;
+        // If-Range 请求头中的 HTTP 日期格式
+        private static final DateTimeFormatter HTTP_DATE_FORMATTER = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
 
-        // 允许文件上传的类型
-        protected List<String> filters;
+        private String url;
 
-        // 文件大小限制提示信息
-        protected String limitTips;
+        private String fileName;
 
-        // 文件类型限制提示信息
-        protected String filterTips;
+        private HttpURLConnection conn;
 
-        // 文件类型适配功能
-        protected BiFunction<InputStream, File, Boolean> typeAdapter;
+        // 读取超时的毫秒数
+        private int readTimeout = 300000;
 
-        // 文件大小适配功能
-        protected BiFunction<InputStream, File, Boolean> sizeAdapter;
+        // 连接超时的毫秒数
+        private int connectTimeout = 60000;
 
-        // 限制上传的文件大小
-        protected void limit(long minSize, long maxSize) {
-            this.minSize = minSize;
-            this.maxSize = maxSize;
-            this.limitTips = "请上传 ";
-            if (maxSize != 0 && minSize == 0) {
-                minSize = 1;
+        // 分段下载的并行连接数
+        private int segments = 1;
+
+        // 校验和算法
+        private String checksumAlgorithm;
+
+        // 期望的校验和
+        private String checksum;
+
+        // 私有构造
+        private UrlStream(String url) {
+            this.url = url;
+            this.conn = createHttpURLConnection(url);
+            this.fileName = substringLastSeparator(url, "/");
+        }
+
+        /**
+         * 下载到本地目录. 设置了分段数且服务端支持 Range 请求时, 以多个连接并行下载各段,
+         * 中断后再次下载同一文件时从进度文件(文件名.progress)记录的位置继续下载
+         *
+         * @param localFolder 本地目录
+         */
+        public void download(File localFolder) {
+            if (!localFolder.exists()) {
+                throw new IllegalArgumentException("'" + localFolder + "' not exist");
+            } else if (!localFolder.isDirectory()) {
+                throw new IllegalArgumentException("'" + localFolder + "' is not a directory");
             }
-            if (minSize != 0 && maxSize != 0) {
-                this.limitTips += transformFileUnit(minSize);
-                this.limitTips += " ~ ";
-                this.limitTips += transformFileUnit(maxSize);
-                this.limitTips += " 的文件";
+            File dest = new File(localFolder, fileName);
+            if (segments <= 1 || !downloadSegments(dest)) {
+                try (InputStream is = conn.getInputStream(); OutputStream os = new FileOutputStream(dest)) {
+                    transfer(is, os);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
+            verifyChecksum(dest);
         }
 
-        // 限制上传的文件类型
-        protected void filter(String... extension) {
-            this.filters = new ArrayList<>();
+        /**
+         * 设置分段下载的并行连接数, 服务端不支持 Range 请求或未返回文件长度时退化为单连接下载
+         *
+         * @param segments 并行连接数, 默认 1, 即不分段
+         * @return {@link UrlStream}
+         */
+        public UrlStream setSegments(int segments) {
+            this.segments = segments;
+            return this;
+        }
+
+        /**
+         * 设置下载完成后校验的校验和, 不一致时删除下载的文件并抛出异常
+         *
+         * @param algorithm 校验和算法, eg: MD5, SHA-256
+         * @param checksum  期望的校验和, 十六进制字符串, 不区分大小写
+         * @return {@link UrlStream}
+         */
+        public UrlStream setChecksum(String algorithm, String checksum) {
+            this.checksumAlgorithm = algorithm;
+            this.checksum = checksum;
+            return this;
+        }
+
+        /**
+         * 设置下载的文件的名称
+         *
+         * @param fileName 文件名称
+         * @return {@link UrlStream}
+         */
+        public UrlStream setFileName(String fileName) {
+            this.fileName = fileName;
+            return this;
+        }
+
+        /**
+         * 设置读取超时时间
+         *
+         * @param second 秒
+         * @return {@link UrlStream}
+         */
+        public UrlStream setReadTimeout(int second) {
+            this.readTimeout = second * 1000;
+            this.conn.setReadTimeout(second * 1000);
+            return this;
+        }
+
+        /**
+         * 设置连接超时时间
+         *
+         * @param second 秒
+         * @return {@link UrlStream}
+         */
+        public UrlStream setConnectTimeout(int second) {
+            this.connectTimeout = second * 1000;
+            this.conn.setConnectTimeout(second * 1000);
+            return this;
+        }
+
+        /**
+         * 分段下载, 各段以 Range 请求并行下载, 通过 FileChannel 按位置写入预先分配大小的文件.
+         * 各段以 If-Range 保证来自同一版本的文件, 优先使用强 ETag, 其次使用最后修改时间; 弱 ETag 不能用于 If-Range,
+         * 只有弱 ETag 而没有最后修改时间时退化为单连接下载. 任意一段重试用尽后其余各段停止下载
+         *
+         * @param dest 目标文件
+         * @return 服务端不支持 Range 请求或无法校验文件版本时返回 false
+         */
+        private boolean downloadSegments(File dest) {
+            HttpURLConnection head = createConnection();
+            long length;
+            String etag;
+            long lastModified;
+            try {
+                head.setRequestMethod("HEAD");
+                if (head.getResponseCode() != HttpURLConnection.HTTP_OK
+                        || !"bytes".equalsIgnoreCase(head.getHeaderField("Accept-Ranges"))) {
+                    return false;
+                }
+                length = head.getContentLengthLong();
+                etag = head.getHeaderField("ETag");
+                lastModified = head.getLastModified();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                head.disconnect();
+            }
+            if (length <= 0) {
+                return false;
+            }
+            String validator = null;
+            if (etag != null && !etag.startsWith("W/")) {
+                validator = etag;
+            } else if (lastModified > 0) {
+                validator = HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(lastModified));
+            } else if (etag != null) {
+                return false;
+            }
+            String ifRange = validator;
+            // 读取进度, 远程文件未变化时继续下载
+            File progressFile = new File(dest.getPath() + ".progress");
+            Properties progress = loadProgress(progressFile, dest, length, etag, lastModified);
+            int count = Integer.parseInt(progress.getProperty("segments"));
+            AtomicLongArray positions = new AtomicLongArray(count);
+            long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                ends[i] = i == count - 1 ? length : length / count * (i + 1);
+                positions.set(i, Long.parseLong(progress.getProperty("segment." + i)));
+            }
+            try (RandomAccessFile file = new RandomAccessFile(dest, "rw")) {
+                file.setLength(length);
+                FileChannel channel = file.getChannel();
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+                // 第一个失败的段的异常, 其余各段看到后停止下载
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                for (int i = 0; i < count; i++) {
+                    int index = i;
+                    futures[i] = CompletableFuture.runAsync(() -> {
+                        try {
+                            downloadSegment(channel, positions, index, ends[index], ifRange, failure);
+                        } catch (IOException | RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }, ASYNC_EXECUTOR);
+                }
+                CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+                // 等待各段完成, 每秒保存一次进度
+                while (true) {
+                    try {
+                        all.get(1, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        saveProgress(progressFile, progress, positions);
+                    } catch (ExecutionException e) {
+                        failure.compareAndSet(null, e.getCause());
+                        break;
+                    }
+                }
+                Throwable cause = failure.get();
+                if (cause != null) {
+                    saveProgress(progressFile, progress, positions);
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                saveProgress(progressFile, progress, positions);
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                saveProgress(progressFile, progress, positions);
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            progressFile.delete();
+            return true;
+        }
+
+        /**
+         * 下载一段, 失败时从已写入的位置重试
+         *
+         * @param channel   目标文件通道
+         * @param positions 各段下一个待写入的位置
+         * @param index     段的索引
+         * @param end       段的结束位置(不包含)
+         * @param ifRange   If-Range 请求头的值(强 ETag 或 HTTP 日期), 保证各段来自同一版本的文件, 为 null 时不发送
+         * @param failure   其他段失败的异常, 不为 null 时停止下载
+         * @throws IOException
+         */
+        private void downloadSegment(FileChannel channel, AtomicLongArray positions, int index, long end, String ifRange,
+                                     AtomicReference<Throwable> failure) throws IOException {
+            ByteBuffer wrapper = BufferUtils.acquireHeap(BUFFER_SIZE);
+            byte[] buffer = wrapper.array();
+            try {
+                for (int attempt = 0; ; attempt++) {
+                    long position = positions.get(index);
+                    if (position >= end || failure.get() != null) {
+                        return;
+                    }
+                    HttpURLConnection segment = createConnection();
+                    segment.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+                    if (ifRange != null) {
+                        segment.setRequestProperty("If-Range", ifRange);
+                    }
+                    try (InputStream in = segment.getInputStream()) {
+                        if (segment.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                            throw new IOException("Range request not honored, response code: " + segment.getResponseCode());
+                        }
+                        int read;
+                        while (position < end && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+                            wrapper.clear().limit(read);
+                            while (wrapper.hasRemaining()) {
+                                position += channel.write(wrapper, position);
+                            }
+                            positions.set(index, position);
+                            if (failure.get() != null) {
+                                return;
+                            }
+                        }
+                        if (position < end) {
+                            throw new EOFException("Segment " + index + " ended at " + position + ", expected " + end);
+                        }
+                        return;
+                    } catch (IOException e) {
+                        if (attempt >= SEGMENT_RETRY_TIMES) {
+                            throw e;
+                        }
+                    } finally {
+                        segment.disconnect();
+                    }
+                }
+            } finally {
+                BufferUtils.release(wrapper);
+            }
+        }
+
+        /**
+         * 读取下载进度, 进度文件不存在或远程文件已变化时创建新的进度
+         *
+         * @param progressFile 进度文件
+         * @param dest         目标文件
+         * @param length       远程文件的长度
+         * @param etag         远程文件的 ETag
+         * @param lastModified 远程文件的最后修改时间
+         * @return 返回下载进度
+         */
+        private Properties loadProgress(File progressFile, File dest, long length, String etag, long lastModified) {
+            Properties progress = new Properties();
+            if (progressFile.exists() && dest.length() == length) {
+                try (InputStream in = new FileInputStream(progressFile)) {
+                    progress.load(in);
+                    if (String.valueOf(length).equals(progress.getProperty("length"))
+                            && String.valueOf(etag).equals(progress.getProperty("etag"))
+                            && String.valueOf(lastModified).equals(progress.getProperty("lastModified"))) {
+                        return progress;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // 进度文件损坏, 重新下载
+                }
+                progress.clear();
+            }
+            int count = (int) Math.max(1, Math.min(segments, length / BUFFER_SIZE));
+            progress.setProperty("length", String.valueOf(length));
+            progress.setProperty("etag", String.valueOf(etag));
+            progress.setProperty("lastModified", String.valueOf(lastModified));
+            progress.setProperty("segments", String.valueOf(count));
+            for (int i = 0; i < count; i++) {
+                progress.setProperty("segment." + i, String.valueOf(length / count * i));
+            }
+            return progress;
+        }
+
+        /**
+         * 保存下载进度, 先写入临时文件再替换, 避免中断时进度文件不完整
+         *
+         * @param progressFile 进度文件
+         * @param progress     下载进度
+         * @param positions    各段下一个待写入的位置
+         */
+        private void saveProgress(File progressFile, Properties progress, AtomicLongArray positions) {
+            for (int i = 0; i < positions.length(); i++) {
+                progress.setProperty("segment." + i, String.valueOf(positions.get(i)));
+            }
+            File temp = new File(progressFile.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                progress.store(out, url);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            try {
+                Files.move(temp.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * 校验下载的文件, 不一致时删除文件并抛出异常
+         *
+         * @param dest 下载的文件
+         */
+        private void verifyChecksum(File dest) {
+            if (checksum == null) {
+                return;
+            }
+            String actual = digest(dest, checksumAlgorithm);
+            if (!actual.equalsIgnoreCase(checksum)) {
+                dest.delete();
+                throw new RuntimeException("Checksum mismatch for '" + dest + "', expected " + checksum + " but was " + actual);
+            }
+        }
+
+        /**
+         * 创建使用当前超时设置的链接
+         *
+         * @return HttpURLConnection
+         */
+        private HttpURLConnection createConnection() {
+            HttpURLConnection connection = createHttpURLConnection(url);
+            connection.setReadTimeout(readTimeout);
+            connection.setConnectTimeout(connectTimeout);
+            return connection;
+        }
+
+        /**
+         * 创建一个 Http URL 链接对象
+         *
+         * @param url URL地址
+         * @return HttpURLConnection
+         */
+        private static HttpURLConnection createHttpURLConnection(String url) {
+            try {
+                HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+                conn.setReadTimeout(300000);
+                conn.setConnectTimeout(60000);
+                conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/38.0.2125.122 Safari/537.36 SE 2.X MetaSr 1.0");
+                return conn;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Base64 图片文件解码器
+     */
+    public static final class Base64ImageFileDecoder {
+
+        // 文件名
+        private String fileName;
+
+        // 图片文件被 Base64 编码后的字符串
+        private String base64EncodeStr;
+
+        // 私有化
+        private Base64ImageFileDecoder(String base64EncodeStr) {
+            this.base64EncodeStr = base64EncodeStr;
+        }
+
+        /**
+         * 解码到文件夹
+         *
+         * @param folder 存放图片的文件夹对象
+         * @return 返回解码后的图片文件对象
+         */
+        public File to(File folder) {
+            Pattern pattern = Pattern.compile("(data:image/\\w+;base64,)(\\S+)");
+            Matcher matcher = pattern.matcher(base64EncodeStr);
+            if (fileName == null) {
+                String scheme = matcher.replaceAll("$1");
+                String extension = "";
+                int index = scheme.indexOf("/") + 1;
+                int limit = scheme.indexOf(";");
+                if (index != -1 && limit != -1) {
+                    extension = scheme.substring(index, limit);
+                    if (extension.equalsIgnoreCase("jpeg")) {
+                        extension = ".jpg";
+                    } else if (extension.equalsIgnoreCase("x-icon")) {
+                        extension = ".ico";
+                    } else {
+                        extension = "." + extension;
+                    }
+                }
+                fileName = UUID.randomUUID().toString().replace("-", "") + extension;
+            }
+            File dest = new File(folder, fileName);
+            base64EncodeStr = matcher.replaceAll("$2");
+            byte[] contents = base64Decode(base64EncodeStr);
+            for (int i = 0; i < contents.length; ++i) {
+                if (contents[i] < 0) {
+                    contents[i] += 256;
+                }
+            }
+            try {
+                try (OutputStream out = new FileOutputStream(dest)) {
+                    out.write(contents);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return dest;
+        }
+
+        /**
+         * 设置图片文件存储的文件名
+         *
+         * @param fileName 文件名, eg: demo.jpg
+         */
+        public Base64ImageFileDecoder setFileName(String fileName) {
+            this.fileName = fileName;
+            return this;
+        }
+
+    }
+
+    /**
+     * Base64 图片文件编码器
+     */
+    public static final class Base64ImageFileEncoder {
+
+        // 图片文件类型
+        private String type;
+
+        // 输入流
+        private InputStream in;
+
+        // 完成时自动关闭流
+        private boolean autoCloseStream = true;
+
+        // 私有化
+        private Base64ImageFileEncoder(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * 设置文件类型
+         *
+         * @param type 文件类型, eg: jpg
+         */
+        public Base64ImageFileEncoder setType(String type) {
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * 设置完成时是否自动关闭流, 默认自动关闭
+         *
+         * @param autoCloseStream true/false
+         */
+        public Base64ImageFileEncoder setAutoCloseStream(boolean autoCloseStream) {
+            this.autoCloseStream = autoCloseStream;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            try {
+                if (type == null || type.length() == 0 || type.equalsIgnoreCase("jpg")) {
+                    type = "jpeg";
+                } else if (type.equalsIgnoreCase("ico")) {
+                    type = "x-icon";
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                buffer.write(("data:image/" + type + ";base64,").getBytes(StandardCharsets.ISO_8859_1));
+                // 边读取边编码, 不再缓存整个原始内容
+                try (OutputStream encoder = base64Encode(buffer)) {
+                    transfer(in, encoder);
+                }
+                return buffer.toString("ISO-8859-1");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (autoCloseStream && in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * SpringMVC 文件上传
+     */
+    public static final class SpringMVCFileUpload extends AbstractLocalFileUpload {
+
+        // SpringMVC 文件对象数组
+        private MultipartFile[] files;
+
+        // 私有化
+        private SpringMVCFileUpload(MultipartFile[] files) {
+            this.files = files;
+        }
+
+        /**
+         * 设置文件上传的大小限制
+         *
+         * @param minSize 最小大小, 单位(B), 默认为0, 表示不限制
+         * @param maxSize 最大大小, 单位(B), 默认为0, 表示不限制
+         * @return
+         */
+        public SpringMVCFileUpload setLimit(long minSize, long maxSize) {
+            this.limit(minSize, maxSize);
+            return this;
+        }
+
+        /**
+         * 设置文件上传的允许的类型
+         *
+         * @param extension 文件扩展名, 默认为空, 表示不限制, eg: "jpg", "png", 表示只允许 jpg 和 png 类型的文件上传
+         * @return
+         */
+        public SpringMVCFileUpload setFilters(String... extension) {
+            this.filter(extension);
+            return this;
+        }
+
+        /**
+         * 设置文件类型适配功能
+         *
+         * @param typeAdapter 文件类型适配功能, 当上传的文件类型不符合时, 可通过此适配器转换并手工完成上传,
+         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
+         *                    上传后工具类找不到文件位置, 可以通过 renameTo 来修改文件扩展名, 以完成文件
+         *                    类型转换。转换成功时需返回true, 失败返回false.
+         * @return
+         */
+        public SpringMVCFileUpload setTypeAdapter(BiFunction<InputStream, File, Boolean> typeAdapter) {
+            this.typeAdapter = typeAdapter;
+            return this;
+        }
+
+        /**
+         * 设置文件大小适配功能
+         *
+         * @param sizeAdapter 文件大小适配功能, 当上传的文件大小不符合时, 可通过此适配器转换并手工完成上传,
+         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
+         *                    上传后工具类找不到文件位置。转换成功时需返回true, 失败返回false.
+         * @return
+         */
+        public SpringMVCFileUpload setSizeAdapter(BiFunction<InputStream, File, Boolean> sizeAdapter) {
+            this.sizeAdapter = sizeAdapter;
+            return this;
+        }
+
+        /**
+         * 设置并行写出文件的最大线程数, 报告中的文件 Key 和失败消息仍按文件的顺序排列
+         *
+         * @param parallelism 最大线程数(含调用线程), 默认为 1, 表示逐个写出
+         * @return
+         */
+        public SpringMVCFileUpload setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * 设置并行写出文件使用的线程池
+         *
+         * @param executor 线程池, 默认使用工具类内部线程数与处理器数相同的守护线程池
+         * @return
+         */
+        public SpringMVCFileUpload setExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 设置是否检查文件头, 开启后在写入文件之前读取文件开头的若干字节, 按常见图片/文档/压缩包等格式的魔数检查文件内容
+         * 是否与扩展名相符, 不相符时与不支持的类型同样处理. 签名表中没有的扩展名(如 txt)不做检查
+         *
+         * @param contentSniffing 是否检查文件头, 默认为 false
+         * @return
+         */
+        public SpringMVCFileUpload setContentSniffing(boolean contentSniffing) {
+            this.contentSniffing = contentSniffing;
+            return this;
+        }
+
+        /**
+         * 执行文件上传
+         *
+         * @return 返回一个文件上传的报告对象
+         */
+        public FileUploadReport execute() {
+            FileUploadReport report = new FileUploadReport();
+            List<MultipartFile> items = Arrays.stream(files).filter(file -> file != null && !file.isEmpty()).collect(Collectors.toList());
+            excuteFileUploads(report, items, (itemReport, file) -> {
+                excuteFileUpload(itemReport, file, file.getOriginalFilename(), file.getSize(), destFile -> {
+                    try {
+                        file.transferTo(destFile);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            });
+            return report;
+        }
+
+    }
+
+    /**
+     * HttpServletRequest 文件上传
+     */
+    public static final class HttpServletRequestFileUpload extends AbstractLocalFileUpload {
+
+        // HttpServletRequest
+        private HttpServletRequest request;
+
+        // 是否使用流式解析
+        private boolean streaming;
+
+        // 整个请求的最大大小
+        private long maxRequestSize;
+
+        // 私有化
+        private HttpServletRequestFileUpload(HttpServletRequest request) {
+            this.request = request;
+        }
+
+        /**
+         * 设置文件上传的大小限制
+         *
+         * @param minSize 最小大小, 单位(B), 默认为0, 表示不限制
+         * @param maxSize 最大大小, 单位(B), 默认为0, 表示不限制
+         * @return
+         */
+        public HttpServletRequestFileUpload setLimit(long minSize, long maxSize) {
+            this.limit(minSize, maxSize);
+            return this;
+        }
+
+        /**
+         * 设置文件上传的允许的类型
+         *
+         * @param extension 文件扩展名, 默认为空, 表示不限制, eg: "jpg", "png", 表示只允许 jpg 和 png 类型的文件上传
+         * @return
+         */
+        public HttpServletRequestFileUpload setFilters(String... extension) {
+            this.filter(extension);
+            return this;
+        }
+
+        /**
+         * 设置文件类型适配功能
+         *
+         * @param typeAdapter 文件类型适配功能, 当上传的文件类型不符合时, 可通过此适配器转换并手工完成上传,
+         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
+         *                    上传后工具类找不到文件位置, 可以通过 renameTo 来修改文件扩展名, 以完成文件
+         *                    类型转换。转换成功时需返回true, 失败返回false.
+         * @return
+         */
+        public HttpServletRequestFileUpload setTypeAdapter(BiFunction<InputStream, File, Boolean> typeAdapter) {
+            this.typeAdapter = typeAdapter;
+            return this;
+        }
+
+        /**
+         * 设置文件大小适配功能
+         *
+         * @param sizeAdapter 文件大小适配功能, 当上传的文件大小不符合时, 可通过此适配器转换并手工完成上传,
+         *                    参数：(InputStream, File), File 为未存储的文件对象, 文件名不可修改, 否则
+         *                    上传后工具类找不到文件位置。转换成功时需返回true, 失败返回false.
+         * @return
+         */
+        public HttpServletRequestFileUpload setSizeAdapter(BiFunction<InputStream, File, Boolean> sizeAdapter) {
+            this.sizeAdapter = sizeAdapter;
+            return this;
+        }
+
+        /**
+         * 设置并行写出文件的最大线程数, 报告中的文件 Key 和失败消息仍按文件的顺序排列
+         *
+         * @param parallelism 最大线程数(含调用线程), 默认为 1, 表示逐个写出
+         * @return
+         */
+        public HttpServletRequestFileUpload setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * 设置并行写出文件使用的线程池
+         *
+         * @param executor 线程池, 默认使用工具类内部线程数与处理器数相同的守护线程池
+         * @return
+         */
+        public HttpServletRequestFileUpload setExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 设置是否检查文件头, 开启后在写入文件之前读取文件开头的若干字节, 按常见图片/文档/压缩包等格式的魔数检查文件内容
+         * 是否与扩展名相符, 不相符时与不支持的类型同样处理. 签名表中没有的扩展名(如 txt)不做检查
+         *
+         * @param contentSniffing 是否检查文件头, 默认为 false
+         * @return
+         */
+        public HttpServletRequestFileUpload setContentSniffing(boolean contentSniffing) {
+            this.contentSniffing = contentSniffing;
+            return this;
+        }
+
+        /**
+         * 设置整个请求的大小限制, 超出时不再读取请求, 所有文件均上传失败
+         *
+         * @param maxRequestSize 最大大小, 单位(B), 默认为0, 表示不限制
+         * @return
+         */
+        public HttpServletRequestFileUpload setMaxRequestSize(long maxRequestSize) {
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        /**
+         * 设置是否使用流式解析, 流式解析时按请求中的顺序逐个读取文件, 直接写入最终的存储位置, 不经过 DiskFileItemFactory
+         * 的临时文件, 内容寻址存储时边接收边计算摘要. 接收的同时检查文件大小, 没有设置 sizeAdapter 时超出最大限制立即中止请求,
+         * 不再读取该文件剩余的内容和后续的文件; 设置了 sizeAdapter 时停止写入, 将已接收和未接收的内容交给适配器.
+         * 流式解析不支持并行写出
+         *
+         * @param streaming 是否使用流式解析, 默认为 false
+         * @return
+         */
+        public HttpServletRequestFileUpload setStreaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * 执行文件上传
+         *
+         * @return 返回一个文件上传的报告对象
+         */
+        public FileUploadReport execute() {
+            FileUploadReport report = new FileUploadReport();
+            if (!ServletFileUpload.isMultipartContent(request)) {
+                report.addFailItem("不支持文件上传的表单域");
+            } else if (streaming) {
+                ServletFileUpload fileupload = new ServletFileUpload();
+                fileupload.setHeaderEncoding("UTF-8");
+                fileupload.setSizeMax(maxRequestSize > 0 ? maxRequestSize : -1);
+                // 没有大小适配器时, 超出最大限制由 commons-fileupload 关闭请求的输入流, 不再读取剩余的内容
+                if (sizeAdapter == null && maxSize != 0) {
+                    fileupload.setFileSizeMax(maxSize);
+                }
+                try {
+                    FileItemIterator iterator = fileupload.getItemIterator(request);
+                    while (iterator.hasNext()) {
+                        FileItemStream item = iterator.next();
+                        // 未选择文件的表单域文件名为空
+                        if (item.isFormField() || item.getName() == null || item.getName().isEmpty()) {
+                            continue;
+                        }
+                        try (InputStream in = item.openStream()) {
+                            excuteStreamingUpload(report, in, item.getName());
+                        }
+                    }
+                } catch (FileUploadBase.FileUploadIOException e) {
+                    reportSizeLimit(report, e.getCause());
+                } catch (FileUploadBase.FileSizeLimitExceededException | FileUploadBase.SizeLimitExceededException e) {
+                    reportSizeLimit(report, e);
+                } catch (FileUploadException | IOException e) {
+                    e.printStackTrace();
+                    report.addFailItem("文件上传失败, 请重新上传");
+                }
+            } else {
+                ServletFileUpload fileupload = new ServletFileUpload(new DiskFileItemFactory());
+                fileupload.setHeaderEncoding("UTF-8");
+                fileupload.setSizeMax(maxRequestSize > 0 ? maxRequestSize : -1);
+                try {
+                    List<FileItem> items = fileupload.parseRequest(request).stream().filter(fileItem -> !fileItem.isFormField()).collect(Collectors.toList());
+                    excuteFileUploads(report, items, (itemReport, fileItem) -> {
+                        excuteFileUpload(itemReport, fileItem, fileItem.getName(), fileItem.getSize(), file -> {
+                            try {
+                                fileItem.write(file);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+                    });
+                } catch (FileUploadBase.SizeLimitExceededException e) {
+                    reportSizeLimit(report, e);
+                } catch (FileUploadException e) {
+                    e.printStackTrace();
+                    report.addFailItem("文件上传失败, 请重新上传");
+                }
+            }
+            return report;
+        }
+
+        // 记录超出大小限制而中止的请求
+        private void reportSizeLimit(FileUploadReport report, Throwable e) {
+            if (e instanceof FileUploadBase.FileSizeLimitExceededException) {
+                String fileName = ((FileUploadBase.FileSizeLimitExceededException) e).getFileName();
+                report.addFailItem("文件 \"" + fileName + "\" 太大, 不符合上传标准, " + limitTips);
+            } else {
+                report.addFailItem("上传的内容超出 " + transformFileUnit(maxRequestSize) + ", 请分批上传");
+            }
+        }
+
+        /**
+         * 流式接收一个文件, 边读取边写入存储位置, 内容寻址存储时同时计算摘要. 超出 fileSizeMax 时抛出
+         * FileUploadIOException, 此时请求已被中止, 不能再读取后续的文件
+         *
+         * @param report   文件上传报告
+         * @param source   文件的输入流
+         * @param fileName 文件名称
+         * @throws FileUploadBase.FileUploadIOException
+         */
+        private void excuteStreamingUpload(FileUploadReport report, InputStream source, String fileName) throws FileUploadBase.FileUploadIOException {
+            String extension = substringLastSeparator(fileName, ".");
+            // 检查文件头后推回, 写入的仍是完整的内容
+            PushbackInputStream in = new PushbackInputStream(source, SIGNATURE_LENGTH);
+            String typeMismatch;
+            try {
+                typeMismatch = checkType(in, fileName, extension);
+            } catch (FileUploadBase.FileUploadIOException e) {
+                throw e;
+            } catch (IOException e) {
+                e.printStackTrace();
+                report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
+                return;
+            }
+            if (typeMismatch != null) {
+                if (typeAdapter != null) {
+                    adaptFile(report, in, fileName, extension, typeAdapter);
+                } else {
+                    report.addFailItem(typeMismatch);
+                }
+                return;
+            }
+            LocalFile localFile = LocalFileUpload.createLocalFile(extension);
+            try {
+                long size;
+                // 内容寻址存储时边接收边计算摘要, 提交时不再重新读取文件
+                MessageDigest digest = LocalFileUpload.isStaged(localFile) ? MessageDigest.getInstance(LocalFileUpload.digestAlgorithm) : null;
+                try (OutputStream out = new FileOutputStream(localFile.file)) {
+                    size = transfer(digest == null ? in : new DigestInputStream(in, digest), out, maxSize);
+                }
+                String overSizeLimit = null;
+                if (minSize != 0 && size < minSize) {
+                    overSizeLimit = "太小";
+                } else if (maxSize != 0 && size > maxSize) {
+                    overSizeLimit = "太大";
+                }
+                if (overSizeLimit == null) {
+                    report.addSuccessItem(LocalFileUpload.commit(localFile, digest == null ? null : toHex(digest.digest())).key);
+                    localFile = null;
+                } else if (sizeAdapter != null) {
+                    // 已写入的部分加上未读取的部分即为完整的文件内容
+                    try (InputStream received = new FileInputStream(localFile.file)) {
+                        adaptFile(report, new SequenceInputStream(received, in), fileName, extension, sizeAdapter);
+                    }
+                } else {
+                    report.addFailItem("文件 \"" + fileName + "\" " + overSizeLimit + ", 不符合上传标准, " + limitTips);
+                }
+            } catch (FileUploadBase.FileUploadIOException e) {
+                throw e;
+            } catch (Throwable e) {
+                e.printStackTrace();
+                report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
+            } finally {
+                if (localFile != null) {
+                    LocalFileUpload.discard(localFile);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 本地文件访问器
+     */
+    public static final class LocalFileAccessor {
+
+        // HttpServletResponse
+        private HttpServletResponse response;
+
+        // 输出的 contentType
+        private String contentType;
+
+        // 私有化
+        private LocalFileAccessor(HttpServletResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * 设置 contentType
+         *
+         * @param contentType Content-Type
+         * @return
+         */
+        public LocalFileAccessor setContentType(String contentType) {
+            this.contentType = contentType;
+            return this;
+        }
+
+        /**
+         * 访问本地文件
+         *
+         * @param fileKey 本地文件上传返回的文件 Key
+         */
+        public void access(String fileKey) {
+            LocalFile localFile = LocalFileUpload.resolveLocalFile(fileKey);
+            if (localFile == null) {
+                throw new RuntimeException("找不到文件: " + fileKey);
+            }
+            access(localFile.file, localFile.extension);
+        }
+
+        /**
+         * 访问本地文件
+         *
+         * @param file 本地文件对象
+         */
+        public void access(File file) {
+            if (file == null) {
+                throw new RuntimeException("找不到文件: " + file);
+            }
+            access(file, substringLastSeparator(file.getName(), "."));
+        }
+
+        // 访问本地文件, 未设置 contentType 时根据扩展名查找
+        private void access(File file, String extension) {
+            if (contentType == null) {
+                contentType = lookupMime(extension);
+            }
+            response.setContentType(contentType);
+            try (OutputStream out = response.getOutputStream()) {
+                write(file).to(out);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // 查找 MIME 类型
+        private String lookupMime(String extension) {
+            switch (extension) {
+                case "doc":
+                    return "application/msword";
+                case "docx":
+                    return "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+                case "rtf":
+                    return "application/rtf";
+                case "xls":
+                    return "application/vnd.ms-excel";
+                case "xlsx":
+                    return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+                case "ppt":
+                    return "application/vnd.ms-powerpoint";
+                case "pptx":
+                    return "application/vnd.openxmlformats-officedocument.presentationml.presentation";
+                case "pdf":
+                    return "application/pdf";
+                case "swf":
+                    return "application/x-shockwave-flash";
+                case "dll":
+                    return "application/x-msdownload";
+                case "exe":
+                case "msi":
+                case "chm":
+                case "rar":
+                    return "application/octet-stream";
+                case "tar":
+                    return "application/x-tar";
+                case "zip":
+                    return "application/x-zip-compressed";
+                case "z":
+                case "tgz":
+                    return "application/x-compressed";
+                case "wav":
+                    return "audio/wav";
+                case "wma":
+                    return "audio/x-ms-wma";
+                case "wmv":
+                    return "video/x-ms-wmv";
+                case "mp2":
+                case "mp3":
+                case "mpe":
+                case "mpg":
+                case "mpeg":
+                    return "audio/mpeg";
+                case "bmp":
+                    return "image/bmp";
+                case "gif":
+                    return "image/gif";
+                case "png":
+                    return "image/png";
+                case "tif":
+                case "tiff":
+                    return "image/tiff";
+                case "jpe":
+                case "jpg":
+                case "jpeg":
+                    return "image/jpeg";
+                case "ico":
+                    return "image/x-icon";
+                case "txt":
+                    return "text/plain";
+                case "xml":
+                    return "text/xml";
+                case "html":
+                    return "text/html";
+                case "css":
+                    return "text/css";
+                case "js":
+                    return "text/javascript";
+                case "mht":
+                case "mhtml":
+                    return "message/rfc822";
+                default:
+                    return "";
+            }
+        }
+
+    }
+
+    /**
+     * 本地文件上传基类
+     */
+    private static abstract class AbstractLocalFileUpload {
+
+        // 检查文件头读取的字节数
+        protected static final int SIGNATURE_LENGTH = 16;
+
+        // 扩展名对应的文件头签名, 十六进制表示, ?? 匹配任意字节
+        private static final Map<String, List<int[]>> SIGNATURES = new HashMap<>();
+
+        static {
+            signature("FFD8FF", "jpg", "jpeg");
+            signature("89504E470D0A1A0A", "png");
+            signature("474946383761", "gif");
+            signature("474946383961", "gif");
+            signature("424D", "bmp");
+            signature("52494646????????57454250", "webp");
+            signature("49492A00", "tif", "tiff");
+            signature("4D4D002A", "tif", "tiff");
+            signature("00000100", "ico");
+            signature("38425053", "psd");
+            signature("255044462D", "pdf");
+            signature("504B0304", "zip", "jar", "docx", "xlsx", "pptx", "odt", "ods", "odp");
+            signature("504B0506", "zip", "jar", "docx", "xlsx", "pptx", "odt", "ods", "odp");
+            signature("D0CF11E0A1B11AE1", "doc", "xls", "ppt");
+            signature("526172211A07", "rar");
+            signature("377ABCAF271C", "7z");
+            signature("1F8B", "gz", "tgz");
+            signature("425A68", "bz2");
+            signature("????????66747970", "mp4", "m4a", "mov");
+            signature("494433", "mp3");
+            signature("FFFB", "mp3");
+            signature("FFF3", "mp3");
+            signature("52494646????????57415645", "wav");
+            signature("52494646????????41564920", "avi");
+            signature("664C6143", "flac");
+            signature("4F676753", "ogg");
+            signature("4D5A", "exe", "dll");
+        }
+
+        // 允许文件上传的最小大小
+        protected long minSize;
+
+        // 允许文件上传的最大大小
+        protected long maxSize;
+
+        // 允许文件上传的类型
+        protected List<String> filters;
+
+        // 文件大小限制提示信息
+        protected String limitTips;
+
+        // 文件类型限制提示信息
+        protected String filterTips;
+
+        // 文件类型适配功能
+        protected BiFunction<InputStream, File, Boolean> typeAdapter;
+
+        // 文件大小适配功能
+        protected BiFunction<InputStream, File, Boolean> sizeAdapter;
+
+        // 并行写出文件的最大线程数
+        protected int parallelism = 1;
+
+        // 并行写出文件使用的线程池
+        protected Executor executor;
+
+        // 是否检查文件头
+        protected boolean contentSniffing;
+
+        // 限制上传的文件大小
+        protected void limit(long minSize, long maxSize) {
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.limitTips = "请上传 ";
+            if (maxSize != 0 && minSize == 0) {
+                minSize = 1;
+            }
+            if (minSize != 0 && maxSize != 0) {
+                this.limitTips += transformFileUnit(minSize);
+                this.limitTips += " ~ ";
+                this.limitTips += transformFileUnit(maxSize);
+                this.limitTips += " 的文件";
+            }
+        }
+
+        // 限制上传的文件类型
+        protected void filter(String... extension) {
+            this.filters = new ArrayList<>();
             Arrays.stream(extension).forEach(item -> filters.add(item.toLowerCase()));
             this.filterTips = Arrays.toString(filters.toArray());
             this.filterTips = filterTips.substring(1, filterTips.length() - 1);
         }
 
-        // 执行文件上传
-        protected void excuteFileUpload(FileUploadReport report, Object target, String fileName, long fileSize, Consumer<File> consumer) {
-            String extension = substringLastSeparator(fileName, ".");
-            if (filters == null || (filters != null && filters.contains(extension))) {
-                String overSizeLimit = null;
-                if (minSize != 0 && fileSize < minSize) {
-                    overSizeLimit = "太小";
-                } else if (maxSize != 0 && fileSize > maxSize) {
-                    overSizeLimit = "太大";
-                }
-                if (overSizeLimit != null) {
-                    if (sizeAdapter != null) {
-                        adaptFile(report, target, fileName, extension, sizeAdapter);
-                    } else {
-                        report.addFailItem("文件 \"" + fileName + "\" " + overSizeLimit + ", 不符合上传标准, " + limitTips);
+        /**
+         * 执行多个文件的上传, parallelism 大于 1 时调用线程和线程池中的线程共同依次领取文件并发写出,
+         * 每个文件的结果先记录在独立的报告中, 全部完成后按文件的顺序合并
+         *
+         * @param report 文件上传报告
+         * @param items  上传的文件列表
+         * @param upload (文件的上传报告, 上传的文件)
+         */
+        protected <T> void excuteFileUploads(FileUploadReport report, List<T> items, BiConsumer<FileUploadReport, T> upload) {
+            int workers = Math.min(parallelism, items.size());
+            if (workers <= 1) {
+                items.forEach(item -> upload.accept(report, item));
+                return;
+            }
+            FileUploadReport[] reports = new FileUploadReport[items.size()];
+            AtomicInteger next = new AtomicInteger();
+            Runnable worker = () -> {
+                int index;
+                while ((index = next.getAndIncrement()) < items.size()) {
+                    FileUploadReport itemReport = new FileUploadReport();
+                    upload.accept(itemReport, items.get(index));
+                    reports[index] = itemReport;
+                }
+            };
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[workers - 1];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = CompletableFuture.runAsync(worker, executor == null ? UPLOAD_EXECUTOR : executor);
+            }
+            try {
+                worker.run();
+                CompletableFuture.allOf(futures).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+            for (FileUploadReport itemReport : reports) {
+                report.merge(itemReport);
+            }
+        }
+
+        // 执行文件上传
+        protected void excuteFileUpload(FileUploadReport report, Object target, String fileName, long fileSize, Consumer<File> consumer) {
+            String extension = substringLastSeparator(fileName, ".");
+            String typeMismatch;
+            try {
+                typeMismatch = checkType(target, fileName, extension);
+            } catch (IOException e) {
+                e.printStackTrace();
+                report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
+                return;
+            }
+            if (typeMismatch == null) {
+                String overSizeLimit = null;
+                if (minSize != 0 && fileSize < minSize) {
+                    overSizeLimit = "太小";
+                } else if (maxSize != 0 && fileSize > maxSize) {
+                    overSizeLimit = "太大";
+                }
+                if (overSizeLimit != null) {
+                    if (sizeAdapter != null) {
+                        adaptFile(report, target, fileName, extension, sizeAdapter);
+                    } else {
+                        report.addFailItem("文件 \"" + fileName + "\" " + overSizeLimit + ", 不符合上传标准, " + limitTips);
+                    }
+                } else {
+                    try {
+                        LocalFile localFile;
+                        if (LocalFileUpload.contentAddressed) {
+                            // 边接收边计算摘要, 相同内容只存储一份
+                            localFile = LocalFileUpload.store(openStream(target), extension);
+                        } else {
+                            localFile = LocalFileUpload.createLocalFile(extension);
+                            consumer.accept(localFile.file);
+                            localFile = LocalFileUpload.commit(localFile);
+                        }
+                        report.addSuccessItem(localFile.key);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        report.addFailItem("文件 \"" + fileName + "\" " + overSizeLimit + ", 上传失败, 请重新选择上传");
+                    }
+                }
+            } else {
+                if (typeAdapter != null) {
+                    adaptFile(report, target, fileName, extension, typeAdapter);
+                } else {
+                    report.addFailItem(typeMismatch);
+                }
+            }
+        }
+
+        /**
+         * 检查文件的类型, 先按扩展名过滤, 开启检查文件头时再读取文件开头的字节与扩展名的签名比对
+         *
+         * @param target    上传的文件, PushbackInputStream 读取后推回文件头, 其余类型打开新的输入流读取
+         * @param fileName  文件名称
+         * @param extension 文件扩展名
+         * @return 类型相符时返回 null, 否则返回失败的提示信息
+         * @throws IOException
+         */
+        protected String checkType(Object target, String fileName, String extension) throws IOException {
+            if (filters != null && !filters.contains(extension)) {
+                return "文件 \"" + fileName + "\" 是不支持上传的类型, 请选择 " + filterTips + " 类型的文件";
+            }
+            List<int[]> signatures = extension == null ? null : SIGNATURES.get(extension.toLowerCase());
+            if (!contentSniffing || signatures == null) {
+                return null;
+            }
+            byte[] header = new byte[SIGNATURE_LENGTH];
+            int length;
+            if (target instanceof PushbackInputStream) {
+                PushbackInputStream in = (PushbackInputStream) target;
+                length = readHeader(in, header);
+                in.unread(header, 0, length);
+            } else {
+                try (InputStream in = openStream(target)) {
+                    length = readHeader(in, header);
+                }
+            }
+            for (int[] signature : signatures) {
+                if (matches(header, length, signature)) {
+                    return null;
+                }
+            }
+            return "文件 \"" + fileName + "\" 的内容与扩展名不符, 请选择 " + (filterTips != null ? filterTips : extension) + " 类型的文件";
+        }
+
+        // 读取文件头, 直到填满数组或输入流结束
+        private static int readHeader(InputStream in, byte[] header) throws IOException {
+            int length = 0;
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) != -1) {
+                length += read;
+            }
+            return length;
+        }
+
+        // 文件头是否与签名匹配, 签名中的 -1 匹配任意字节
+        private static boolean matches(byte[] header, int length, int[] signature) {
+            if (length < signature.length) {
+                return false;
+            }
+            for (int i = 0; i < signature.length; i++) {
+                if (signature[i] != -1 && signature[i] != (header[i] & 0xFF)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 注册签名
+        private static void signature(String hex, String... extensions) {
+            int[] signature = new int[hex.length() / 2];
+            for (int i = 0; i < signature.length; i++) {
+                String item = hex.substring(i * 2, i * 2 + 2);
+                signature[i] = item.equals("??") ? -1 : Integer.parseInt(item, 16);
+            }
+            for (String extension : extensions) {
+                SIGNATURES.computeIfAbsent(extension, key -> new ArrayList<>()).add(signature);
+            }
+        }
+
+        // 适配文件
+        protected void adaptFile(FileUploadReport report, Object target, String fileName, String extension, BiFunction<InputStream, File, Boolean> adapter) {
+            LocalFile localFile = LocalFileUpload.createLocalFile(extension);
+            try {
+                Boolean adapterResult = adapter.apply(openStream(target), localFile.file);
+                if (adapterResult != null && adapterResult) {
+                    report.addSuccessItem(LocalFileUpload.commit(localFile).key);
+                } else {
+                    report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+                report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
+            }
+        }
+
+        // 打开上传文件的输入流
+        private InputStream openStream(Object target) throws IOException {
+            if (target instanceof InputStream) {
+                return (InputStream) target;
+            } else if (target instanceof FileItem) {
+                return ((FileItem) target).getInputStream();
+            } else if (target instanceof MultipartFile) {
+                return ((MultipartFile) target).getInputStream();
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * 本地文件上传, 可在 Spring 中使用 bean 配置选项：
+     *
+     * <bean class="org.fanlychie.util.FileUtils.LocalFileUpload" p:storageRootFolder="/pathname/" p:childFolderLength="2" />
+     * <p>
+     * 开启内容寻址存储(p:contentAddressed="true")后, 上传时边接收边计算内容摘要, 相同内容的文件只在 blobs 目录下以摘要为名存储一份,
+     * 每次上传仍返回独立的文件 Key, 文件 Key 通过 refs 目录下的引用记录指向内容, 内容的引用计数归零时才被删除
+     * <p>
+     * 文件 Key 即存储的文件名(含扩展名), 可直接定位文件. 解析结果缓存在 LRU 中, 早期不含扩展名的文件 Key
+     * 按前缀查找到文件后追加到 .index 目录下的索引日志, 索引在首次解析时重放日志重建
+     * <p>
+     * 存储布局: 文件按文件名分 shardLevels 级子目录存放, 每级目录名长度为 childFolderLength. 配置了多个存储卷
+     * (p:storageVolumes="/data1=2,/data2=1")时, 按文件 Key(内容寻址存储的内容按摘要)在带权重的一致性哈希环上选择存储卷,
+     * 增减存储卷只影响少量文件的位置, 在首选存储卷上找不到时依次查找其余存储卷, 最后查找 storageRootFolder,
+     * 配置存储卷之前存储的文件仍可访问和删除. 索引日志始终位于 storageRootFolder 下
+     * <p>
+     * 持久化策略(p:fsyncPolicy): NONE 不主动刷新磁盘; ON_CLOSE 每个文件写入完成时刷新文件及其所在目录;
+     * GROUP_COMMIT 将并发上传的刷新请求合并成批, 由一个线程依次刷新后同时唤醒等待的上传, 同一批中的目录只刷新一次
+     */
+    public static final class LocalFileUpload {
+
+        // 内容寻址存储的内容目录
+        private static final String BLOBS_FOLDER = "blobs";
+
+        // 内容寻址存储的引用记录目录
+        private static final String REFS_FOLDER = "refs";
+
+        // 内容寻址存储接收上传内容的临时目录
+        private static final String STAGING_FOLDER = ".staging";
+
+        // 文件 Key 索引日志所在的目录
+        private static final String INDEX_FOLDER = ".index";
+
+        // 更新引用计数的锁, 按摘要分段
+        private static final Object[] REFERENCE_LOCKS = new Object[64];
+
+        static {
+            for (int i = 0; i < REFERENCE_LOCKS.length; i++) {
+                REFERENCE_LOCKS[i] = new Object();
+            }
+        }
+
+        // 上传的文件存储的根目录
+        private static String storageRootFolder = System.getProperty("java.io.tmpdir");
+
+        // 上传的文件存储的子目录长度
+        private static int childFolderLength = 5;
+
+        // 是否使用内容寻址存储
+        private static boolean contentAddressed;
+
+        // 内容寻址存储计算摘要使用的算法
+        private static String digestAlgorithm = "SHA-256";
+
+        // 文件 Key 解析结果的缓存容量
+        private static int keyCacheSize = 10000;
+
+        // 当前根目录的文件 Key 索引
+        private static volatile FileKeyIndex keyIndex;
+
+        // 子目录的级数
+        private static int shardLevels = 1;
+
+        // 存储卷的一致性哈希环, 为 null 时只使用 storageRootFolder
+        private static volatile VolumeRing volumeRing;
+
+        // 持久化策略
+        private static FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+
+        // 组提交收集刷新请求的等待时间, 单位(ms)
+        private static long groupCommitDelay;
+
+        // 组提交
+        private static volatile GroupCommit groupCommit;
+
+        /**
+         * 持久化策略
+         */
+        public enum FsyncPolicy {
+
+            /**
+             * 不主动刷新, 由操作系统决定写入磁盘的时机, 延迟最低
+             */
+            NONE,
+
+            /**
+             * 每个文件写入完成时刷新文件及其所在目录到磁盘
+             */
+            ON_CLOSE,
+
+            /**
+             * 合并并发上传的刷新请求成批刷新, 上传在所在批次刷新完成后返回
+             */
+            GROUP_COMMIT
+
+        }
+
+        /**
+         * 设置上传的文件存储的根目录
+         *
+         * @param storageRootFolder 上传的文件存储的根目录, 默认使用 Java IO 临时目录
+         */
+        public void setStorageRootFolder(String storageRootFolder) {
+            LocalFileUpload.storageRootFolder = storageRootFolder;
+        }
+
+        /**
+         * 设置上传的文件存储的子目录长度
+         *
+         * @param childFolderLength 上传的文件存储的子目录长度, 默认长度为 5, 与子目录级数的乘积不能超过 32
+         */
+        public void setChildFolderLength(int childFolderLength) {
+            checkShardLayout(shardLevels, childFolderLength);
+            LocalFileUpload.childFolderLength = childFolderLength;
+        }
+
+        /**
+         * 设置是否使用内容寻址存储, 开启前上传的文件仍可正常访问
+         *
+         * @param contentAddressed 是否使用内容寻址存储, 默认为 false
+         */
+        public void setContentAddressed(boolean contentAddressed) {
+            LocalFileUpload.contentAddressed = contentAddressed;
+        }
+
+        /**
+         * 设置内容寻址存储计算摘要使用的算法, 存储中已有内容时不可修改
+         *
+         * @param digestAlgorithm 摘要算法, 默认为 SHA-256
+         */
+        public void setDigestAlgorithm(String digestAlgorithm) {
+            LocalFileUpload.digestAlgorithm = digestAlgorithm;
+        }
+
+        /**
+         * 设置文件 Key 解析结果的缓存容量, 在首次解析文件 Key 之前设置
+         *
+         * @param keyCacheSize 缓存的文件 Key 数量, 默认为 10000
+         */
+        public void setKeyCacheSize(int keyCacheSize) {
+            LocalFileUpload.keyCacheSize = keyCacheSize;
+        }
+
+        /**
+         * 设置上传的文件存储的子目录级数, 存储中已有文件时不可修改
+         *
+         * @param shardLevels 子目录级数, 默认为 1, 级数与子目录长度的乘积不能超过 32
+         */
+        public void setShardLevels(int shardLevels) {
+            checkShardLayout(shardLevels, childFolderLength);
+            LocalFileUpload.shardLevels = shardLevels;
+        }
+
+        // 校验子目录级数和子目录长度, 分级子目录取自 32 位的文件名, 两者的乘积不能超过 32
+        private static void checkShardLayout(int shardLevels, int childFolderLength) {
+            if (shardLevels < 1) {
+                throw new IllegalArgumentException("shardLevels: " + shardLevels);
+            }
+            if (childFolderLength < 1) {
+                throw new IllegalArgumentException("childFolderLength: " + childFolderLength);
+            }
+            if (shardLevels * childFolderLength > 32) {
+                throw new IllegalArgumentException("shardLevels * childFolderLength must not exceed 32: "
+                        + shardLevels + " * " + childFolderLength);
+            }
+        }
+
+        // 校验文件 Key 的长度足以计算分级子目录, 过短的文件 Key 不是上传返回的文件 Key
+        private static void checkFileKey(String fileKey) {
+            if (fileKey == null || fileKey.length() < shardLevels * childFolderLength) {
+                throw new IllegalArgumentException("Invalid file key: " + fileKey);
+            }
+        }
+
+        /**
+         * 设置上传的文件存储的卷, 文件按一致性哈希分布到各个卷上
+         *
+         * @param storageVolumes 存储卷的根目录, 可以用 "目录=权重" 的形式指定权重, 默认权重为 1, 不设置时只使用 storageRootFolder
+         */
+        public void setStorageVolumes(String... storageVolumes) {
+            LocalFileUpload.volumeRing = storageVolumes == null || storageVolumes.length == 0 ? null : new VolumeRing(storageVolumes);
+        }
+
+        /**
+         * 设置持久化策略
+         *
+         * @param fsyncPolicy 持久化策略, 默认为 {@link FsyncPolicy#NONE}
+         */
+        public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+            LocalFileUpload.fsyncPolicy = fsyncPolicy;
+        }
+
+        /**
+         * 设置组提交收集刷新请求的等待时间, 等待越久每批合并的请求越多, 单个上传的延迟也越高
+         *
+         * @param groupCommitDelay 等待时间, 单位(ms), 默认为 0, 表示只合并上一批刷新期间到达的请求
+         */
+        public void setGroupCommitDelay(long groupCommitDelay) {
+            LocalFileUpload.groupCommitDelay = groupCommitDelay;
+        }
+
+        /**
+         * 创建本地文件, 文件 Key 为含扩展名的文件名. 内容寻址存储时创建在临时目录中, 写入完成后须调用 {@link #commit(LocalFile)}
+         *
+         * @param extension 文件扩展名
+         * @return 返回一个本地文件对象
+         */
+        private static LocalFile createLocalFile(String extension) {
+            if (extension == null) {
+                extension = "";
+            } else {
+                extension = "." + extension;
+            }
+            String uuidStr = UUID.randomUUID().toString().replace("-", "");
+            String fileName = uuidStr + extension;
+            String volume = volumeOf(fileName);
+            if (contentAddressed) {
+                // 每个文件独占一个临时目录, 适配器可以修改文件的扩展名
+                File stagingFolder = new File(volume + "/" + STAGING_FOLDER + "/" + fileName);
+                stagingFolder.mkdirs();
+                return new LocalFile(fileName, new File(stagingFolder, fileName));
+            }
+            File childFoloder = new File(volume + "/" + shardFolder(fileName));
+            if (!childFoloder.exists()) {
+                childFoloder.mkdirs();
+            }
+            return new LocalFile(fileName, new File(childFoloder, fileName));
+        }
+
+        /**
+         * 提交 {@link #createLocalFile(String)} 创建并写入完成的本地文件, 内容寻址存储时计算摘要并存入内容目录
+         *
+         * @param localFile 本地文件对象
+         * @return 返回存储后的本地文件对象
+         */
+        private static LocalFile commit(LocalFile localFile) {
+            return commit(localFile, null);
+        }
+
+        /**
+         * 提交 {@link #createLocalFile(String)} 创建并写入完成的本地文件, 内容寻址存储时使用写入时计算的摘要
+         *
+         * @param localFile 本地文件对象
+         * @param digest    写入时以 digestAlgorithm 计算的摘要, 为 null 时读取文件计算
+         * @return 返回存储后的本地文件对象
+         */
+        private static LocalFile commit(LocalFile localFile, String digest) {
+            if (!isStaged(localFile)) {
+                sync(localFile.file);
+                return localFile;
+            }
+            File stagingFolder = localFile.file.getParentFile();
+            File[] staged = stagingFolder.listFiles();
+            try {
+                if (staged == null || staged.length != 1) {
+                    throw new RuntimeException("找不到文件: " + localFile.file);
+                }
+                if (digest == null) {
+                    digest = digest(staged[0], digestAlgorithm);
+                }
+                return ingest(localFile.key, staged[0], digest, substringLastSeparator(staged[0].getName(), "."));
+            } finally {
+                deleteStaging(stagingFolder);
+            }
+        }
+
+        /**
+         * 丢弃 {@link #createLocalFile(String)} 创建但未提交的本地文件
+         *
+         * @param localFile 本地文件对象
+         */
+        private static void discard(LocalFile localFile) {
+            if (isStaged(localFile)) {
+                deleteStaging(localFile.file.getParentFile());
+            } else {
+                localFile.file.delete();
+            }
+        }
+
+        // 本地文件是否位于内容寻址存储的临时目录中
+        private static boolean isStaged(LocalFile localFile) {
+            File stagingFolder = localFile.file.getParentFile();
+            return stagingFolder.getName().equals(localFile.key) && stagingFolder.getParentFile().getName().equals(STAGING_FOLDER);
+        }
+
+        /**
+         * 以内容寻址的方式存储输入流的内容, 写入临时文件的同时计算摘要
+         *
+         * @param in        输入流, 操作完成后被关闭
+         * @param extension 文件扩展名
+         * @return 返回存储后的本地文件对象
+         */
+        private static LocalFile store(InputStream in, String extension) {
+            LocalFile localFile = createLocalFile(extension);
+            File stagingFolder = localFile.file.getParentFile();
+            try (InputStream source = in) {
+                WritableStream stream = write(source).digest(digestAlgorithm);
+                stream.to(localFile.file);
+                return ingest(localFile.key, localFile.file, stream.getDigest(digestAlgorithm), extension);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                deleteStaging(stagingFolder);
+            }
+        }
+
+        /**
+         * 将临时文件存入内容目录并写入引用记录, 内容已存在时丢弃临时文件
+         *
+         * @param key       文件 Key
+         * @param staged    临时文件
+         * @param digest    内容摘要
+         * @param extension 文件扩展名
+         * @return 返回存储后的本地文件对象
+         */
+        private static LocalFile ingest(String key, File staged, String digest, String extension) {
+            File blob = blobFile(digest);
+            try {
+                // 内容可能需要移入内容目录时, 先在锁外按持久化策略刷新临时文件, 组提交时可与其他上传合并
+                if (!blob.exists()) {
+                    syncData(staged.toPath());
+                }
+                adjustReference(digest, 1, staged);
+                File ref = refFile(key);
+                ref.getParentFile().mkdirs();
+                Properties properties = new Properties();
+                properties.setProperty("digest", digest);
+                properties.setProperty("extension", extension == null ? "" : extension);
+                File temp = new File(ref.getPath() + ".tmp");
+                try (OutputStream out = new FileOutputStream(temp)) {
+                    properties.store(out, null);
+                }
+                syncData(temp.toPath());
+                Files.move(temp.toPath(), ref.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            File ref = refFile(key);
+            sync(blob, new File(blob.getPath() + ".refs"), ref);
+            return new LocalFile(key, blob, extension, ref);
+        }
+
+        /**
+         * 调整内容的引用计数, 引用计数文件与内容存放在一起, 计数归零时删除内容. 引用计数文件归零时清空但保留,
+         * 避免其他进程在已删除的文件上加锁而丢失计数
+         *
+         * @param digest 内容摘要
+         * @param delta  调整的数量
+         * @param staged 新增引用时的临时文件, 内容不存在时移入内容目录, 否则删除
+         * @return 返回调整后的引用计数
+         * @throws IOException
+         */
+        private static long adjustReference(String digest, int delta, File staged) throws IOException {
+            File blob = blobFile(digest);
+            Path counter = Paths.get(blob.getPath() + ".refs");
+            Files.createDirectories(counter.getParent());
+            synchronized (REFERENCE_LOCKS[(digest.hashCode() & Integer.MAX_VALUE) % REFERENCE_LOCKS.length]) {
+                try (FileChannel channel = FileChannel.open(counter, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.lock();
+                    try {
+                        ByteBuffer buffer = ByteBuffer.allocate(20);
+                        channel.read(buffer, 0);
+                        long count = buffer.position() == 0 ? 0 : Long.parseLong(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).trim());
+                        if (staged != null) {
+                            if (blob.exists()) {
+                                Files.delete(staged.toPath());
+                            } else {
+                                move(staged.toPath(), blob.toPath());
+                                count = 0;
+                            }
+                        }
+                        count += delta;
+                        channel.truncate(0);
+                        if (count <= 0) {
+                            Files.deleteIfExists(blob.toPath());
+                            return 0;
+                        }
+                        channel.write(ByteBuffer.wrap(String.valueOf(count).getBytes(StandardCharsets.US_ASCII)), 0);
+                        return count;
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 删除本地文件, 内容寻址存储时删除引用记录, 内容的引用计数归零时删除内容
+         *
+         * @param fileKey 文件上传返回的文件 Key
+         * @return 找到并删除时返回 true, 否则返回 false
+         */
+        private static boolean deleteLocalFile(String fileKey) {
+            checkFileKey(fileKey);
+            File ref = findReference(fileKey);
+            keyIndex().remove(fileKey);
+            if (ref != null) {
+                try {
+                    Properties properties = loadReference(ref);
+                    Files.delete(ref.toPath());
+                    adjustReference(properties.getProperty("digest"), -1, null);
+                    return true;
+                } catch (NoSuchFileException e) {
+                    return false;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            File file = achieveLocalFile(fileKey);
+            return file != null && file.delete();
+        }
+
+        /**
+         * 获取本地文件
+         *
+         * @param fileKey 文件上传返回的文件 Key
+         * @return 返回找到的文件对象
+         */
+        private static File achieveLocalFile(String fileKey) {
+            LocalFile localFile = resolveLocalFile(fileKey);
+            return localFile == null ? null : localFile.file;
+        }
+
+        /**
+         * 解析文件 Key, 缓存命中时只需确认文件存在, 内容寻址存储的文件 Key 确认引用记录存在. 未命中时按文件 Key
+         * 直接定位文件或内容寻址存储的引用记录, 再查找索引日志的记录, 都找不到时才按文件名前缀查找,
+         * 查找到的结果追加到索引日志
+         *
+         * @param fileKey 文件上传返回的文件 Key
+         * @return 返回找到的本地文件对象, 找不到时返回 null
+         */
+        private static LocalFile resolveLocalFile(String fileKey) {
+            checkFileKey(fileKey);
+            FileKeyIndex index = keyIndex();
+            LocalFile localFile = index.get(fileKey);
+            if (localFile != null) {
+                // 内容寻址存储的内容可能被其他文件 Key 共享, 以引用记录确认文件 Key 未被删除
+                if ((localFile.ref != null ? localFile.ref : localFile.file).exists()) {
+                    return localFile;
+                }
+                index.remove(fileKey);
+            }
+            String childFolderName = shardFolder(fileKey);
+            List<String> volumes = candidateVolumes(fileKey);
+            for (String volume : volumes) {
+                File file = new File(volume + "/" + childFolderName + "/" + fileKey);
+                if (contentAddressed) {
+                    localFile = resolveReference(fileKey, refFile(volume, fileKey));
+                    if (localFile == null && file.isFile()) {
+                        localFile = new LocalFile(fileKey, file);
+                    }
+                } else {
+                    localFile = file.isFile() ? new LocalFile(fileKey, file) : resolveReference(fileKey, refFile(volume, fileKey));
+                }
+                if (localFile != null) {
+                    index.put(fileKey, localFile);
+                    return localFile;
+                }
+            }
+            localFile = index.lookup(fileKey);
+            if (localFile != null) {
+                return localFile;
+            }
+            // 早期的文件 Key 不含扩展名, 适配器也可能修改了文件的扩展名, 按文件名前缀查找
+            int dot = fileKey.indexOf('.');
+            String prefix = dot == -1 ? fileKey : fileKey.substring(0, dot);
+            for (String volume : volumes) {
+                File[] children = new File(volume + "/" + childFolderName).listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        if (child.getName().startsWith(prefix)) {
+                            localFile = new LocalFile(fileKey, child);
+                            index.record(fileKey, localFile);
+                            return localFile;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        // 按内容寻址存储的引用记录解析文件 Key, 找不到时返回 null
+        private static LocalFile resolveReference(String fileKey, File ref) {
+            if (!ref.isFile()) {
+                return null;
+            }
+            try {
+                Properties properties = loadReference(ref);
+                return new LocalFile(fileKey, blobFile(properties.getProperty("digest")), properties.getProperty("extension"), ref);
+            } catch (NoSuchFileException | FileNotFoundException e) {
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // 获取当前根目录的文件 Key 索引, 首次使用或根目录改变时重建
+        private static FileKeyIndex keyIndex() {
+            FileKeyIndex index = keyIndex;
+            if (index == null || !index.root.equals(storageRootFolder)) {
+                synchronized (LocalFileUpload.class) {
+                    index = keyIndex;
+                    if (index == null || !index.root.equals(storageRootFolder)) {
+                        index = new FileKeyIndex(storageRootFolder, new File(storageRootFolder + "/" + INDEX_FOLDER + "/keys.log"), keyCacheSize);
+                        keyIndex = index;
+                    }
+                }
+            }
+            return index;
+        }
+
+        // 读取引用记录
+        private static Properties loadReference(File ref) throws IOException {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(ref)) {
+                properties.load(in);
+            }
+            return properties;
+        }
+
+        // 文件 Key 在首选存储卷上的引用记录文件
+        private static File refFile(String fileKey) {
+            return refFile(volumeOf(fileKey), fileKey);
+        }
+
+        // 文件 Key 在指定存储卷上的引用记录文件
+        private static File refFile(String volume, String fileKey) {
+            return new File(volume + "/" + REFS_FOLDER + "/" + shardFolder(fileKey) + "/" + fileKey);
+        }
+
+        // 查找文件 Key 的引用记录文件, 找不到时返回 null
+        private static File findReference(String fileKey) {
+            for (String volume : candidateVolumes(fileKey)) {
+                File ref = refFile(volume, fileKey);
+                if (ref.isFile()) {
+                    return ref;
+                }
+            }
+            return null;
+        }
+
+        // 摘要对应的内容文件, 按摘要的前 4 个字符分两级目录. 首选存储卷上没有时查找其余存储卷, 都没有时返回首选存储卷上的位置
+        private static File blobFile(String digest) {
+            String path = "/" + BLOBS_FOLDER + "/" + digest.substring(0, 2) + "/" + digest.substring(2, 4) + "/" + digest;
+            List<String> volumes = candidateVolumes(digest);
+            File preferred = new File(volumes.get(0) + path);
+            if (volumes.size() > 1 && !preferred.exists()) {
+                for (int i = 1; i < volumes.size(); i++) {
+                    File blob = new File(volumes.get(i) + path);
+                    if (blob.exists()) {
+                        return blob;
+                    }
+                }
+            }
+            return preferred;
+        }
+
+        // 文件名对应的分级子目录, 每级取文件名中 childFolderLength 个字符
+        private static String shardFolder(String fileName) {
+            StringBuilder folder = new StringBuilder();
+            for (int i = 0; i < shardLevels; i++) {
+                if (i > 0) {
+                    folder.append('/');
+                }
+                folder.append(fileName, i * childFolderLength, (i + 1) * childFolderLength);
+            }
+            return folder.toString();
+        }
+
+        // 文件名对应的首选存储卷, 扩展名不参与计算
+        private static String volumeOf(String fileName) {
+            VolumeRing ring = volumeRing;
+            return ring == null ? storageRootFolder : ring.locate(fileName);
+        }
+
+        // 查找文件的存储卷列表, 首选存储卷排在第一位. storageRootFolder 不在哈希环上时排在最后, 配置存储卷之前存储的文件仍可找到
+        private static List<String> candidateVolumes(String fileName) {
+            VolumeRing ring = volumeRing;
+            if (ring == null) {
+                return Collections.singletonList(storageRootFolder);
+            }
+            String preferred = ring.locate(fileName);
+            List<String> volumes = new ArrayList<>(ring.volumes.size() + 1);
+            volumes.add(preferred);
+            for (String volume : ring.volumes) {
+                if (!volume.equals(preferred)) {
+                    volumes.add(volume);
+                }
+            }
+            if (!ring.contains(storageRootFolder)) {
+                volumes.add(storageRootFolder);
+            }
+            return volumes;
+        }
+
+        // 存储卷和 storageRootFolder 的根目录
+        private static Set<Path> volumeRoots() {
+            Set<Path> roots = new HashSet<>();
+            roots.add(normalize(storageRootFolder));
+            VolumeRing ring = volumeRing;
+            if (ring != null) {
+                for (String volume : ring.volumes) {
+                    roots.add(normalize(volume));
+                }
+            }
+            return roots;
+        }
+
+        // 规范化的绝对路径
+        private static Path normalize(String path) {
+            return Paths.get(path).toAbsolutePath().normalize();
+        }
+
+        // 移动文件, 源文件和目标文件不在同一个文件系统时先复制到目标目录的临时文件再原子重命名.
+        // 持久化策略不为 NONE 时, 重命名之前先刷新文件的数据, 避免崩溃后重命名生效而数据丢失
+        private static void move(Path source, Path target) throws IOException {
+            FsyncPolicy policy = fsyncPolicy;
+            boolean durable = policy != null && policy != FsyncPolicy.NONE;
+            try {
+                if (durable) {
+                    GroupCommit.force(Collections.singleton(source));
+                }
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                if (durable) {
+                    GroupCommit.force(Collections.singleton(temp));
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(source);
+            }
+        }
+
+        /**
+         * 按持久化策略刷新文件的数据, 在文件重命名到最终位置之前调用
+         *
+         * @param file 写入完成的文件
+         */
+        private static void syncData(Path file) {
+            FsyncPolicy policy = fsyncPolicy;
+            if (policy != null && policy != FsyncPolicy.NONE) {
+                flush(policy, Collections.singleton(file));
+            }
+        }
+
+        /**
+         * 按持久化策略刷新文件及其所在目录到磁盘. 目录逐级刷新到存储卷的根目录, 多级子目录中由 mkdirs 新建的目录
+         * 在上级目录中的记录也一并持久化
+         *
+         * @param files 写入完成的文件
+         */
+        private static void sync(File... files) {
+            FsyncPolicy policy = fsyncPolicy;
+            if (policy == null || policy == FsyncPolicy.NONE) {
+                return;
+            }
+            Set<Path> paths = new LinkedHashSet<>();
+            for (File file : files) {
+                paths.add(file.toPath());
+            }
+            Set<Path> roots = volumeRoots();
+            for (File file : files) {
+                Path folder = normalize(file.getPath()).getParent();
+                while (folder != null) {
+                    paths.add(folder);
+                    if (roots.contains(folder)) {
+                        break;
+                    }
+                    folder = folder.getParent();
+                }
+            }
+            flush(policy, paths);
+        }
+
+        // 按持久化策略刷新文件和目录, 组提交时等待所在的批次完成
+        private static void flush(FsyncPolicy policy, Collection<Path> paths) {
+            if (policy == FsyncPolicy.ON_CLOSE) {
+                try {
+                    GroupCommit.force(paths);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                try {
+                    groupCommit().submit(paths).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+
+        // 获取组提交, 首次使用时创建
+        private static GroupCommit groupCommit() {
+            GroupCommit commit = groupCommit;
+            if (commit == null) {
+                synchronized (LocalFileUpload.class) {
+                    commit = groupCommit;
+                    if (commit == null) {
+                        commit = new GroupCommit();
+                        groupCommit = commit;
+                    }
+                }
+            }
+            return commit;
+        }
+
+        // 删除临时目录及其中剩余的文件
+        private static void deleteStaging(File stagingFolder) {
+            File[] files = stagingFolder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            stagingFolder.delete();
+        }
+
+    }
+
+    /**
+     * 文件 Key 索引, LRU 缓存文件 Key 的解析结果, 需要按前缀查找的文件 Key 追加记录到日志中, 日志的全部记录常驻内存,
+     * LRU 缓存未命中时查找, 不再重复按前缀查找. 日志每行为 "文件Key\t扩展名\t相对根目录的路径", 后写入的记录覆盖先写入的记录
+     */
+    private static final class FileKeyIndex {
+
+        // 根目录
+        private final String root;
+
+        // 索引日志文件
+        private final File logFile;
+
+        // 解析结果的 LRU 缓存
+        private final Map<String, LocalFile> cache;
+
+        // 日志中的全部记录, 键为文件 Key
+        private final Map<String, LocalFile> entries = new HashMap<>();
+
+        // 追加日志的输出流, 首次追加时打开
+        private Writer log;
+
+        private FileKeyIndex(String root, File logFile, int capacity) {
+            this.root = root;
+            this.logFile = logFile;
+            this.cache = new LinkedHashMap<String, LocalFile>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LocalFile> eldest) {
+                    return size() > capacity;
+                }
+            };
+            rebuild();
+        }
+
+        // 获取缓存的解析结果
+        private LocalFile get(String key) {
+            synchronized (cache) {
+                return cache.get(key);
+            }
+        }
+
+        // 缓存解析结果
+        private void put(String key, LocalFile localFile) {
+            synchronized (cache) {
+                cache.put(key, localFile);
+            }
+        }
+
+        // 移除缓存的解析结果和日志的记录, 日志文件中的记录在压缩时因文件不存在而被丢弃
+        private void remove(String key) {
+            synchronized (cache) {
+                cache.remove(key);
+            }
+            synchronized (this) {
+                entries.remove(key);
+            }
+        }
+
+        // 查找日志的记录, 文件存在时放入 LRU 缓存并返回, 否则返回 null
+        private LocalFile lookup(String key) {
+            LocalFile localFile;
+            synchronized (this) {
+                localFile = entries.get(key);
+            }
+            if (localFile == null || !localFile.file.exists()) {
+                return null;
+            }
+            put(key, localFile);
+            return localFile;
+        }
+
+        // 缓存解析结果并追加到日志, 日志中已有相同的记录时不再追加
+        private synchronized void record(String key, LocalFile localFile) {
+            put(key, localFile);
+            LocalFile logged = entries.put(key, localFile);
+            if (logged != null && logged.file.equals(localFile.file) && Objects.equals(logged.extension, localFile.extension)) {
+                return;
+            }
+            try {
+                if (log == null) {
+                    logFile.getParentFile().mkdirs();
+                    log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+                }
+                log.write(key + "\t" + localFile.extension + "\t" + relativize(localFile.file) + "\n");
+                log.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // 重放日志, 重复或文件已不存在的记录较多时压缩日志
+        private void rebuild() {
+            if (!logFile.isFile()) {
+                return;
+            }
+            Map<String, String[]> entries = new LinkedHashMap<>();
+            int lines = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 3) {
+                        entries.remove(fields[0]);
+                        entries.put(fields[0], fields);
+                        lines++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            boolean compact = lines > 1024 && lines > entries.size() * 2;
+            for (Iterator<String[]> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                String[] fields = iterator.next();
+                File file = new File(fields[2]).isAbsolute() ? new File(fields[2]) : new File(root, fields[2]);
+                if (compact && !file.exists()) {
+                    iterator.remove();
+                } else {
+                    LocalFile localFile = new LocalFile(fields[0], file, fields[1]);
+                    this.entries.put(fields[0], localFile);
+                    put(fields[0], localFile);
+                }
+            }
+            if (compact) {
+                File temp = new File(logFile.getPath() + ".tmp");
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+                    for (String[] fields : entries.values()) {
+                        writer.write(fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\n");
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                try {
+                    Files.move(temp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        // 文件相对根目录的路径, 不在根目录下(其他存储卷上)的文件使用绝对路径
+        private String relativize(File file) {
+            Path base = Paths.get(root).toAbsolutePath().normalize();
+            Path path = file.toPath().toAbsolutePath().normalize();
+            return path.startsWith(base) ? base.relativize(path).toString() : path.toString();
+        }
+
+    }
+
+    /**
+     * 存储卷的一致性哈希环, 每个存储卷按权重在环上放置虚拟节点, 文件落在顺时针方向的第一个虚拟节点所属的存储卷上
+     */
+    private static final class VolumeRing {
+
+        // 每单位权重的虚拟节点数
+        private static final int VIRTUAL_NODES = 160;
+
+        // 存储卷列表
+        private final List<String> volumes = new ArrayList<>();
+
+        // 虚拟节点的哈希值到存储卷的映射
+        private final TreeMap<Integer, String> ring = new TreeMap<>();
+
+        private VolumeRing(String... specs) {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int weight = 1;
+                int separator = spec.lastIndexOf('=');
+                if (separator != -1) {
+                    weight = Integer.parseInt(spec.substring(separator + 1).trim());
+                    spec = spec.substring(0, separator).trim();
+                }
+                if (weight <= 0) {
+                    continue;
+                }
+                volumes.add(spec);
+                for (int i = 0; i < weight * VIRTUAL_NODES; i++) {
+                    ring.put(hash(spec + "#" + i), spec);
+                }
+            }
+            if (volumes.isEmpty()) {
+                throw new IllegalArgumentException("storageVolumes: " + Arrays.toString(specs));
+            }
+        }
+
+        // 目录是否为环上的存储卷
+        private boolean contains(String folder) {
+            Path path = Paths.get(folder).toAbsolutePath().normalize();
+            for (String volume : volumes) {
+                if (Paths.get(volume).toAbsolutePath().normalize().equals(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // 文件名所在的存储卷, 扩展名不参与计算
+        private String locate(String fileName) {
+            int dot = fileName.indexOf('.');
+            Map.Entry<Integer, String> entry = ring.ceilingEntry(hash(dot == -1 ? fileName : fileName.substring(0, dot)));
+            return (entry == null ? ring.firstEntry() : entry).getValue();
+        }
+
+        // 取 MD5 摘要的前 4 个字节作为哈希值, 分布比 String.hashCode 均匀
+        private static int hash(String value) {
+            try {
+                byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+                return ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16) | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    /**
+     * 组提交, 收集并发上传的刷新请求, 由一个线程成批刷新到磁盘, 刷新期间到达的请求归入下一批
+     */
+    private static final class GroupCommit {
+
+        // 当前批次等待刷新的路径
+        private Set<Path> paths = new LinkedHashSet<>();
+
+        // 当前批次刷新完成的通知
+        private CompletableFuture<Void> future = new CompletableFuture<>();
+
+        // 是否有线程正在刷新
+        private boolean flushing;
+
+        /**
+         * 提交刷新请求
+         *
+         * @param paths 需要刷新的文件和目录
+         * @return 返回所在批次刷新完成的通知
+         */
+        private synchronized CompletableFuture<Void> submit(Collection<Path> paths) {
+            this.paths.addAll(paths);
+            CompletableFuture<Void> result = future;
+            if (!flushing) {
+                flushing = true;
+                ASYNC_EXECUTOR.execute(this::flush);
+            }
+            return result;
+        }
+
+        // 依次刷新各批次, 直到没有新的请求
+        private void flush() {
+            long delay = LocalFileUpload.groupCommitDelay;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            while (true) {
+                Set<Path> batch;
+                CompletableFuture<Void> notice;
+                synchronized (this) {
+                    if (paths.isEmpty()) {
+                        flushing = false;
+                        return;
+                    }
+                    batch = paths;
+                    notice = future;
+                    paths = new LinkedHashSet<>();
+                    future = new CompletableFuture<>();
+                }
+                try {
+                    force(batch);
+                    notice.complete(null);
+                } catch (Throwable e) {
+                    notice.completeExceptionally(e);
+                }
+            }
+        }
+
+        /**
+         * 刷新文件和目录到磁盘, 已被删除的文件跳过, 不支持刷新目录的平台忽略目录
+         *
+         * @param paths 文件和目录
+         * @throws IOException
+         */
+        private static void force(Collection<Path> paths) throws IOException {
+            for (Path path : paths) {
+                if (Files.isDirectory(path)) {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        channel.force(true);
+                    } catch (IOException e) {
+                        // 部分平台不能以通道打开目录
+                    }
+                } else {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    } catch (NoSuchFileException e) {
+                        // 刷新前已被删除
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 文件上传报告, 记录结果的方法是线程安全的
+     */
+    public static final class FileUploadReport {
+
+        // 失败个数
+        private int failNum;
+
+        // 成功个数
+        private int successNum;
+
+        // 成功的文件 Key 列表
+        private List<String> fileKeys;
+
+        // 失败的文件消息列表
+        private List<String> failMsgs;
+
+        // 私有化
+        private FileUploadReport() {
+            this.fileKeys = new ArrayList<>();
+            this.failMsgs = new ArrayList<>();
+        }
+
+        /**
+         * 获取失败的文件个数
+         *
+         * @return 返回失败的文件个数
+         */
+        public int getFailNum() {
+            return failNum;
+        }
+
+        /**
+         * 获取成功的文件个数
+         *
+         * @return 返回成功的文件个数
+         */
+        public int getSuccessNum() {
+            return successNum;
+        }
+
+        /**
+         * 获取成功的文件 Key 列表
+         *
+         * @return 返回成功的文件 Key 列表
+         */
+        public List<String> getFileKeys() {
+            return fileKeys;
+        }
+
+        /**
+         * 获取失败的文件消息列表
+         *
+         * @return 返回失败的文件消息列表
+         */
+        public List<String> getFailMsgs() {
+            return failMsgs;
+        }
+
+        /**
+         * 报告是否健康的, 若是, 表明上传全部成功, 否则表明存在上传失败的文件
+         *
+         * @return true/false
+         */
+        public boolean isHealthy() {
+            return failNum == 0;
+        }
+
+        private synchronized void addSuccessItem(String fileKey) {
+            this.successNum++;
+            this.fileKeys.add(fileKey);
+        }
+
+        private synchronized void addFailItem(String failMsg) {
+            this.failNum++;
+            this.failMsgs.add(failMsg);
+        }
+
+        // 合并另一个报告的结果, 追加在已有结果之后
+        private synchronized void merge(FileUploadReport report) {
+            if (report == null) {
+                return;
+            }
+            this.successNum += report.successNum;
+            this.failNum += report.failNum;
+            this.fileKeys.addAll(report.fileKeys);
+            this.failMsgs.addAll(report.failMsgs);
+        }
+
+    }
+
+    /**
+     * PDF-HTML 转换器
+     */
+    public static final class PDFHtmlConvertor {
+
+        // HTML 内容
+        private String content;
+
+        // 私有化
+        private PDFHtmlConvertor(String content) {
+            this.content = content;
+        }
+
+        /**
+         * 生成到文件
+         *
+         * @param file PDF 文件对象
+         */
+        public void to(File file) {
+            try (OutputStream os = new FileOutputStream(file)) {
+                execute(os);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * 生成到本地文件存储
+         *
+         * @return 返回本地文件存储对象
+         */
+        public LocalFile toLocalFile() {
+            LocalFile localFile = LocalFileUpload.createLocalFile("pdf");
+            to(localFile.file);
+            return LocalFileUpload.commit(localFile);
+        }
+
+        /**
+         * 生成到客户端浏览器下载
+         *
+         * @param response         HttpServletResponse
+         * @param downloadFileName 下载显示的文件名称
+         */
+        public void to(HttpServletResponse response, String downloadFileName) {
+            try (OutputStream out = response.getOutputStream()) {
+                WritableStream.initBrowserDownload(response, downloadFileName);
+                execute(out);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * 执行生成
+         *
+         * @param os 输出流对象
+         */
+        private void execute(OutputStream os) {
+            Document document = new Document();
+            try {
+                PdfWriter writer = PdfWriter.getInstance(document, os);
+                document.open();
+                Reader reader = new BufferedReader(new StringReader(content));
+                XMLWorkerHelper.getInstance().parseXHtml(writer, document, reader);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (document != null) {
+                    document.close();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 本地文件
+     */
+    public static final class LocalFile {
+
+        // 文件 Key
+        private String key;
+
+        // 文件对象
+        private File file;
+
+        // 文件扩展名, 内容寻址存储的文件名不含扩展名
+        private String extension;
+
+        // 内容寻址存储的引用记录文件, 其他存储方式为 null
+        private File ref;
+
+        private LocalFile(String key, File file) {
+            this(key, file, substringLastSeparator(file.getName(), "."));
+        }
+
+        private LocalFile(String key, File file, String extension) {
+            this(key, file, extension, null);
+        }
+
+        private LocalFile(String key, File file, String extension, File ref) {
+            this.key = key;
+            this.file = file;
+            this.extension = extension;
+            this.ref = ref;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        @Override
+        public String toString() {
+            return "LocalFile{" + "key='" + key + '\'' + ", file=" + file + ", extension='" + extension + '\'' + '}';
+        }
+
+    }
+
+    /**
+     * 以内存映射的方式逐行读取文件通道中指定范围的内容, 范围须从行首开始
+     *
+     * @param channel  文件通道
+     * @param start    起始位置(包含)
+     * @param end      结束位置(不包含)
+     * @param charset  字符集
+     * @param consumer (每行的文本内容)
+     * @throws IOException
+     */
+    private static void readMappedLines(FileChannel channel, long start, long end, Charset charset, Consumer<? super String> consumer) throws IOException {
+        // 从映射区批量复制到数组中查找换行符, 完整落在数组中的行直接解码
+        byte[] chunk = BufferUtils.acquireBytes(BUFFER_SIZE);
+        try {
+            // 跨越数组边界的行在此暂存
+            byte[] line = new byte[256];
+            int lineLength = 0;
+            long position = start;
+            while (position < end) {
+                int size = (int) Math.min(MAPPED_WINDOW_SIZE, end - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    int lineStart = 0;
+                    int i;
+                    while ((i = indexOfLineFeed(chunk, lineStart, length)) != -1) {
+                        if (lineLength == 0) {
+                            consumer.accept(decodeLine(chunk, lineStart, i - lineStart, charset));
+                        } else {
+                            line = appendBytes(line, lineLength, chunk, lineStart, i - lineStart);
+                            consumer.accept(decodeLine(line, 0, lineLength + i - lineStart, charset));
+                            lineLength = 0;
+                        }
+                        lineStart = i + 1;
+                    }
+                    line = appendBytes(line, lineLength, chunk, lineStart, length - lineStart);
+                    lineLength += length - lineStart;
+                }
+                position += size;
+            }
+            if (lineLength > 0) {
+                consumer.accept(decodeLine(line, 0, lineLength, charset));
+            }
+        } finally {
+            BufferUtils.release(chunk);
+        }
+    }
+
+    /**
+     * 查找换行符的位置
+     *
+     * @param bytes 字节数组
+     * @param from  起始位置(包含)
+     * @param to    结束位置(不包含)
+     * @return 返回换行符的位置, 找不到时返回 -1
+     */
+    private static int indexOfLineFeed(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 追加字节到目标数组, 容量不足时扩容
+     *
+     * @param dest       目标数组
+     * @param destLength 目标数组已有的字节长度
+     * @param src        源数组
+     * @param offset     源数组的起始位置
+     * @param length     追加的字节长度
+     * @return 返回追加后的目标数组
+     */
+    private static byte[] appendBytes(byte[] dest, int destLength, byte[] src, int offset, int length) {
+        if (destLength + length > dest.length) {
+            dest = Arrays.copyOf(dest, Math.max(dest.length * 2, destLength + length));
+        }
+        System.arraycopy(src, offset, dest, destLength, length);
+        return dest;
+    }
+
+    /**
+     * 解码一行内容, 去除行尾的 \r
+     *
+     * @param bytes   字节数组
+     * @param offset  行的起始位置
+     * @param length  行的字节长度
+     * @param charset 字符集
+     * @return 返回行的文本内容
+     */
+    private static String decodeLine(byte[] bytes, int offset, int length, Charset charset) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, offset, length, charset);
+    }
+
+    /**
+     * 判断字符集是否兼容 ASCII, 即换行符编码为单个字节, 可直接在字节上查找行边界
+     *
+     * @param charset 字符集编码
+     * @return true/false
+     */
+    private static boolean isAsciiCompatible(String charset) {
+        if (!Charset.isSupported(charset)) {
+            return false;
+        }
+        byte[] bytes = "\n\r".getBytes(Charset.forName(charset));
+        return bytes.length == 2 && bytes[0] == '\n' && bytes[1] == '\r';
+    }
+
+    /**
+     * 异步文件写出器, 从源通道读取内容, 通过异步文件通道写出, 同时进行的写操作数不超过上限
+     */
+    private static final class AsyncFileWriter implements CompletionHandler<Integer, AsyncFileWriter.Chunk> {
+
+        // 源通道
+        private final ReadableByteChannel source;
+
+        // 目标异步文件通道
+        private final AsynchronousFileChannel channel;
+
+        // 写出的起始位置
+        private final long start;
+
+        // 每个缓冲区使用的大小
+        private final int bufferSize;
+
+        // 最大写操作数
+        private final int maxInFlight;
+
+        // 完成的 Future
+        private final CompletableFuture<Long> future;
+
+        // 空闲的缓冲区
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+        // 正在进行的写操作数
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // 排空循环的重入计数, 保证同一时刻只有一个线程读取源
+        private final AtomicInteger wip = new AtomicInteger();
+
+        // 下一次写出的位置, 只在排空循环中修改
+        private long position;
+
+        // 源是否已读取完毕
+        private volatile boolean eof;
+
+        // 写出的缓冲区和位置
+        private static final class Chunk {
+
+            private final ByteBuffer buffer;
+
+            private long position;
+
+            private Chunk(ByteBuffer buffer, long position) {
+                this.buffer = buffer;
+                this.position = position;
+            }
+
+        }
+
+        private AsyncFileWriter(ReadableByteChannel source, AsynchronousFileChannel channel, long start, int bufferSize,
+                                int maxInFlight, CompletableFuture<Long> future) {
+            this.source = source;
+            this.channel = channel;
+            this.start = start;
+            this.position = start;
+            this.bufferSize = Math.max(1024, bufferSize);
+            this.maxInFlight = Math.max(1, maxInFlight);
+            this.future = future;
+            for (int i = 0; i < this.maxInFlight; i++) {
+                buffers.add(BufferUtils.acquireDirect(this.bufferSize));
+            }
+        }
+
+        // 在写操作数未达上限时读取源并提交写操作, 全部写完后完成 Future
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                try {
+                    while (!eof && !future.isDone() && inFlight.get() < maxInFlight) {
+                        ByteBuffer buffer = buffers.poll();
+                        if (buffer == null) {
+                            break;
+                        }
+                        buffer.clear().limit(bufferSize);
+                        while (buffer.hasRemaining()) {
+                            if (source.read(buffer) == -1) {
+                                eof = true;
+                                break;
+                            }
+                        }
+                        buffer.flip();
+                        if (!buffer.hasRemaining()) {
+                            buffers.add(buffer);
+                            break;
+                        }
+                        inFlight.incrementAndGet();
+                        Chunk chunk = new Chunk(buffer, position);
+                        position += buffer.remaining();
+                        channel.write(buffer, chunk.position, chunk, this);
                     }
-                } else {
-                    LocalFile localFile = LocalFileUpload.createLocalFile(extension);
-                    try {
-                        consumer.accept(localFile.file);
-                        report.addSuccessItem(localFile.key);
-                    } catch (Throwable e) {
-                        e.printStackTrace();
-                        report.addFailItem("文件 \"" + fileName + "\" " + overSizeLimit + ", 上传失败, 请重新选择上传");
+                    if (eof && inFlight.get() == 0) {
+                        finish(null);
                     }
+                } catch (IOException | RuntimeException e) {
+                    finish(e);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        @Override
+        public void completed(Integer written, Chunk chunk) {
+            if (chunk.buffer.hasRemaining()) {
+                chunk.position += written;
+                channel.write(chunk.buffer, chunk.position, chunk, this);
+                return;
+            }
+            buffers.add(chunk.buffer);
+            inFlight.decrementAndGet();
+            if (future.isDone()) {
+                releaseBuffers();
+                return;
+            }
+            drain();
+        }
+
+        @Override
+        public void failed(Throwable e, Chunk chunk) {
+            buffers.add(chunk.buffer);
+            finish(e);
+        }
+
+        // 关闭通道, 完成 Future
+        private void finish(Throwable e) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                if (e == null) {
+                    e = ex;
                 }
+            }
+            if (e == null) {
+                future.complete(position - start);
             } else {
-                if (typeAdapter != null) {
-                    adaptFile(report, target, fileName, extension, typeAdapter);
-                } else {
-                    report.addFailItem("文件 \"" + fileName + "\" 是不支持上传的类型, 请选择 " + filterTips + " 类型的文件");
+                future.completeExceptionally(e);
+            }
+            releaseBuffers();
+        }
+
+        // 归还空闲的缓冲区, 进行中的写操作完成后再归还其缓冲区
+        private void releaseBuffers() {
+            ByteBuffer buffer;
+            while ((buffer = buffers.poll()) != null) {
+                BufferUtils.release(buffer);
+            }
+        }
+
+    }
+
+    /**
+     * 异步文件读取器, 将文件指定范围的内容分段并发读取到字节数组, 同时进行的读操作数不超过上限
+     */
+    private static final class AsyncFileReader implements CompletionHandler<Integer, AsyncFileReader.Chunk> {
+
+        // 源异步文件通道
+        private final AsynchronousFileChannel channel;
+
+        // 读取的起始位置
+        private final long start;
+
+        // 读取的结果
+        private final byte[] bytes;
+
+        // 每段的大小
+        private final int bufferSize;
+
+        // 最大读操作数
+        private final int maxInFlight;
+
+        // 完成的 Future
+        private final CompletableFuture<byte[]> future;
+
+        // 空闲的缓冲区
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+        // 正在进行的读操作数
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // 排空循环的重入计数
+        private final AtomicInteger wip = new AtomicInteger();
+
+        // 下一段在结果中的偏移, 只在排空循环中修改
+        private int offset;
+
+        // 文件在读取过程中变短时实际读到的长度
+        private volatile int limit;
+
+        // 读取的缓冲区和在结果中的偏移
+        private static final class Chunk {
+
+            private final ByteBuffer buffer;
+
+            private final int offset;
+
+            private Chunk(ByteBuffer buffer, int offset) {
+                this.buffer = buffer;
+                this.offset = offset;
+            }
+
+        }
+
+        private AsyncFileReader(AsynchronousFileChannel channel, long start, int size, int bufferSize,
+                                int maxInFlight, CompletableFuture<byte[]> future) {
+            this.channel = channel;
+            this.start = start;
+            this.bytes = new byte[size];
+            this.limit = size;
+            this.bufferSize = Math.max(1024, bufferSize);
+            this.maxInFlight = Math.max(1, maxInFlight);
+            this.future = future;
+        }
+
+        // 在读操作数未达上限时提交后续分段的读操作, 全部读完后完成 Future
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (offset < limit && !future.isDone() && inFlight.get() < maxInFlight) {
+                    ByteBuffer buffer = buffers.poll();
+                    if (buffer == null) {
+                        buffer = BufferUtils.acquireDirect(bufferSize);
+                    }
+                    buffer.clear().limit(Math.min(bufferSize, limit - offset));
+                    inFlight.incrementAndGet();
+                    Chunk chunk = new Chunk(buffer, offset);
+                    offset += buffer.limit();
+                    channel.read(buffer, start + chunk.offset, chunk, this);
                 }
+                if (offset >= limit && inFlight.get() == 0) {
+                    finish(null);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        @Override
+        public void completed(Integer read, Chunk chunk) {
+            ByteBuffer buffer = chunk.buffer;
+            if (read == -1) {
+                // 文件变短
+                limit = Math.min(limit, chunk.offset + buffer.position());
+            } else if (buffer.hasRemaining()) {
+                channel.read(buffer, start + chunk.offset + buffer.position(), chunk, this);
+                return;
             }
+            buffer.flip();
+            buffer.get(bytes, chunk.offset, buffer.remaining());
+            buffers.add(buffer);
+            inFlight.decrementAndGet();
+            if (future.isDone()) {
+                releaseBuffers();
+                return;
+            }
+            drain();
         }
 
-        // 适配文件
-        private void adaptFile(FileUploadReport report, Object target, String fileName, String extension, BiFunction<InputStream, File, Boolean> adapter) {
-            LocalFile localFile = LocalFileUpload.createLocalFile(extension);
+        @Override
+        public void failed(Throwable e, Chunk chunk) {
+            buffers.add(chunk.buffer);
+            finish(e);
+        }
+
+        // 关闭通道, 完成 Future
+        private void finish(Throwable e) {
             try {
-                InputStream in = null;
-                if (target instanceof FileItem) {
-                    in = ((FileItem) target).getInputStream();
-                } else if (target instanceof MultipartFile) {
-                    in = ((MultipartFile) target).getInputStream();
+                channel.close();
+            } catch (IOException ex) {
+                if (e == null) {
+                    e = ex;
                 }
-                Boolean adapterResult = adapter.apply(in, localFile.file);
-                if (adapterResult != null && adapterResult) {
-                    report.addSuccessItem(localFile.key);
+            }
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(limit == bytes.length ? bytes : Arrays.copyOf(bytes, limit));
+            }
+            releaseBuffers();
+        }
+
+        // 归还空闲的缓冲区, 进行中的读操作完成后再归还其缓冲区
+        private void releaseBuffers() {
+            ByteBuffer buffer;
+            while ((buffer = buffers.poll()) != null) {
+                BufferUtils.release(buffer);
+            }
+        }
+
+    }
+
+    /**
+     * 转换字符集编码的输入流, 读取时从源输入流逐块解码再编码为目标字符集, 使用从缓冲区池中申请的固定大小的缓冲区
+     */
+    private static final class TranscodingInputStream extends InputStream {
+
+        // 源输入流
+        private final InputStream in;
+
+        // 目标字符集
+        private final Charset targetCharset;
+
+        // 是否检测源字符集
+        private final boolean detectCharset;
+
+        // 源字符集
+        private Charset sourceCharset;
+
+        // 源字符集解码器, 首次读取时创建
+        private CharsetDecoder decoder;
+
+        // 目标字符集编码器
+        private CharsetEncoder encoder;
+
+        // 待解码的字节, 读模式
+        private ByteBuffer input;
+
+        // 待编码的字符, 读模式
+        private CharBuffer chars;
+
+        // 编码后的字节, 读模式
+        private ByteBuffer output;
+
+        // 源输入流是否已读取完毕
+        private boolean eof;
+
+        // 解码是否已结束
+        private boolean decoded;
+
+        // 编码是否已结束
+        private boolean encoded;
+
+        // 是否已关闭
+        private boolean closed;
+
+        private TranscodingInputStream(InputStream in, Charset sourceCharset, Charset targetCharset, boolean detectCharset) {
+            this.in = detectCharset ? new BufferedInputStream(in, BUFFER_SIZE) : in;
+            this.sourceCharset = sourceCharset;
+            this.targetCharset = targetCharset;
+            this.detectCharset = detectCharset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if ((output == null || !output.hasRemaining()) && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, output.remaining());
+            output.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                BufferUtils.release(input);
+                BufferUtils.release(chars == null ? null : chars.array());
+                BufferUtils.release(output);
+                input = output = null;
+                chars = null;
+            }
+            in.close();
+        }
+
+        // 编码下一块内容到输出缓冲区, 全部编码完成时返回 false
+        private boolean fill() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (decoder == null) {
+                input = BufferUtils.acquireHeap(BUFFER_SIZE);
+                chars = CharBuffer.wrap(BufferUtils.acquireChars(BUFFER_SIZE));
+                output = BufferUtils.acquireHeap(BUFFER_SIZE);
+                input.flip();
+                chars.flip();
+                if (detectCharset) {
+                    sourceCharset = detectCharset((BufferedInputStream) in, sourceCharset);
+                }
+                decoder = sourceCharset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                encoder = targetCharset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            output.clear();
+            while (output.position() == 0 && !encoded) {
+                if (chars.hasRemaining()) {
+                    if (encoder.encode(chars, output, false).isOverflow()) {
+                        break;
+                    }
+                } else if (decoded) {
+                    encoder.encode(chars, output, true);
+                    encoder.flush(output);
+                    encoded = true;
                 } else {
-                    report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
+                    decode();
                 }
-            } catch (Throwable e) {
-                e.printStackTrace();
-                report.addFailItem("文件 \"" + fileName + "\" 上传失败, 请重新选择上传");
             }
+            output.flip();
+            return output.hasRemaining();
+        }
+
+        // 解码下一块内容到字符缓冲区
+        private void decode() throws IOException {
+            chars.clear();
+            while (chars.position() == 0 && !decoded) {
+                if (!eof) {
+                    input.compact();
+                    int read = in.read(input.array(), input.position(), input.remaining());
+                    if (read == -1) {
+                        eof = true;
+                    } else {
+                        input.position(input.position() + read);
+                    }
+                    input.flip();
+                }
+                CoderResult result = decoder.decode(input, chars, eof);
+                if (result.isOverflow()) {
+                    break;
+                }
+                if (eof) {
+                    decoder.flush(chars);
+                    decoded = true;
+                }
+            }
+            chars.flip();
+        }
+
+        /**
+         * 根据开头的内容检测字符集, 有 BOM 时以 BOM 为准, 内容是有效的 UTF-8 且含有非 ASCII 字符时为 UTF-8
+         *
+         * @param in       源输入流, 检测后重置到检测前的位置(UTF-8 的 BOM 被跳过)
+         * @param fallback 无法确定时使用的字符集
+         * @return 返回检测到的字符集
+         * @throws IOException
+         */
+        private static Charset detectCharset(BufferedInputStream in, Charset fallback) throws IOException {
+            byte[] head = BufferUtils.acquireBytes(BUFFER_SIZE);
+            try {
+                return detectCharset(in, head, fallback);
+            } finally {
+                BufferUtils.release(head);
+            }
+        }
+
+        // 使用给定的数组读取开头的内容检测字符集
+        private static Charset detectCharset(BufferedInputStream in, byte[] head, Charset fallback) throws IOException {
+            in.mark(head.length);
+            int length = 0;
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+            in.reset();
+            if (length >= 3 && head[0] == (byte) 0xEF && head[1] == (byte) 0xBB && head[2] == (byte) 0xBF) {
+                in.skip(3);
+                return StandardCharsets.UTF_8;
+            }
+            if (length >= 2 && ((head[0] == (byte) 0xFE && head[1] == (byte) 0xFF) || (head[0] == (byte) 0xFF && head[1] == (byte) 0xFE))) {
+                // UTF-16 解码器根据 BOM 确定字节序并跳过 BOM
+                return StandardCharsets.UTF_16;
+            }
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = head[i] >= 0;
+            }
+            if (ascii) {
+                return fallback;
+            }
+            // 块末尾可能截断了一个多字节字符, 未到流末尾时不视为错误
+            char[] chars = BufferUtils.acquireChars(length);
+            try {
+                CoderResult result = StandardCharsets.UTF_8.newDecoder()
+                        .decode(ByteBuffer.wrap(head, 0, length), CharBuffer.wrap(chars), length < head.length);
+                return result.isError() ? fallback : StandardCharsets.UTF_8;
+            } finally {
+                BufferUtils.release(chars);
+            }
+        }
+
+    }
+
+    /**
+     * 行解码器, 复用解码器和字符缓冲区, 解码每行时不分配内存
+     */
+    private static final class LineDecoder {
+
+        // 字符集解码器, 非法的字节替换为替换字符, 与 String 的解码行为一致
+        private final CharsetDecoder decoder;
+
+        // 复用的字符缓冲区
+        private CharBuffer chars = CharBuffer.allocate(256);
+
+        private LineDecoder(Charset charset) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * 解码一行内容, 去除行尾的 \r
+         *
+         * @param bytes  包装字节数组的缓冲区
+         * @param offset 行的起始位置
+         * @param length 行的字节长度
+         * @return 返回复用的字符缓冲区, 内容在下一次解码时被覆盖
+         */
+        private CharBuffer decode(ByteBuffer bytes, int offset, int length) {
+            if (length > 0 && bytes.get(offset + length - 1) == '\r') {
+                length--;
+            }
+            int required = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+            if (chars.capacity() < required) {
+                chars = CharBuffer.allocate(Math.max(chars.capacity() * 2, required));
+            }
+            bytes.limit(offset + length).position(offset);
+            chars.clear();
+            decoder.reset();
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            bytes.clear();
+            return chars;
+        }
+
+    }
+
+    /**
+     * 按行遍历文件通道中指定字节范围的 Spliterator, 切分点对齐到换行符之后, 保证每行只属于一个范围
+     */
+    private static final class LineSpliterator implements Spliterator<String> {
+
+        // 不再切分的最小字节数
+        private static final long MIN_SPLIT_SIZE = 1024 * 1024;
+
+        // 文件通道
+        private final FileChannel channel;
+
+        // 字符集
+        private final Charset charset;
+
+        // 下一行的起始位置
+        private long start;
+
+        // 结束位置(不包含)
+        private final long end;
+
+        // 逐行读取时的缓存数组
+        private byte[] buffer;
+
+        // 缓存数组中未处理的起始位置
+        private int offset;
+
+        // 缓存数组中有效的字节长度
+        private int length;
+
+        private LineSpliterator(FileChannel channel, long start, long end, Charset charset) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.charset = charset;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (start >= end) {
+                return false;
+            }
+            if (buffer == null) {
+                buffer = new byte[8192];
+            }
+            byte[] line = null;
+            int lineLength = 0;
+            try {
+                while (start < end) {
+                    if (offset == length) {
+                        offset = length = 0;
+                        ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - start));
+                        while (target.hasRemaining()) {
+                            if (channel.read(target, start + target.position()) <= 0) {
+                                break;
+                            }
+                        }
+                        length = target.position();
+                        if (length == 0) {
+                            start = end;
+                            break;
+                        }
+                    }
+                    int i = indexOfLineFeed(buffer, offset, length);
+                    if (i != -1) {
+                        start += i - offset + 1;
+                        if (line == null) {
+                            action.accept(decodeLine(buffer, offset, i - offset, charset));
+                        } else {
+                            line = appendBytes(line, lineLength, buffer, offset, i - offset);
+                            action.accept(decodeLine(line, 0, lineLength + i - offset, charset));
+                        }
+                        offset = i + 1;
+                        return true;
+                    }
+                    line = appendBytes(line == null ? new byte[256] : line, lineLength, buffer, offset, length - offset);
+                    lineLength += length - offset;
+                    start += length - offset;
+                    offset = length;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (lineLength > 0) {
+                action.accept(decodeLine(line, 0, lineLength, charset));
+            }
+            return lineLength > 0;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super String> action) {
+            // start 总是位于行首, 缓存中未处理的内容可以丢弃, 由映射读取重新读取
+            offset = length = 0;
+            try {
+                readMappedLines(channel, start, end, charset, action);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            start = end;
+        }
+
+        @Override
+        public Spliterator<String> trySplit() {
+            if (end - start < MIN_SPLIT_SIZE * 2) {
+                return null;
+            }
+            try {
+                long middle = nextLineStart(start + (end - start) / 2);
+                if (middle >= end) {
+                    return null;
+                }
+                LineSpliterator prefix = new LineSpliterator(channel, start, middle, charset);
+                start = middle;
+                offset = length = 0;
+                return prefix;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // 查找指定位置之后的下一行的起始位置, 找不到时返回结束位置
+        private long nextLineStart(long position) throws IOException {
+            ByteBuffer target = BufferUtils.acquireHeap(8192);
+            try {
+                while (position < end) {
+                    target.clear();
+                    int read = channel.read(target, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    int i = indexOfLineFeed(target.array(), 0, (int) Math.min(read, end - position));
+                    if (i != -1) {
+                        return position + i + 1;
+                    }
+                    position += read;
+                }
+                return end;
+            } finally {
+                BufferUtils.release(target);
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - start;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+
+    }
+
+    /**
+     * 计数的输出流
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        // 写出的字节数
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
 
     }
 
     /**
-     * 本地文件上传, 可在 Spring 中使用 bean 配置选项：
-     *
-     * <bean class="org.fanlychie.util.FileUtils.LocalFileUpload" p:storageRootFolder="/pathname/" p:childFolderLength="2" />
+     * 写出管道的处理阶段
      */
-    public static final class LocalFileUpload {
-
-        // 上传的文件存储的根目录
-        private static String storageRootFolder = System.getProperty("java.io.tmpdir");
-
-        // 上传的文件存储的子目录长度
-        private static int childFolderLength = 5;
+    @FunctionalInterface
+    private interface PipelineStage {
 
         /**
-         * 设置上传的文件存储的根目录
+         * 包装下一阶段的输出流
          *
-         * @param storageRootFolder 上传的文件存储的根目录, 默认使用 Java IO 临时目录
+         * @param out 下一阶段的输出流
+         * @return 返回此阶段的输出流, 关闭时需写出剩余数据并关闭下一阶段
+         * @throws IOException
          */
-        public void setStorageRootFolder(String storageRootFolder) {
-            LocalFileUpload.storageRootFolder = storageRootFolder;
-        }
+        OutputStream wrap(OutputStream out) throws IOException;
 
-        /**
-         * 设置上传的文件存储的子目录长度
-         *
-         * @param childFolderLength 上传的文件存储的子目录长度, 默认长度为 5
-         */
-        public void setChildFolderLength(int childFolderLength) {
-            LocalFileUpload.childFolderLength = childFolderLength;
+    }
+
+    /**
+     * 写出管道的末端, 计数写出的字节数, 关闭时只刷新而不关闭目标输出流
+     */
+    private static final class PipelineSink extends FilterOutputStream {
+
+        // 写出的字节数
+        private long count;
+
+        // 管道失败后丢弃关闭各阶段时写出的结尾数据
+        private boolean discard;
+
+        private PipelineSink(OutputStream out) {
+            super(out);
         }
 
-        /**
-         * 创建本地文件
-         *
-         * @param extension 文件扩展名
-         * @return 返回一个本地文件对象
-         */
-        private static LocalFile createLocalFile(String extension) {
-            if (extension == null) {
-                extension = "";
-            } else {
-                extension = "." + extension;
+        @Override
+        public void write(int b) throws IOException {
+            if (!discard) {
+                out.write(b);
+                count++;
             }
-            String uuidStr = UUID.randomUUID().toString().replace("-", "");
-            String fileName = uuidStr + extension;
-            String childFolderName = fileName.substring(0, childFolderLength);
-            File childFoloder = new File(storageRootFolder + "/" + childFolderName);
-            if (!childFoloder.exists()) {
-                childFoloder.mkdirs();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!discard) {
+                out.write(b, off, len);
+                count += len;
             }
-            return new LocalFile(uuidStr, new File(childFoloder, fileName));
         }
 
-        /**
-         * 获取本地文件
-         *
-         * @param fileKey 文件上传返回的文件 Key
-         * @return 返回找到的文件对象
-         */
-        private static File achieveLocalFile(String fileKey) {
-            String childFolderName = fileKey.substring(0, childFolderLength);
-            File childFoloder = new File(storageRootFolder + "/" + childFolderName);
-            if (childFoloder.isDirectory()) {
-                for (File file : childFoloder.listFiles()) {
-                    if (file.getName().startsWith(fileKey)) {
-                        return file;
-                    }
-                }
+        @Override
+        public void close() throws IOException {
+            if (!discard) {
+                out.flush();
             }
-            return null;
         }
 
     }
 
     /**
-     * 文件上传报告
+     * 计算摘要的输出流, 关闭时将摘要值存入结果表
      */
-    public static final class FileUploadReport {
+    private static final class DigestingOutputStream extends FilterOutputStream {
 
-        // 失败个数
-        private int failNum;
+        private final MessageDigest[] messageDigests;
 
-        // 成功个数
-        private int successNum;
+        private final Map<String, String> digests;
 
-        // 成功的文件 Key 列表
-        private List<String> fileKeys;
+        private boolean closed;
 
-        // 失败的文件消息列表
-        private List<String> failMsgs;
+        private DigestingOutputStream(OutputStream out, MessageDigest[] messageDigests, Map<String, String> digests) {
+            super(out);
+            this.messageDigests = messageDigests;
+            this.digests = digests;
+        }
 
-        // 私有化
-        private FileUploadReport() {
-            this.fileKeys = new ArrayList<>();
-            this.failMsgs = new ArrayList<>();
+        @Override
+        public void write(int b) throws IOException {
+            for (MessageDigest digest : messageDigests) {
+                digest.update((byte) b);
+            }
+            out.write(b);
         }
 
-        /**
-         * 获取失败的文件个数
-         *
-         * @return 返回失败的文件个数
-         */
-        public int getFailNum() {
-            return failNum;
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (MessageDigest digest : messageDigests) {
+                digest.update(b, off, len);
+            }
+            out.write(b, off, len);
         }
 
-        /**
-         * 获取成功的文件个数
-         *
-         * @return 返回成功的文件个数
-         */
-        public int getSuccessNum() {
-            return successNum;
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                for (MessageDigest digest : messageDigests) {
+                    digests.put(digest.getAlgorithm(), toHex(digest.digest()));
+                }
+            }
+            out.close();
         }
 
-        /**
-         * 获取成功的文件 Key 列表
-         *
-         * @return 返回成功的文件 Key 列表
-         */
-        public List<String> getFileKeys() {
-            return fileKeys;
+    }
+
+    /**
+     * 加密的输出流, 与 CipherOutputStream 不同, 每次写入复用同一个从缓冲区池中申请的输出缓冲区
+     */
+    private static final class CipherStageOutputStream extends FilterOutputStream {
+
+        private final Cipher cipher;
+
+        // 输出缓冲区, 与其余读写共用 64KB 的级别, 分组密码多出的输出通过分段处理容纳
+        private byte[] buffer = BufferUtils.acquireBytes(BUFFER_SIZE);
+
+        private boolean closed;
+
+        private CipherStageOutputStream(OutputStream out, Cipher cipher) {
+            super(out);
+            this.cipher = cipher;
         }
 
-        /**
-         * 获取失败的文件消息列表
-         *
-         * @return 返回失败的文件消息列表
-         */
-        public List<String> getFailMsgs() {
-            return failMsgs;
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
         }
 
-        /**
-         * 报告是否健康的, 若是, 表明上传全部成功, 否则表明存在上传失败的文件
-         *
-         * @return true/false
-         */
-        public boolean isHealthy() {
-            return failNum == 0;
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                while (len > 0) {
+                    // 按输出缓冲区的大小分段处理, 分组密码的输出可能比输入多出一个分组
+                    int n = Math.min(len, buffer.length);
+                    int overflow = cipher.getOutputSize(n) - buffer.length;
+                    if (overflow > 0) {
+                        // 密码缓存了大量输入(如 GCM 解密)时不再分段, 一次处理
+                        n = n > overflow ? n - overflow : len;
+                        ensureCapacity(cipher.getOutputSize(n));
+                    }
+                    int count = cipher.update(b, off, n, buffer);
+                    out.write(buffer, 0, count);
+                    off += n;
+                    len -= n;
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
         }
 
-        private void addSuccessItem(String fileKey) {
-            this.successNum++;
-            this.fileKeys.add(fileKey);
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    ensureCapacity(cipher.getOutputSize(0));
+                    int count = cipher.doFinal(buffer, 0);
+                    out.write(buffer, 0, count);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                } finally {
+                    BufferUtils.release(buffer);
+                }
+            }
+            out.close();
         }
 
-        private void addFailItem(String failMsg) {
-            this.failNum++;
-            this.failMsgs.add(failMsg);
+        // 确保输出缓冲区足够大
+        private void ensureCapacity(int size) {
+            if (buffer.length < size) {
+                BufferUtils.release(buffer);
+                buffer = BufferUtils.acquireBytes(size);
+            }
         }
 
     }
 
     /**
-     * PDF-HTML 转换器
+     * 限速的输出流, 写入超出速率时休眠到平均速率回落
      */
-    public static final class PDFHtmlConvertor {
+    private static final class ThrottledOutputStream extends FilterOutputStream {
 
-        // HTML 内容
-        private String content;
+        private final long bytesPerSecond;
 
-        // 私有化
-        private PDFHtmlConvertor(String content) {
-            this.content = content;
-        }
+        private final long startNanos = System.nanoTime();
 
-        /**
-         * 生成到文件
-         *
-         * @param file PDF 文件对象
-         */
-        public void to(File file) {
-            try (OutputStream os = new FileOutputStream(file)) {
-                execute(os);
-            } catch (Throwable e) {
-                throw new RuntimeException(e);
-            }
+        // 已写出的字节数
+        private long count;
+
+        private ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
         }
 
-        /**
-         * 生成到本地文件存储
-         *
-         * @return 返回本地文件存储对象
-         */
-        public LocalFile toLocalFile() {
-            LocalFile localFile = LocalFileUpload.createLocalFile("pdf");
-            to(localFile.file);
-            return localFile;
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+            await();
         }
 
-        /**
-         * 生成到客户端浏览器下载
-         *
-         * @param response         HttpServletResponse
-         * @param downloadFileName 下载显示的文件名称
-         */
-        public void to(HttpServletResponse response, String downloadFileName) {
-            try (OutputStream out = response.getOutputStream()) {
-                WritableStream.initBrowserDownload(response, downloadFileName);
-                execute(out);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // 按每秒速率的 1/10 切分写入, 避免低速率时单次写入造成长时间的突发
+            int slice = (int) Math.max(1, Math.min(len, bytesPerSecond / 10));
+            for (int end = off + len; off < end; off += slice) {
+                int size = Math.min(slice, end - off);
+                out.write(b, off, size);
+                count += size;
+                await();
             }
         }
 
-        /**
-         * 执行生成
-         *
-         * @param os 输出流对象
-         */
-        private void execute(OutputStream os) {
-            Document document = new Document();
-            try {
-                PdfWriter writer = PdfWriter.getInstance(document, os);
-                document.open();
-                Reader reader = new BufferedReader(new StringReader(content));
-                XMLWorkerHelper.getInstance().parseXHtml(writer, document, reader);
-            } catch (Throwable e) {
-                throw new RuntimeException(e);
-            } finally {
-                if (document != null) {
-                    document.close();
+        // 休眠到已写出的字节数不超过允许的字节数
+        private void await() throws IOException {
+            long expectedNanos = (long) (count * 1_000_000_000D / bytesPerSecond);
+            long waitNanos = expectedNanos - (System.nanoTime() - startNanos);
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Throttled write interrupted");
                 }
             }
         }
@@ -1314,34 +5168,124 @@ public final class FileUtils {
     }
 
     /**
-     * 本地文件
+     * 从文件通道的当前位置传输剩余的内容到目标通道, 由操作系统完成复制(如 sendfile), 数据不经过 JVM 堆.
+     * transferTo 未能传输时(如目标通道暂时不可写)改为经缓冲区复制一块, 直到传输完开始时的文件大小
+     *
+     * @param src  源文件通道
+     * @param dest 目标通道
+     * @return 返回传输的字节数
+     * @throws IOException 传输期间文件被截断时抛出 EOFException
      */
-    public static final class LocalFile {
-
-        // 文件 Key
-        private String key;
-
-        // 文件对象
-        private File file;
-
-        private LocalFile(String key, File file) {
-            this.key = key;
-            this.file = file;
+    private static long transfer(FileChannel src, WritableByteChannel dest) throws IOException {
+        long position = src.position();
+        long size = src.size();
+        long count = 0;
+        ByteBuffer buffer = null;
+        try {
+            while (position + count < size) {
+                long transferred = src.transferTo(position + count, size - position - count, dest);
+                if (transferred == 0) {
+                    if (buffer == null) {
+                        buffer = BufferUtils.acquireHeap(BUFFER_SIZE);
+                    }
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), size - position - count));
+                    if (src.read(buffer, position + count) < 0) {
+                        throw new EOFException("File truncated at " + (position + count) + " of " + size + " bytes");
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        dest.write(buffer);
+                    }
+                    transferred = buffer.position();
+                }
+                count += transferred;
+            }
+        } finally {
+            if (buffer != null) {
+                BufferUtils.release(buffer);
+            }
         }
+        src.position(position + count);
+        return count;
+    }
 
-        public String getKey() {
-            return key;
-        }
+    /**
+     * 使用缓冲区池中的缓存数组复制输入流的内容到输出流
+     *
+     * @param in  输入流
+     * @param out 输出流
+     * @return 返回复制的字节数
+     * @throws IOException
+     */
+    private static long transfer(InputStream in, OutputStream out) throws IOException {
+        return transfer(in, out, 0);
+    }
 
-        public File getFile() {
-            return file;
+    /**
+     * 使用缓冲区池中的缓存数组复制输入流的内容到输出流, 复制的字节数超出限制时停止复制, 输入流中剩余的内容不被读取
+     *
+     * @param in    输入流
+     * @param out   输出流
+     * @param limit 限制的字节数, 0 表示不限制
+     * @return 返回复制的字节数, 超出限制时返回值大于 limit
+     * @throws IOException
+     */
+    private static long transfer(InputStream in, OutputStream out, long limit) throws IOException {
+        byte[] buffer = BufferUtils.acquireBytes(BUFFER_SIZE);
+        try {
+            long count = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                count += read;
+                if (limit != 0 && count > limit) {
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            BufferUtils.release(buffer);
         }
+    }
 
-        @Override
-        public String toString() {
-            return "LocalFile{" + "key='" + key + '\'' + ", file=" + file + '}';
+    /**
+     * 计算文件内容的摘要
+     *
+     * @param file      文件
+     * @param algorithm 摘要算法, 如 MD5, SHA-256
+     * @return 返回十六进制小写的摘要值
+     */
+    private static String digest(File file, String algorithm) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            byte[] buffer = BufferUtils.acquireBytes(BUFFER_SIZE);
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                BufferUtils.release(buffer);
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
+    }
 
+    /**
+     * 转换字节数组为十六进制小写字符串
+     *
+     * @param bytes 字节数组
+     * @return
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
     }
 
     /**
@@ -1365,13 +5309,13 @@ public final class FileUtils {
     /**
      * Java 1.8 开始提供 java.util.Base64, 低于 Java 1.8 的可使用 Apache 的 Base64 算法替换：
      * <p>
-     * org.apache.commons.codec.binary.Base64.encodeBase64(byte[] src)
+     * new org.apache.commons.codec.binary.Base64OutputStream(OutputStream out)
      *
-     * @param src 源字节数组
-     * @return
+     * @param out 编码结果的输出流
+     * @return 返回写入时编码的输出流, 关闭时写出剩余的编码并关闭 out
      */
-    private static byte[] base64Encode(byte[] src) {
-        return Base64.getEncoder().encode(src);
+    private static OutputStream base64Encode(OutputStream out) {
+        return Base64.getEncoder().wrap(out);
     }
 
     /**
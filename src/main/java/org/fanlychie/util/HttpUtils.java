@@ -1,39 +1,118 @@
 package org.fanlychie.util;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
+import javax.net.ssl.SSLContext;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicEntityProducer;
+import org.apache.hc.core5.http.nio.support.classic.ContentInputStream;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
+import org.apache.http.ProtocolVersion;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.config.RequestConfig.Builder;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.StandardHttpRequestRetryHandler;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.http.ssl.SSLContextBuilder;
 
 /**
@@ -43,6 +122,46 @@ import org.apache.http.ssl.SSLContextBuilder;
  */
 public final class HttpUtils {
 
+	/**
+	 * 限流器注册表, 以主机名或自定义的键为索引
+	 */
+	private static final Map<String, RateLimiter> RATE_LIMITER_MAP = new ConcurrentHashMap<>();
+
+	/**
+	 * 全局默认的传输层
+	 */
+	private static volatile HttpTransport defaultTransport = Http1Transport.INSTANCE;
+
+	/**
+	 * 全局默认的证书信任配置
+	 */
+	private static volatile TrustConfig defaultTrustConfig = TrustConfig.trustAll();
+
+	/**
+	 * 请求监听器列表
+	 */
+	private static final List<HttpListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	/**
+	 * 监听器异常的处理器
+	 */
+	private static volatile BiConsumer<HttpListener, RuntimeException> listenerErrorHandler = (listener, e) -> e.printStackTrace();
+
+	/**
+	 * 表单请求体的内容类型
+	 */
+	private static final ContentType FORM_CONTENT_TYPE = ContentType.create("application/x-www-form-urlencoded", "UTF-8");
+
+	/**
+	 * 读取响应和写出请求体时从缓冲区池中申请的缓冲区大小
+	 */
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * 全局默认的异步请求执行器, 为 null 时使用 {@link ExecutorHolder#INSTANCE}
+	 */
+	private static volatile Executor defaultExecutor;
+
 	/**
 	 * GET 请求, 兼容 HTTP 和 HTTPS 请求
 	 * 
@@ -90,7 +209,180 @@ public final class HttpUtils {
 	public static HttpRequest delete(String url) {
 		return new HttpRequest(url, RequestMethod.DELETE);
 	}
-	
+
+	/**
+	 * 创建令牌桶限流器, 允许最多 burst 个请求的突发流量
+	 * 
+	 * @param permitsPerSecond
+	 *            每秒发放的许可数
+	 * @param burst
+	 *            令牌桶的容量, 即允许的最大突发请求数
+	 * 
+	 * @return {@link SmoothRateLimiter}
+	 */
+	public static SmoothRateLimiter tokenBucket(double permitsPerSecond, int burst) {
+		return new SmoothRateLimiter(permitsPerSecond, burst);
+	}
+
+	/**
+	 * 创建漏桶限流器, 请求以恒定的间隔被放行, 不允许突发流量
+	 * 
+	 * @param permitsPerSecond
+	 *            每秒放行的请求数
+	 * 
+	 * @return {@link SmoothRateLimiter}
+	 */
+	public static SmoothRateLimiter leakyBucket(double permitsPerSecond) {
+		return new SmoothRateLimiter(permitsPerSecond, 1);
+	}
+
+	/**
+	 * 注册限流器, 请求未显式指定限流器时, 依次按限流键和请求的主机名查找已注册的限流器
+	 * 
+	 * @param key
+	 *            主机名(eg: api.example.com)或自定义的限流键
+	 * @param rateLimiter
+	 *            限流器, 为 null 时表示移除
+	 */
+	public static void registerRateLimiter(String key, RateLimiter rateLimiter) {
+		if (rateLimiter == null) {
+			RATE_LIMITER_MAP.remove(key);
+		} else {
+			RATE_LIMITER_MAP.put(key, rateLimiter);
+		}
+	}
+
+	/**
+	 * 获取已注册的限流器
+	 * 
+	 * @param key
+	 *            主机名或自定义的限流键
+	 * 
+	 * @return 返回限流器, 未注册时返回 null
+	 */
+	public static RateLimiter getRateLimiter(String key) {
+		return RATE_LIMITER_MAP.get(key);
+	}
+
+	/**
+	 * 设置全局默认的传输层, 未显式指定传输层的请求均使用此传输层
+	 * 
+	 * @param transport
+	 *            传输层, 如 {@link #http1Transport()}, {@link #http2Transport()} 或自定义实现
+	 */
+	public static void setDefaultTransport(HttpTransport transport) {
+		if (transport == null) {
+			throw new IllegalArgumentException("transport can not be null");
+		}
+		defaultTransport = transport;
+	}
+
+	/**
+	 * 设置全局默认的证书信任配置, 未显式指定信任配置的 HTTPS 请求均使用此配置
+	 * 
+	 * @param trustConfig
+	 *            证书信任配置, 默认 {@link TrustConfig#trustAll()}
+	 */
+	public static void setDefaultTrustConfig(TrustConfig trustConfig) {
+		if (trustConfig == null) {
+			throw new IllegalArgumentException("trustConfig can not be null");
+		}
+		defaultTrustConfig = trustConfig;
+	}
+
+	/**
+	 * 添加请求监听器, 每个请求结束时(无论成功或失败)回调.
+	 * 
+	 * 监听器抛出的异常不会影响请求的结果和其余的监听器, 而是交给 {@link #setListenerErrorHandler(BiConsumer)} 设置的处理器
+	 * 
+	 * @param listener
+	 *            请求监听器, 如 {@link #createMetricsRecorder()}
+	 */
+	public static void addListener(HttpListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * 设置监听器异常的处理器, 在执行请求的线程中调用
+	 * 
+	 * @param handler
+	 *            (抛出异常的监听器, 异常), 默认打印异常的堆栈
+	 */
+	public static void setListenerErrorHandler(BiConsumer<HttpListener, RuntimeException> handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("handler can not be null");
+		}
+		listenerErrorHandler = handler;
+	}
+
+	/**
+	 * 移除请求监听器
+	 * 
+	 * @param listener
+	 *            请求监听器
+	 */
+	public static void removeListener(HttpListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * 创建请求指标记录器, 需通过 {@link #addListener(HttpListener)} 注册后才开始记录
+	 * 
+	 * @return {@link MetricsRecorder}
+	 */
+	public static MetricsRecorder createMetricsRecorder() {
+		return new MetricsRecorder();
+	}
+
+	/**
+	 * 设置全局默认的异步请求执行器, 未显式指定执行器的异步请求均使用此执行器.
+	 * 
+	 * 默认在 JDK 21 及以上版本使用虚拟线程执行器, 否则使用守护线程的缓存线程池
+	 * 
+	 * @param executor
+	 *            执行器, 为 null 时恢复默认
+	 */
+	public static void setDefaultExecutor(Executor executor) {
+		defaultExecutor = executor;
+	}
+
+	/**
+	 * 获取全局默认的异步请求执行器
+	 * 
+	 * @return Executor
+	 */
+	public static Executor getDefaultExecutor() {
+		Executor executor = defaultExecutor;
+		return executor != null ? executor : ExecutorHolder.INSTANCE;
+	}
+
+	/**
+	 * 判断当前 JDK 是否支持虚拟线程
+	 * 
+	 * @return 支持返回 true, 否则返回 false
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return ExecutorHolder.VIRTUAL;
+	}
+
+	/**
+	 * 获取 HTTP/1.1 传输层, 基于 HttpClient-4.5.2, 即默认的传输层
+	 * 
+	 * @return {@link HttpTransport}
+	 */
+	public static HttpTransport http1Transport() {
+		return Http1Transport.INSTANCE;
+	}
+
+	/**
+	 * 获取共享的 HTTP/2 传输层, 基于 HttpClient-5, 同一主机的并发请求在一个连接上多路复用
+	 * 
+	 * @return {@link Http2Transport}
+	 */
+	public static Http2Transport http2Transport() {
+		return Http2Transport.getShared();
+	}
+
 	/**
 	 * 支持的请求方法
 	 * 
@@ -111,6 +403,12 @@ public final class HttpUtils {
 		// 请求体内容
 		private String body;
 		
+		// 流式请求体
+		private HttpEntity entity;
+		
+		// 多部件请求体的部件, 每次执行时重新构建请求体
+		private List<Consumer<MultipartEntityBuilder>> parts;
+		
 		// 请求方法
 		private RequestMethod method;
 		
@@ -141,11 +439,57 @@ public final class HttpUtils {
 		// 代理类型(http或https)
 		private String proxySchema;
 		
+		// 限流器
+		private RateLimiter rateLimiter;
+		
+		// 限流键
+		private String rateLimitKey;
+		
+		// 等待限流许可的最大毫秒数
+		private long rateLimitWaitMillis = 60000;
+		
+		// 传输层
+		private HttpTransport transport;
+		
+		// 证书信任配置
+		private TrustConfig trustConfig;
+		
+		// 请求配置, 修改超时或代理时清空
+		private RequestConfig requestConfig;
+		
+		// 创建此请求的模板
+		private RequestTemplate template;
+		
+		// 异步请求执行器
+		private Executor executor;
+		
 		// 私有构造子
 		private HttpRequest(String url, RequestMethod method) {
 			this.url = url;
 			this.method = method;
 		}
+		
+		// 私有构造子, 从模板创建请求
+		private HttpRequest(RequestTemplate template) {
+			this.template = template;
+			this.url = template.url;
+			this.method = template.method;
+			this.body = template.body;
+			this.retryTimes = template.retryTimes;
+			this.readTimeoutSecond = template.readTimeoutSecond;
+			this.connectTimeoutSecond = template.connectTimeoutSecond;
+			this.readResultCharset = template.readResultCharset;
+			this.proxyHost = template.proxyHost;
+			this.proxyPort = template.proxyPort;
+			this.proxySchema = template.proxySchema;
+			this.rateLimiter = template.rateLimiter;
+			this.rateLimitKey = template.rateLimitKey;
+			this.rateLimitWaitMillis = template.rateLimitWaitMillis;
+			this.transport = template.transport;
+			this.trustConfig = template.trustConfig;
+			this.requestConfig = template.requestConfig;
+			this.executor = template.executor;
+		}
 
 		/**
 		 * 执行请求
@@ -155,12 +499,75 @@ public final class HttpUtils {
 		 */
 		public void execute(BiConsumer<Integer, String> consumer) {
 			try {
-				doService(consumer);
+				doService((statusCode, in) -> readStream(in), consumer);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * 执行请求, 响应成功(2xx)时从响应流增量解析 JSON 内容到目标类型, 不会先读取成完整的字符串
+		 * 
+		 * @param type
+		 *            目标类型, 解析规则参考 {@link JsonUtils#read(java.io.Reader, Class)}
+		 * @param consumer
+		 *            (请求结果的状态码, 解析得到的对象), 响应不成功或没有响应内容时对象为 null
+		 */
+		public <T> void execute(Class<T> type, BiConsumer<Integer, T> consumer) {
+			try {
+				doService((statusCode, in) -> {
+					try (PushbackInputStream stream = new PushbackInputStream(in)) {
+						if (statusCode < 200 || statusCode >= 300) {
+							return null;
+						}
+						// 响应体为空(如 Content-Length: 0)时没有可解析的内容
+						int first = stream.read();
+						if (first == -1) {
+							return null;
+						}
+						stream.unread(first);
+						return JsonUtils.read(new InputStreamReader(stream, readResultCharset), type);
+					}
+				}, consumer);
+			} catch (RuntimeException e) {
+				throw e;
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
 		}
 
+		/**
+		 * 在执行器中异步执行请求, 请求结束后回调 consumer, 调用线程不会被阻塞.
+		 * 
+		 * 使用虚拟线程执行器时, 请求等待网络 I/O 期间会释放载体线程, 但 HTTP/1.1 传输层(HttpClient 4.5)
+		 * 归还连接时持有对象锁, 此时会短暂钉住载体线程; 同一主机的并发数仍受连接池限制(每个主机 64 个连接),
+		 * 超出的请求等待连接归还. 可用 HttpConcurrencyBenchmark#virtualThreadsOnSmallCarrierPool 测量
+		 * 
+		 * @param consumer
+		 *            (请求结果的状态码, 请求结果的文本内容)
+		 * 
+		 * @return 返回请求完成的 Future, 请求失败时以异常完成
+		 */
+		public CompletableFuture<Void> executeAsync(BiConsumer<Integer, String> consumer) {
+			return CompletableFuture.runAsync(() -> execute(consumer), getExecutor());
+		}
+		
+		/**
+		 * 在执行器中异步执行请求, 响应成功(2xx)时从响应流增量解析 JSON 内容到目标类型
+		 * 
+		 * @param type
+		 *            目标类型
+		 * @param consumer
+		 *            (请求结果的状态码, 解析得到的对象), 响应不成功或没有响应内容时对象为 null
+		 * 
+		 * @return 返回请求完成的 Future, 请求失败时以异常完成
+		 */
+		public <T> CompletableFuture<Void> executeAsync(Class<T> type, BiConsumer<Integer, T> consumer) {
+			return CompletableFuture.runAsync(() -> execute(type, consumer), getExecutor());
+		}
+
 		/**
 		 * 设置请求体, JSON 参数可设于此域
 		 * 
@@ -173,9 +580,168 @@ public final class HttpUtils {
 			this.body = body;
 			return this;
 		}
+		
+		/**
+		 * 设置 JSON 请求体, 发送时对象被直接序列化到请求的输出流, 不会先生成完整的 JSON 字符串.
+		 * 
+		 * 请求体以分块传输编码(chunked)发送, 序列化规则参考 {@link JsonUtils#write(Object, java.io.Writer)}
+		 * 
+		 * @param obj
+		 *            被序列化的对象
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setJsonBody(Object obj) {
+			this.entity = new JsonEntity(obj);
+			return this;
+		}
+		
+		/**
+		 * 设置文件作为请求体, 发送时从文件流式读取, 不会将文件整体载入内存
+		 * 
+		 * @param file
+		 *            文件
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setBody(File file) {
+			return setBody(file, null);
+		}
+		
+		/**
+		 * 设置文件作为请求体, 发送时从文件流式读取, 不会将文件整体载入内存
+		 * 
+		 * @param file
+		 *            文件
+		 * @param contentType
+		 *            内容类型, 默认 application/octet-stream
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setBody(File file, String contentType) {
+			this.entity = new FileEntity(file, parseContentType(contentType));
+			return this;
+		}
+		
+		/**
+		 * 设置输入流作为请求体, 发送时从输入流流式读取, 发送完成后输入流将被关闭.
+		 * 
+		 * 输入流只能读取一次, 因此使用输入流作为请求体的请求在发送失败后不会被重试.
+		 * 
+		 * @param in
+		 *            输入流
+		 * @param length
+		 *            内容的字节长度, 小于 0 时表示长度未知, 使用分块传输编码(chunked)发送
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setBody(InputStream in, long length) {
+			return setBody(in, length, null);
+		}
+		
+		/**
+		 * 设置输入流作为请求体, 发送时从输入流流式读取, 发送完成后输入流将被关闭.
+		 * 
+		 * 输入流只能读取一次, 因此使用输入流作为请求体的请求在发送失败后不会被重试.
+		 * 
+		 * @param in
+		 *            输入流
+		 * @param length
+		 *            内容的字节长度, 小于 0 时表示长度未知, 使用分块传输编码(chunked)发送
+		 * @param contentType
+		 *            内容类型, 默认 application/octet-stream
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setBody(InputStream in, long length, String contentType) {
+			this.entity = new InputStreamEntity(in, length < 0 ? -1 : length, parseContentType(contentType));
+			return this;
+		}
+		
+		/**
+		 * 设置字节数组作为请求体
+		 * 
+		 * @param bytes
+		 *            字节数组
+		 * @param contentType
+		 *            内容类型, 默认 application/octet-stream
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setBody(byte[] bytes, String contentType) {
+			this.entity = new ByteArrayEntity(bytes, parseContentType(contentType));
+			return this;
+		}
+		
+		/**
+		 * 设置字节缓冲区作为请求体, 发送缓冲区 position 到 limit 之间的内容, 不会改变缓冲区的位置.
+		 * 
+		 * 堆缓冲区直接写出其底层数组; 直接缓冲区(Direct ByteBuffer)经缓冲区池中的字节数组分块拷贝后写出,
+		 * 不会一次性拷贝整个缓冲区.
+		 * 
+		 * @param buffer
+		 *            字节缓冲区
+		 * @param contentType
+		 *            内容类型, 默认 application/octet-stream
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setBody(ByteBuffer buffer, String contentType) {
+			this.entity = new ByteBufferEntity(buffer, parseContentType(contentType));
+			return this;
+		}
+		
+		/**
+		 * 添加多部件(multipart/form-data)请求体的文件部件, 文件在发送时流式读取.
+		 * 
+		 * 设置了多部件时, 请求参数将作为文本部件一并发送.
+		 * 
+		 * @param name
+		 *            部件名称
+		 * @param file
+		 *            文件
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest addPart(String name, File file) {
+			return addPart(builder -> builder.addBinaryBody(name, file));
+		}
+		
+		/**
+		 * 添加多部件(multipart/form-data)请求体的流部件, 输入流在发送时流式读取.
+		 * 
+		 * 设置了多部件时, 请求参数将作为文本部件一并发送.
+		 * 
+		 * @param name
+		 *            部件名称
+		 * @param in
+		 *            输入流
+		 * @param fileName
+		 *            文件名称
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest addPart(String name, InputStream in, String fileName) {
+			return addPart(builder -> builder.addBinaryBody(name, in, ContentType.APPLICATION_OCTET_STREAM, fileName));
+		}
+		
+		/**
+		 * 添加多部件(multipart/form-data)请求体的文本部件
+		 * 
+		 * @param name
+		 *            部件名称
+		 * @param text
+		 *            文本内容
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest addPart(String name, String text) {
+			return addPart(builder -> builder.addTextBody(name, text, ContentType.create("text/plain", "UTF-8")));
+		}
 
 		/**
-		 * 设置失败重试的次数, 默认值 0
+		 * 设置失败重试的次数, 默认值 0. 幂等的请求方法(GET, PUT, DELETE 等)在 I/O 异常后重试;
+		 * POST 只在请求尚未发出时重试, 避免服务端重复处理
 		 * 
 		 * @param retryTimes
 		 *            失败重试的次数
@@ -197,6 +763,7 @@ public final class HttpUtils {
 		 */
 		public HttpRequest setReadTimeoutSecond(int readTimeoutSecond) {
 			this.readTimeoutSecond = readTimeoutSecond;
+			this.requestConfig = null;
 			return this;
 		}
 
@@ -210,6 +777,7 @@ public final class HttpUtils {
 		 */
 		public HttpRequest setConnectTimeoutSecond(int connectTimeoutSecond) {
 			this.connectTimeoutSecond = connectTimeoutSecond;
+			this.requestConfig = null;
 			return this;
 		}
 
@@ -331,6 +899,7 @@ public final class HttpUtils {
 			this.proxyHost = host;
 			this.proxyPort = port;
 			this.proxySchema = schema;
+			this.requestConfig = null;
 			return this;
 		}
 		
@@ -348,34 +917,213 @@ public final class HttpUtils {
 		}
 		
 		/**
-		 * 执行请求
+		 * 设置限流器, 优先于已注册的限流器
 		 * 
-		 * @param consumer
-		 *            BiConsumer
-		 *            
-		 * @throws Exception
+		 * @param rateLimiter
+		 *            限流器, 可通过 {@link HttpUtils#tokenBucket(double, int)} 或
+		 *            {@link HttpUtils#leakyBucket(double)} 创建
+		 * 
+		 * @return {@link HttpRequest}
 		 */
-		private void doService(BiConsumer<Integer, String> consumer) throws Exception {
-			try (CloseableHttpClient client = getHttpClient()) {
-				HttpUriRequest request = getHttpUriRequest();
-				// 执行请求
-				HttpResponse response = client.execute(request);
-				// 状态码
-				int statusCode = response.getStatusLine().getStatusCode();
-				// 响应内容
-				String responseText = readStream(response.getEntity().getContent());
-				// Consumer
-				consumer.accept(statusCode, responseText);
-			}
+		public HttpRequest setRateLimiter(RateLimiter rateLimiter) {
+			this.rateLimiter = rateLimiter;
+			return this;
 		}
 		
 		/**
-		 * 转换参数为散列表
+		 * 设置限流键, 使用通过 {@link HttpUtils#registerRateLimiter(String, RateLimiter)} 注册的限流器,
+		 * 未设置时按请求的主机名查找
 		 * 
-		 * @param obj
-		 *            被转换的参数
-		 *            
-		 * @return Map
+		 * @param rateLimitKey
+		 *            限流键
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setRateLimitKey(String rateLimitKey) {
+			this.rateLimitKey = rateLimitKey;
+			return this;
+		}
+		
+		/**
+		 * 设置等待限流许可的最大毫秒数, 超出等待时间仍未获得许可时抛出 {@link RateLimitException}
+		 * 
+		 * @param rateLimitWaitMillis
+		 *            等待限流许可的最大毫秒数, 默认 60000ms, 设为 0 表示没有可用许可时立即拒绝
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setRateLimitWaitMillis(long rateLimitWaitMillis) {
+			this.rateLimitWaitMillis = rateLimitWaitMillis;
+			return this;
+		}
+		
+		/**
+		 * 设置传输层, 优先于全局默认的传输层
+		 * 
+		 * @param transport
+		 *            传输层, 如 {@link HttpUtils#http1Transport()}, {@link HttpUtils#http2Transport()} 或自定义实现
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setTransport(HttpTransport transport) {
+			this.transport = transport;
+			return this;
+		}
+		
+		/**
+		 * 设置异步请求执行器, 优先于全局默认的执行器
+		 * 
+		 * @param executor
+		 *            执行器
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setExecutor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+		
+		/**
+		 * 设置 HTTPS 请求的证书信任配置, 优先于全局默认的信任配置
+		 * 
+		 * @param trustConfig
+		 *            证书信任配置
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest setTrustConfig(TrustConfig trustConfig) {
+			this.trustConfig = trustConfig;
+			return this;
+		}
+		
+		/**
+		 * 以当前请求的配置创建不可变的请求模板, 模板预先编码地址, 请求参数并生成请求头, 可被多个线程共享,
+		 * 适用于高频发送相同或相似请求的场景. 此后对当前请求的修改不影响模板.
+		 * 
+		 * 流式请求体和多部件请求体只能发送一次, 不能作为模板的内容
+		 * 
+		 * @return {@link RequestTemplate}
+		 */
+		public RequestTemplate toTemplate() {
+			if (entity != null || parts != null) {
+				throw new IllegalStateException("Streaming or multipart body can not be used in a template.");
+			}
+			return new RequestTemplate(this);
+		}
+		
+		/**
+		 * 执行请求
+		 * 
+		 * @param consumer
+		 *            BiConsumer
+		 *            
+		 * @throws Exception
+		 */
+		private <T> void doService(ResponseReader<T> reader, BiConsumer<Integer, T> consumer) throws Exception {
+			acquireRateLimitPermit();
+			HttpUriRequest request = getHttpUriRequest();
+			HttpTransport target = transport != null ? transport : defaultTransport;
+			RequestTrace trace = new RequestTrace(method.name(), request.getURI().getHost());
+			// 统计发送的字节数
+			if (request instanceof HttpEntityEnclosingRequest) {
+				HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+				if (enclosingRequest.getEntity() != null) {
+					enclosingRequest.setEntity(new CountingEntity(enclosingRequest.getEntity(), trace));
+				}
+			}
+			// 执行请求
+			if (requestConfig == null) {
+				requestConfig = getRequestConfig();
+			}
+			TransportOptions options = new TransportOptions(requestConfig, retryTimes,
+					trustConfig != null ? trustConfig : defaultTrustConfig, trace);
+			try {
+				target.execute(request, options, response -> {
+					// 状态码
+					int statusCode = response.getStatusLine().getStatusCode();
+					trace.statusCode = statusCode;
+					// 响应内容
+					HttpEntity responseEntity = response.getEntity();
+					T result = null;
+					if (responseEntity != null) {
+						long start = System.nanoTime();
+						CountingInputStream in = new CountingInputStream(responseEntity.getContent());
+						try {
+							result = reader.read(statusCode, in);
+						} finally {
+							trace.bytesReceived = in.count;
+							trace.record(Phase.BODY_READ, System.nanoTime() - start);
+						}
+					}
+					// Consumer
+					consumer.accept(statusCode, result);
+				});
+			} catch (Exception e) {
+				trace.exception = e;
+				throw e;
+			} finally {
+				trace.record(Phase.TOTAL, System.nanoTime() - trace.startNanos);
+				for (HttpListener listener : LISTENERS) {
+					try {
+						listener.onComplete(trace);
+					} catch (RuntimeException e) {
+						listenerErrorHandler.accept(listener, e);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * 获取异步请求执行器
+		 * 
+		 * @return Executor
+		 */
+		private Executor getExecutor() {
+			return executor != null ? executor : getDefaultExecutor();
+		}
+		
+		/**
+		 * 获取限流许可, 没有配置限流器时直接放行
+		 * 
+		 * @throws InterruptedException
+		 */
+		private void acquireRateLimitPermit() throws InterruptedException {
+			RateLimiter limiter = rateLimiter;
+			if (limiter == null && !RATE_LIMITER_MAP.isEmpty()) {
+				if (rateLimitKey != null) {
+					limiter = RATE_LIMITER_MAP.get(rateLimitKey);
+				} else {
+					String host = getHost();
+					if (host != null) {
+						limiter = RATE_LIMITER_MAP.get(host);
+					}
+				}
+			}
+			if (limiter != null && !limiter.tryAcquire(rateLimitWaitMillis)) {
+				throw new RateLimitException("No rate limit permit available for " + url + " within " + rateLimitWaitMillis + "ms.");
+			}
+		}
+		
+		/**
+		 * 获取请求的主机名
+		 * 
+		 * @return 返回主机名, 地址不合法时返回 null
+		 */
+		private String getHost() {
+			try {
+				return new URL(url).getHost();
+			} catch (Exception e) {
+				return null;
+			}
+		}
+		
+		/**
+		 * 转换参数为散列表
+		 * 
+		 * @param obj
+		 *            被转换的参数
+		 *            
+		 * @return Map
 		 */
 		private Map<String, String> convertMap(Object obj) {
 			Map<String, String> target = new HashMap<>();
@@ -392,7 +1140,7 @@ public final class HttpUtils {
 		}
 		
 		/**
-		 * 构建 HttpUriRequest
+		 * 构建 HttpUriRequest, 模板的请求头在前, 同名的请求头以当前请求设置的为准
 		 * 
 		 * @param base
 		 *            HttpUriRequest
@@ -400,8 +1148,13 @@ public final class HttpUtils {
 		 * @return HttpUriRequest
 		 */
 		private HttpUriRequest buildHttpUriRequest(HttpUriRequest base) {
+			if (template != null) {
+				for (Header h : template.headers) {
+					base.setHeader(h);
+				}
+			}
 			if (header != null && !header.isEmpty()) {
-				header.forEach((k, v) -> base.addHeader(k, v));
+				header.forEach((k, v) -> base.setHeader(k, v));
 			}
 			return base;
 		}
@@ -417,52 +1170,84 @@ public final class HttpUtils {
 		 * @throws Exception
 		 */
 		private HttpUriRequest buildHttpUriRequest(HttpEntityEnclosingRequestBase base) throws Exception {
-			if (header == null) { header = new HashMap<>(); }
+			buildHttpUriRequest((HttpUriRequest) base);
+			// 流式请求体与表单参数/多部件只能发送其一, 不静默丢弃其中一方
+			boolean hasParams = (params != null && !params.isEmpty()) || (template != null && !template.encodedParams.isEmpty());
+			if (entity != null && (parts != null || hasParams)) {
+				throw new IllegalStateException("Streaming body can not be combined with " + (parts != null ? "multipart parts." : "form params, append them to the url instead."));
+			}
+			// 处理多部件请求体, 请求参数作为文本部件发送
+			if (parts != null) {
+				MultipartEntityBuilder multipart = MultipartEntityBuilder.create().setMode(HttpMultipartMode.RFC6532);
+				parts.forEach(part -> part.accept(multipart));
+				if (template != null) {
+					template.params.forEach((k, v) -> multipart.addTextBody(k, v, ContentType.create("text/plain", "UTF-8")));
+				}
+				if (params != null) {
+					params.forEach((k, v) -> multipart.addTextBody(k, v, ContentType.create("text/plain", "UTF-8")));
+				}
+				base.setEntity(multipart.build());
+			}
 			// 处理请求参数
-			if (params != null && !params.isEmpty()) {
-				// 参数键值对数组
-				List<NameValuePair> nameValuePairs = new ArrayList<>();
-				params.forEach((k, v) -> nameValuePairs.add(new BasicNameValuePair(k, v)));
-				// 如果有参数, 设置请求参数
-				if (!nameValuePairs.isEmpty()) {
-					base.setEntity(new UrlEncodedFormEntity(nameValuePairs, "UTF-8"));
-					header.put(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded; charset=utf-8");
+			else if (hasParams) {
+				String encodedParams = template != null ? template.encodedParams : "";
+				base.setEntity(new StringEntity(appendParams(encodedParams), FORM_CONTENT_TYPE));
+				base.setHeader(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded; charset=utf-8");
+			}
+			// 处理流式请求体, 内容类型由请求体自身提供
+			else if (entity != null) {
+				base.setEntity(entity);
+				if (entity instanceof JsonEntity && !base.containsHeader(HttpHeaders.ACCEPT)) {
+					base.setHeader(HttpHeaders.ACCEPT, "application/json");
 				}
 			}
 			// 处理请求参数
 			else if (body != null && !body.isEmpty()) {
 				base.setEntity(new StringEntity(body, "UTF-8"));
-				header.put(HttpHeaders.ACCEPT, "application/json");
-				header.put(HttpHeaders.CONTENT_TYPE, "application/json; charset=utf-8");
+				base.setHeader(HttpHeaders.ACCEPT, "application/json");
+				base.setHeader(HttpHeaders.CONTENT_TYPE, "application/json; charset=utf-8");
 			}
-			return buildHttpUriRequest((HttpUriRequest) base);
+			return base;
 		}
 		
 		/**
-		 * 构建 HttpUriRequest
+		 * 构建 HttpUriRequest, 请求参数拼接为查询串, 不修改请求的地址, 因此同一请求可以多次执行
 		 * 
 		 * @return HttpUriRequest
 		 * 
 		 * @throws Exception
 		 */
 		private HttpUriRequest buildHttpUriRequest() throws Exception {
+			String uri = template != null ? template.queryUrl : url;
 			if (params != null && !params.isEmpty()) {
-				StringBuilder paramStr = new StringBuilder();
-				params.forEach((k, v) -> {
-					if (paramStr.length() > 0) {
-						paramStr.append("&");
-					}
-					paramStr.append(k).append("=").append(encode(v));
-				});
-				if (paramStr.length() > 0) {
-					if (url.contains("?")) {
-						url += "&" + paramStr;
-					} else {
-						url += "?" + paramStr;
-					}
+				uri = appendParams(uri.indexOf('?') < 0 ? uri + '?' : uri + '&');
+			}
+			return buildHttpUriRequest(new HttpGet(uri));
+		}
+		
+		/**
+		 * 在前缀后追加编码的请求参数. 使用局部的缓冲区拼接, 虚拟线程每个任务一个线程, 线程复用的缓冲区得不到复用
+		 * 
+		 * @param prefix
+		 *            前缀, 如地址或已编码的参数
+		 * 
+		 * @return 返回拼接的字符串
+		 */
+		private String appendParams(String prefix) {
+			if (params == null || params.isEmpty()) {
+				return prefix;
+			}
+			StringBuilder builder = new StringBuilder(prefix.length() + params.size() * 32);
+			builder.append(prefix);
+			boolean first = prefix.isEmpty() || prefix.endsWith("?") || prefix.endsWith("&");
+			for (Map.Entry<String, String> param : params.entrySet()) {
+				if (!first) {
+					builder.append('&');
 				}
+				first = false;
+				builder.append(encode(param.getKey())).append('=').append(encode(param.getValue()));
 			}
-			return buildHttpUriRequest(RequestBuilder.get().setUri(url).build());
+			return builder.toString();
 		}
 		
 		/**
@@ -487,6 +1272,37 @@ public final class HttpUtils {
 			}
 		}
 		
+		/**
+		 * 添加多部件请求体的部件
+		 * 
+		 * @param part
+		 *            向构建器添加部件的操作
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		private HttpRequest addPart(Consumer<MultipartEntityBuilder> part) {
+			if (parts == null) {
+				parts = new ArrayList<>();
+			}
+			parts.add(part);
+			return this;
+		}
+		
+		/**
+		 * 解析内容类型
+		 * 
+		 * @param contentType
+		 *            内容类型, 为空时返回 application/octet-stream
+		 * 
+		 * @return ContentType
+		 */
+		private ContentType parseContentType(String contentType) {
+			if (contentType == null || contentType.isEmpty()) {
+				return ContentType.APPLICATION_OCTET_STREAM;
+			}
+			return ContentType.parse(contentType);
+		}
+		
 		/**
 		 * 编码字符串
 		 * 
@@ -512,50 +1328,2140 @@ public final class HttpUtils {
 		 * @throws IOException
 		 */
 		private String readStream(InputStream inStream) throws Exception {
-			try (BufferedReader reader = new BufferedReader(new InputStreamReader(inStream, readResultCharset))) {
-				String tempStr = null;
+			char[] buffer = BufferUtils.acquireChars(STREAM_BUFFER_SIZE);
+			try (Reader reader = new InputStreamReader(inStream, readResultCharset)) {
 				StringBuilder builder = new StringBuilder();
-				while ((tempStr = reader.readLine()) != null) {
-					builder.append(tempStr);
+				int read;
+				while ((read = reader.read(buffer)) != -1) {
+					// 与逐行读取再拼接的结果一致, 丢弃换行符
+					int start = 0;
+					for (int i = 0; i < read; i++) {
+						if (buffer[i] == '\r' || buffer[i] == '\n') {
+							builder.append(buffer, start, i - start);
+							start = i + 1;
+						}
+					}
+					builder.append(buffer, start, read - start);
 				}
 				return builder.toString();
+			} finally {
+				BufferUtils.release(buffer);
 			}
 		}
 		
 		/**
-		 * 获取客户端请求对象
-		 * 
-		 * @return CloseableHttpClient
+		 * 获取请求配置
 		 * 
-		 * @throws Exception
+		 * @return RequestConfig
 		 */
-		private CloseableHttpClient getHttpClient() throws Exception {
+		private RequestConfig getRequestConfig() {
 			Builder requestConfigBuilder = RequestConfig.custom()
 					// 设置连接超时
 					.setConnectTimeout(connectTimeoutSecond * 1000)
 					// 设置读取超时
-					.setSocketTimeout(readTimeoutSecond * 1000);
+					.setSocketTimeout(readTimeoutSecond * 1000)
+					// 设置等待连接池可用连接的超时
+					.setConnectionRequestTimeout(connectTimeoutSecond * 1000);
 			// 设置代理
 			if (proxyHost != null && !proxyHost.isEmpty() && proxyPort > 0) {
 				requestConfigBuilder.setProxy(new HttpHost(proxyHost, proxyPort, proxySchema));
 			}
-			HttpClientBuilder builder = HttpClientBuilder.create()
-					// 设置请求配置
-					.setDefaultRequestConfig(requestConfigBuilder.build())
-					// 设置失败重试
-					.setRetryHandler(new StandardHttpRequestRetryHandler(retryTimes, true));
-			// 是否使用SSL协议链接
-			if (url.startsWith("https")) {
-				builder.setSSLSocketFactory(new SSLConnectionSocketFactory(
-					new SSLContextBuilder().loadTrustMaterial(null, new TrustStrategy() {
-						// 信任所有
-						public boolean isTrusted(X509Certificate[] chain, String authType)
-								throws CertificateException {
-							return true;
-						}
-					}).build()));
+			return requestConfigBuilder.build();
+		}
+		
+	}
+	
+	/**
+	 * 不可变的请求模板, 通过 {@link HttpRequest#toTemplate()} 创建, 线程安全.
+	 * 
+	 * 创建时即完成地址和请求参数的编码, 请求头的生成和请求配置的构建, 每次请求只需拼接动态的请求参数
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class RequestTemplate {
+		
+		// 请求的地址
+		private final String url;
+		
+		// 拼接了已编码的静态请求参数的地址, 用于 GET 请求
+		private final String queryUrl;
+		
+		// 已编码的静态请求参数, 用于表单请求体
+		private final String encodedParams;
+		
+		// 静态请求参数, 用于多部件请求体
+		private final Map<String, String> params;
+		
+		// 静态请求头
+		private final Header[] headers;
+		
+		// 请求方法
+		private final RequestMethod method;
+		
+		// 请求体内容
+		private final String body;
+		
+		// 失败重试的次数
+		private final int retryTimes;
+		
+		// 读取结果超时的秒数
+		private final int readTimeoutSecond;
+		
+		// 连接服务超时的秒数
+		private final int connectTimeoutSecond;
+		
+		// 读取结果使用的字符集编码
+		private final String readResultCharset;
+		
+		// 代理端口
+		private final int proxyPort;
+		
+		// 代理主机
+		private final String proxyHost;
+		
+		// 代理类型(http或https)
+		private final String proxySchema;
+		
+		// 限流器
+		private final RateLimiter rateLimiter;
+		
+		// 限流键
+		private final String rateLimitKey;
+		
+		// 等待限流许可的最大毫秒数
+		private final long rateLimitWaitMillis;
+		
+		// 传输层
+		private final HttpTransport transport;
+		
+		// 证书信任配置
+		private final TrustConfig trustConfig;
+		
+		// 请求配置
+		private final RequestConfig requestConfig;
+		
+		// 异步请求执行器
+		private final Executor executor;
+		
+		// 私有构造子
+		private RequestTemplate(HttpRequest request) {
+			this.url = request.url;
+			this.method = request.method;
+			this.body = request.body;
+			this.retryTimes = request.retryTimes;
+			this.readTimeoutSecond = request.readTimeoutSecond;
+			this.connectTimeoutSecond = request.connectTimeoutSecond;
+			this.readResultCharset = request.readResultCharset;
+			this.proxyPort = request.proxyPort;
+			this.proxyHost = request.proxyHost;
+			this.proxySchema = request.proxySchema;
+			this.rateLimiter = request.rateLimiter;
+			this.rateLimitKey = request.rateLimitKey;
+			this.rateLimitWaitMillis = request.rateLimitWaitMillis;
+			this.transport = request.transport;
+			this.trustConfig = request.trustConfig;
+			this.requestConfig = request.getRequestConfig();
+			this.executor = request.executor;
+			// 合并来源请求的模板
+			RequestTemplate parent = request.template;
+			Map<String, String> params = new LinkedHashMap<>();
+			Map<String, Header> headers = new LinkedHashMap<>();
+			if (parent != null) {
+				params.putAll(parent.params);
+				for (Header h : parent.headers) {
+					headers.put(h.getName().toLowerCase(), h);
+				}
+			}
+			if (request.params != null) {
+				params.putAll(request.params);
+			}
+			if (request.header != null) {
+				request.header.forEach((k, v) -> headers.put(k.toLowerCase(), new BasicHeader(k, v)));
+			}
+			this.params = Collections.unmodifiableMap(params);
+			this.headers = headers.values().toArray(new Header[headers.size()]);
+			// 预先编码静态请求参数
+			StringBuilder builder = new StringBuilder();
+			params.forEach((k, v) -> {
+				if (builder.length() > 0) {
+					builder.append('&');
+				}
+				builder.append(request.encode(k)).append('=').append(request.encode(v));
+			});
+			this.encodedParams = builder.toString();
+			if (encodedParams.isEmpty()) {
+				this.queryUrl = url;
+			} else {
+				this.queryUrl = url + (url.indexOf('?') < 0 ? '?' : '&') + encodedParams;
+			}
+		}
+		
+		/**
+		 * 创建请求, 请求继承模板的全部配置, 可继续添加动态的请求参数和请求头, 这些修改只作用于该请求
+		 * 
+		 * @return {@link HttpRequest}
+		 */
+		public HttpRequest newRequest() {
+			return new HttpRequest(this);
+		}
+		
+		/**
+		 * 以模板的配置执行请求
+		 * 
+		 * @param consumer
+		 *            (请求结果的状态码, 请求结果的文本内容)
+		 */
+		public void execute(BiConsumer<Integer, String> consumer) {
+			newRequest().execute(consumer);
+		}
+		
+		/**
+		 * 以模板的配置执行请求, 响应成功(2xx)时从响应流增量解析 JSON 内容到目标类型
+		 * 
+		 * @param type
+		 *            目标类型
+		 * @param consumer
+		 *            (请求结果的状态码, 解析得到的对象), 响应不成功或没有响应内容时对象为 null
+		 */
+		public <T> void execute(Class<T> type, BiConsumer<Integer, T> consumer) {
+			newRequest().execute(type, consumer);
+		}
+		
+		/**
+		 * 以模板的配置异步执行请求
+		 * 
+		 * @param consumer
+		 *            (请求结果的状态码, 请求结果的文本内容)
+		 * 
+		 * @return 返回请求完成的 Future, 请求失败时以异常完成
+		 */
+		public CompletableFuture<Void> executeAsync(BiConsumer<Integer, String> consumer) {
+			return newRequest().executeAsync(consumer);
+		}
+		
+		/**
+		 * 以模板的配置异步执行请求, 响应成功(2xx)时从响应流增量解析 JSON 内容到目标类型
+		 * 
+		 * @param type
+		 *            目标类型
+		 * @param consumer
+		 *            (请求结果的状态码, 解析得到的对象), 响应不成功或没有响应内容时对象为 null
+		 * 
+		 * @return 返回请求完成的 Future, 请求失败时以异常完成
+		 */
+		public <T> CompletableFuture<Void> executeAsync(Class<T> type, BiConsumer<Integer, T> consumer) {
+			return newRequest().executeAsync(type, consumer);
+		}
+		
+		/**
+		 * 获取请求的地址
+		 * 
+		 * @return 返回请求的地址, 不含模板的请求参数
+		 */
+		public String getUrl() {
+			return url;
+		}
+		
+	}
+	
+	/**
+	 * 默认的异步请求执行器, JDK 21 及以上版本使用虚拟线程, 否则使用守护线程的缓存线程池
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class ExecutorHolder {
+		
+		// 是否使用虚拟线程
+		private static final boolean VIRTUAL;
+		
+		// 执行器实例
+		private static final Executor INSTANCE;
+		
+		static {
+			Executor executor;
+			try {
+				// 以反射方式获取, 保持 JAVA-8 的编译兼容
+				executor = (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				executor = null;
 			}
-			return builder.build();
+			VIRTUAL = executor != null;
+			INSTANCE = executor != null ? executor : Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "HttpUtils-async");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+	}
+	
+	/**
+	 * 限流器
+	 * 
+	 * @author fanlychie
+	 */
+	public interface RateLimiter {
+		
+		/**
+		 * 获取一个许可, 在最大等待时间内没有可用的许可时返回 false
+		 * 
+		 * @param maxWaitMillis
+		 *            最大等待的毫秒数, 0 表示不等待
+		 * 
+		 * @return 获得许可返回 true, 否则返回 false
+		 * 
+		 * @throws InterruptedException
+		 */
+		boolean tryAcquire(long maxWaitMillis) throws InterruptedException;
+		
+	}
+	
+	/**
+	 * 平滑限流器, 基于 GCRA(通用信元速率算法) 实现, 使用 CAS 无锁更新状态.
+	 * 
+	 * 容量为 1 时等同于漏桶, 请求以恒定间隔放行; 容量大于 1 时等同于令牌桶, 允许突发流量.
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class SmoothRateLimiter implements RateLimiter {
+		
+		// 每秒发放的许可数
+		private final double permitsPerSecond;
+		
+		// 许可发放的间隔纳秒数
+		private final long intervalNanos;
+		
+		// 允许突发的纳秒数
+		private final long burstNanos;
+		
+		// 理论上下一个许可的到达时间
+		private final AtomicLong arrivalTime;
+		
+		// 获得许可的次数
+		private final AtomicLong acquiredCount = new AtomicLong();
+		
+		// 被拒绝的次数
+		private final AtomicLong rejectedCount = new AtomicLong();
+		
+		// 累计等待的纳秒数
+		private final AtomicLong totalWaitNanos = new AtomicLong();
+		
+		// 最大等待的纳秒数
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+		
+		// 当前统计窗口(秒)
+		private final AtomicLong windowSecond = new AtomicLong();
+		
+		// 当前统计窗口获得许可的次数
+		private final AtomicLong windowCount = new AtomicLong();
+		
+		// 上一个统计窗口获得许可的次数
+		private volatile long lastWindowCount;
+		
+		// 私有构造子
+		private SmoothRateLimiter(double permitsPerSecond, int burst) {
+			if (permitsPerSecond <= 0) {
+				throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+			}
+			if (burst < 1) {
+				throw new IllegalArgumentException("burst must be positive: " + burst);
+			}
+			this.permitsPerSecond = permitsPerSecond;
+			this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+			this.burstNanos = intervalNanos * (burst - 1);
+			long now = System.nanoTime();
+			this.arrivalTime = new AtomicLong(now - burstNanos);
+			this.windowSecond.set(TimeUnit.NANOSECONDS.toSeconds(now));
+		}
+		
+		@Override
+		public boolean tryAcquire(long maxWaitMillis) throws InterruptedException {
+			long maxWait = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+			long now, prev, next, wait;
+			do {
+				now = System.nanoTime();
+				prev = arrivalTime.get();
+				next = prev - now > 0 ? prev : now;
+				wait = next - burstNanos - now;
+				if (wait > maxWait) {
+					rejectedCount.incrementAndGet();
+					return false;
+				}
+			} while (!arrivalTime.compareAndSet(prev, next + intervalNanos));
+			if (wait > 0) {
+				totalWaitNanos.addAndGet(wait);
+				maxWaitNanos.accumulateAndGet(wait, Math::max);
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			acquiredCount.incrementAndGet();
+			countWindow(now + Math.max(0, wait));
+			return true;
+		}
+		
+		/**
+		 * 获取配置的每秒许可数
+		 * 
+		 * @return 每秒许可数
+		 */
+		public double getPermitsPerSecond() {
+			return permitsPerSecond;
+		}
+		
+		/**
+		 * 获取当前的许可发放速率, 即上一秒内获得许可的次数(近似值)
+		 * 
+		 * @return 每秒获得许可的次数
+		 */
+		public long getCurrentRate() {
+			long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+			long current = windowSecond.get();
+			if (second == current) {
+				return lastWindowCount;
+			}
+			return second == current + 1 ? windowCount.get() : 0;
+		}
+		
+		/**
+		 * 获取获得许可的总次数
+		 * 
+		 * @return 获得许可的总次数
+		 */
+		public long getAcquiredCount() {
+			return acquiredCount.get();
+		}
+		
+		/**
+		 * 获取被拒绝的总次数
+		 * 
+		 * @return 被拒绝的总次数
+		 */
+		public long getRejectedCount() {
+			return rejectedCount.get();
+		}
+		
+		/**
+		 * 获取获得许可的平均等待毫秒数
+		 * 
+		 * @return 平均等待毫秒数
+		 */
+		public double getAverageWaitMillis() {
+			long acquired = acquiredCount.get();
+			return acquired == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / acquired;
+		}
+		
+		/**
+		 * 获取获得许可的最大等待毫秒数
+		 * 
+		 * @return 最大等待毫秒数
+		 */
+		public double getMaxWaitMillis() {
+			return maxWaitNanos.get() / 1000000.0;
+		}
+		
+		/**
+		 * 按秒统计获得许可的次数
+		 * 
+		 * @param nanoTime
+		 *            获得许可的时间
+		 */
+		private void countWindow(long nanoTime) {
+			long second = TimeUnit.NANOSECONDS.toSeconds(nanoTime);
+			long current = windowSecond.get();
+			if (second > current && windowSecond.compareAndSet(current, second)) {
+				long count = windowCount.getAndSet(0);
+				lastWindowCount = second == current + 1 ? count : 0;
+			}
+			windowCount.incrementAndGet();
+		}
+		
+		@Override
+		public String toString() {
+			return "SmoothRateLimiter{permitsPerSecond=" + permitsPerSecond + ", currentRate=" + getCurrentRate()
+					+ ", acquired=" + getAcquiredCount() + ", rejected=" + getRejectedCount()
+					+ ", avgWaitMillis=" + getAverageWaitMillis() + ", maxWaitMillis=" + getMaxWaitMillis() + "}";
+		}
+		
+	}
+	
+	/**
+	 * 限流异常, 在最大等待时间内没有获得限流许可时抛出
+	 * 
+	 * @author fanlychie
+	 */
+	public static class RateLimitException extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		public RateLimitException(String message) {
+			super(message);
+		}
+		
+	}
+	
+	/**
+	 * 字节缓冲区请求体, 堆缓冲区直接写出其底层数组, 直接缓冲区经缓冲区池中的字节数组分块拷贝后写出
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class ByteBufferEntity extends AbstractHttpEntity {
+		
+		// 字节缓冲区
+		private final ByteBuffer buffer;
+		
+		// 私有构造子
+		private ByteBufferEntity(ByteBuffer buffer, ContentType contentType) {
+			this.buffer = buffer.duplicate();
+			setContentType(contentType.toString());
+		}
+		
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+		
+		@Override
+		public long getContentLength() {
+			return buffer.remaining();
+		}
+		
+		@Override
+		public InputStream getContent() throws IOException {
+			ByteBuffer source = buffer.duplicate();
+			return new InputStream() {
+				@Override
+				public int read() {
+					return source.hasRemaining() ? source.get() & 0xFF : -1;
+				}
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (!source.hasRemaining()) {
+						return -1;
+					}
+					len = Math.min(len, source.remaining());
+					source.get(b, off, len);
+					return len;
+				}
+			};
+		}
+		
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			ByteBuffer source = buffer.duplicate();
+			if (source.hasArray()) {
+				outstream.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+			} else {
+				byte[] chunk = BufferUtils.acquireBytes(Math.min(source.remaining(), STREAM_BUFFER_SIZE));
+				try {
+					while (source.hasRemaining()) {
+						int length = Math.min(chunk.length, source.remaining());
+						source.get(chunk, 0, length);
+						outstream.write(chunk, 0, length);
+					}
+				} finally {
+					BufferUtils.release(chunk);
+				}
+			}
+			outstream.flush();
+		}
+		
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+		
+	}
+	
+	/**
+	 * 响应内容读取器
+	 * 
+	 * @author fanlychie
+	 */
+	@FunctionalInterface
+	private interface ResponseReader<T> {
+		
+		/**
+		 * 读取响应内容
+		 * 
+		 * @param statusCode
+		 *            响应状态码
+		 * @param in
+		 *            响应内容的输入流
+		 * 
+		 * @return 返回读取的结果
+		 * 
+		 * @throws Exception
+		 */
+		T read(int statusCode, InputStream in) throws Exception;
+		
+	}
+	
+	/**
+	 * JSON 请求体, 发送时将对象直接序列化到输出流
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class JsonEntity extends AbstractHttpEntity {
+		
+		// 被序列化的对象
+		private final Object obj;
+		
+		// 私有构造子
+		private JsonEntity(Object obj) {
+			this.obj = obj;
+			setContentType("application/json; charset=utf-8");
+			setChunked(true);
+		}
+		
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+		
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+		
+		@Override
+		public InputStream getContent() throws IOException {
+			return new ByteArrayInputStream(JsonUtils.toJson(obj).getBytes("UTF-8"));
+		}
+		
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			JsonUtils.write(obj, outstream);
+		}
+		
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+		
+	}
+	
+	/**
+	 * HTTP 传输层, 负责将构建完成的请求发送到服务端. 可实现此接口以接入其它的 HTTP 客户端.
+	 * 
+	 * @author fanlychie
+	 */
+	public interface HttpTransport {
+		
+		/**
+		 * 发送请求, 响应在回调返回后由传输层负责释放
+		 * 
+		 * @param request
+		 *            构建完成的请求, 包含请求方法, 地址, 请求头和请求体
+		 * @param options
+		 *            传输选项, 包含超时, 代理, 重试次数和证书信任配置
+		 * @param callback
+		 *            响应回调
+		 * 
+		 * @throws Exception
+		 */
+		void execute(HttpUriRequest request, TransportOptions options, ResponseCallback callback) throws Exception;
+		
+	}
+	
+	/**
+	 * 传输选项
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class TransportOptions {
+		
+		// 请求配置
+		private final RequestConfig requestConfig;
+		
+		// 失败重试的次数
+		private final int retryTimes;
+		
+		// 证书信任配置
+		private final TrustConfig trustConfig;
+		
+		// 请求跟踪记录
+		private final RequestTrace trace;
+		
+		// 私有构造子
+		private TransportOptions(RequestConfig requestConfig, int retryTimes, TrustConfig trustConfig, RequestTrace trace) {
+			this.requestConfig = requestConfig;
+			this.retryTimes = retryTimes;
+			this.trustConfig = trustConfig;
+			this.trace = trace;
+		}
+		
+		/**
+		 * 获取请求配置, 包含连接超时, 读取超时和代理
+		 * 
+		 * @return RequestConfig
+		 */
+		public RequestConfig getRequestConfig() {
+			return requestConfig;
+		}
+		
+		/**
+		 * 获取失败重试的次数
+		 * 
+		 * @return 失败重试的次数
+		 */
+		public int getRetryTimes() {
+			return retryTimes;
+		}
+		
+		/**
+		 * 获取证书信任配置
+		 * 
+		 * @return {@link TrustConfig}
+		 */
+		public TrustConfig getTrustConfig() {
+			return trustConfig;
+		}
+		
+		/**
+		 * 获取请求跟踪记录, 传输层可通过 {@link RequestTrace#record(Phase, long)} 记录各阶段的耗时
+		 * 
+		 * @return {@link RequestTrace}
+		 */
+		public RequestTrace getTrace() {
+			return trace;
+		}
+		
+	}
+	
+	/**
+	 * HTTPS 证书信任配置. 每种配置的 SSLContext 只构建一次并全局共享;
+	 * 
+	 * 共享的 SSLContext 缓存了 TLS 会话, 重复访问同一主机时可恢复会话, 免去完整的握手过程.
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class TrustConfig {
+		
+		// 信任模式
+		private enum Mode { ALL, SYSTEM, KEY_STORE }
+		
+		// 信任所有证书
+		private static final TrustConfig TRUST_ALL = new TrustConfig(Mode.ALL, null, null, null);
+		
+		// 使用 JDK 默认的信任库
+		private static final TrustConfig SYSTEM = new TrustConfig(Mode.SYSTEM, null, null, null);
+		
+		// SSLContext 缓存
+		private static final Map<TrustConfig, SSLContext> SSL_CONTEXT_MAP = new ConcurrentHashMap<>();
+		
+		// 信任模式
+		private final Mode mode;
+		
+		// 信任库文件路径
+		private final String keyStorePath;
+		
+		// 信任库密码
+		private final String keyStorePassword;
+		
+		// 信任库类型
+		private final String keyStoreType;
+		
+		// 私有构造子
+		private TrustConfig(Mode mode, String keyStorePath, String keyStorePassword, String keyStoreType) {
+			this.mode = mode;
+			this.keyStorePath = keyStorePath;
+			this.keyStorePassword = keyStorePassword;
+			this.keyStoreType = keyStoreType;
+		}
+		
+		/**
+		 * 信任所有证书, 不校验证书链, 默认的信任配置
+		 * 
+		 * @return {@link TrustConfig}
+		 */
+		public static TrustConfig trustAll() {
+			return TRUST_ALL;
+		}
+		
+		/**
+		 * 使用 JDK 默认的信任库校验证书
+		 * 
+		 * @return {@link TrustConfig}
+		 */
+		public static TrustConfig system() {
+			return SYSTEM;
+		}
+		
+		/**
+		 * 使用指定的信任库文件校验证书, 信任库类型为 JDK 默认类型
+		 * 
+		 * @param file
+		 *            信任库文件
+		 * @param password
+		 *            信任库密码, 可为 null
+		 * 
+		 * @return {@link TrustConfig}
+		 */
+		public static TrustConfig keyStore(File file, String password) {
+			return keyStore(file, password, KeyStore.getDefaultType());
+		}
+		
+		/**
+		 * 使用指定的信任库文件校验证书
+		 * 
+		 * @param file
+		 *            信任库文件
+		 * @param password
+		 *            信任库密码, 可为 null
+		 * @param type
+		 *            信任库类型, eg: JKS, PKCS12
+		 * 
+		 * @return {@link TrustConfig}
+		 */
+		public static TrustConfig keyStore(File file, String password, String type) {
+			return new TrustConfig(Mode.KEY_STORE, file.getAbsolutePath(), password, type);
+		}
+		
+		/**
+		 * 获取共享的 SSLContext, 首次使用时构建.
+		 * 
+		 * 在映射之外加载证书库, 不在 computeIfAbsent 中持有映射的锁执行耗时的构建, 并发构建时保留先放入的实例
+		 * 
+		 * @return SSLContext
+		 */
+		public SSLContext getSSLContext() {
+			SSLContext context = SSL_CONTEXT_MAP.get(this);
+			if (context == null) {
+				SSLContext newContext = buildSSLContext();
+				context = SSL_CONTEXT_MAP.putIfAbsent(this, newContext);
+				if (context == null) {
+					context = newContext;
+				}
+			}
+			return context;
+		}
+		
+		/**
+		 * 构建 SSLContext
+		 * 
+		 * @return SSLContext
+		 */
+		private SSLContext buildSSLContext() {
+			try {
+				SSLContextBuilder builder = new SSLContextBuilder();
+				switch (mode) {
+				case ALL:
+					builder.loadTrustMaterial(null, new TrustStrategy() {
+						// 信任所有
+						public boolean isTrusted(X509Certificate[] chain, String authType)
+								throws CertificateException {
+							return true;
+						}
+					});
+					break;
+				case KEY_STORE:
+					KeyStore keyStore = KeyStore.getInstance(keyStoreType);
+					try (InputStream in = new FileInputStream(keyStorePath)) {
+						keyStore.load(in, keyStorePassword == null ? null : keyStorePassword.toCharArray());
+					}
+					builder.loadTrustMaterial(keyStore, null);
+					break;
+				default:
+					break;
+				}
+				return builder.build();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TrustConfig)) {
+				return false;
+			}
+			TrustConfig other = (TrustConfig) obj;
+			return mode == other.mode && Objects.equals(keyStorePath, other.keyStorePath)
+					&& Objects.equals(keyStorePassword, other.keyStorePassword)
+					&& Objects.equals(keyStoreType, other.keyStoreType);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(mode, keyStorePath, keyStorePassword, keyStoreType);
+		}
+		
+		@Override
+		public String toString() {
+			return "TrustConfig{mode=" + mode + (keyStorePath == null ? "" : ", keyStore=" + keyStorePath) + "}";
+		}
+		
+	}
+	
+	/**
+	 * 响应回调
+	 * 
+	 * @author fanlychie
+	 */
+	@FunctionalInterface
+	public interface ResponseCallback {
+		
+		/**
+		 * 处理响应
+		 * 
+		 * @param response
+		 *            响应
+		 * 
+		 * @throws Exception
+		 */
+		void handle(HttpResponse response) throws Exception;
+		
+	}
+	
+	/**
+	 * HTTP/1.1 传输层, 基于 HttpClient-4.5.2, 每种证书信任配置共享一个客户端及其连接池, 同一主机的请求复用空闲的连接.
+	 * 
+	 * 连接池最多 {@value #MAX_TOTAL} 个连接, 每个主机最多 {@value #MAX_PER_ROUTE} 个, 连接池已满时请求等待空闲的连接,
+	 * 等待时间不超过连接超时, 计入 {@link Phase#LEASE}
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class Http1Transport implements HttpTransport {
+		
+		// 单例
+		private static final Http1Transport INSTANCE = new Http1Transport();
+		
+		// 连接池的最大连接数
+		private static final int MAX_TOTAL = 512;
+		
+		// 每个主机的最大连接数
+		private static final int MAX_PER_ROUTE = 64;
+		
+		// 传输选项在请求上下文中的属性名
+		private static final String OPTIONS_ATTRIBUTE = TransportOptions.class.getName();
+		
+		// 当前线程的请求跟踪记录, DNS 解析和连接租用的回调没有请求上下文, 经由此处获取
+		private static final ThreadLocal<RequestTrace> CURRENT_TRACE = new ThreadLocal<>();
+		
+		// SSL 连接工厂缓存, 同一信任配置共享 SSLContext 及其 TLS 会话缓存
+		private static final Map<TrustConfig, SSLConnectionSocketFactory> SSL_SOCKET_FACTORY_MAP = new ConcurrentHashMap<>();
+		
+		// 客户端缓存, 每种证书信任配置使用独立的客户端和连接池
+		private static final Map<TrustConfig, CloseableHttpClient> CLIENT_MAP = new ConcurrentHashMap<>();
+		
+		@Override
+		public void execute(HttpUriRequest request, TransportOptions options, ResponseCallback callback) throws Exception {
+			CloseableHttpClient client = getHttpClient(options.getTrustConfig());
+			org.apache.http.client.protocol.HttpClientContext context = org.apache.http.client.protocol.HttpClientContext.create();
+			context.setRequestConfig(options.getRequestConfig());
+			// 客户端是共享的, Cookie 只在一次请求(含重定向)内有效
+			context.setCookieStore(new BasicCookieStore());
+			context.setAttribute(OPTIONS_ATTRIBUTE, options);
+			CURRENT_TRACE.set(options.getTrace());
+			// 响应体读取完成或输入流关闭时连接归还连接池, 关闭响应时未读完的连接被丢弃
+			try (CloseableHttpResponse response = client.execute(request, context)) {
+				callback.handle(response);
+			} finally {
+				CURRENT_TRACE.remove();
+			}
+		}
+		
+		/**
+		 * 获取请求上下文中的请求跟踪记录
+		 * 
+		 * @param context
+		 *            请求上下文
+		 * 
+		 * @return {@link RequestTrace}
+		 */
+		private static RequestTrace getTrace(HttpContext context) {
+			return ((TransportOptions) context.getAttribute(OPTIONS_ATTRIBUTE)).getTrace();
+		}
+		
+		/**
+		 * 获取共享的客户端, 租用连接, DNS 解析, 连接, TLS 握手, 首字节和重试均记录到请求跟踪记录
+		 * 
+		 * @param trustConfig
+		 *            证书信任配置
+		 * 
+		 * @return CloseableHttpClient
+		 */
+		private CloseableHttpClient getHttpClient(TrustConfig trustConfig) {
+			CloseableHttpClient client = CLIENT_MAP.get(trustConfig);
+			if (client == null) {
+				// 在映射之外构建, 并发构建时未放入映射的客户端被关闭
+				CloseableHttpClient newClient = createHttpClient(trustConfig);
+				client = CLIENT_MAP.putIfAbsent(trustConfig, newClient);
+				if (client == null) {
+					client = newClient;
+				} else {
+					try {
+						newClient.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+			return client;
+		}
+		
+		/**
+		 * 创建客户端
+		 * 
+		 * @param trustConfig
+		 *            证书信任配置
+		 * 
+		 * @return CloseableHttpClient
+		 */
+		private CloseableHttpClient createHttpClient(TrustConfig trustConfig) {
+			// 注册记录耗时的连接工厂, 始终注册 https, 以支持从 http 重定向到 https
+			Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+					.register("http", new TracingSocketFactory(null))
+					.register("https", new TracingSocketFactory(getSSLSocketFactory(trustConfig)))
+					.build();
+			// 记录耗时的 DNS 解析
+			DnsResolver dnsResolver = host -> {
+				long start = System.nanoTime();
+				try {
+					return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+				} finally {
+					RequestTrace trace = CURRENT_TRACE.get();
+					if (trace != null) {
+						trace.record(Phase.DNS, System.nanoTime() - start);
+					}
+				}
+			};
+			PoolingHttpClientConnectionManager connectionManager = new TracingConnectionManager(registry, dnsResolver);
+			connectionManager.setMaxTotal(MAX_TOTAL);
+			connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+			return HttpClientBuilder.create()
+					// 设置连接管理器
+					.setConnectionManager(connectionManager)
+					// 连接池只属于一种信任配置, 不按连接的用户状态区分
+					.disableConnectionState()
+					// 清理空闲的连接
+					.evictExpiredConnections()
+					.evictIdleConnections(60, TimeUnit.SECONDS)
+					// 设置请求执行器
+					.setRequestExecutor(new TracingRequestExecutor())
+					// 设置失败重试, 已发出的非幂等请求不重试
+					.setRetryHandler((exception, executionCount, context) -> {
+						TransportOptions options = (TransportOptions) context.getAttribute(OPTIONS_ATTRIBUTE);
+						boolean retry = new StandardHttpRequestRetryHandler(options.getRetryTimes(), false)
+								.retryRequest(exception, executionCount, context);
+						if (retry) {
+							options.getTrace().retries++;
+						}
+						return retry;
+					})
+					.build();
+		}
+		
+		/**
+		 * 获取共享的 SSL 连接工厂
+		 * 
+		 * @param trustConfig
+		 *            证书信任配置
+		 * 
+		 * @return SSLConnectionSocketFactory
+		 */
+		private SSLConnectionSocketFactory getSSLSocketFactory(TrustConfig trustConfig) {
+			SSLConnectionSocketFactory factory = SSL_SOCKET_FACTORY_MAP.get(trustConfig);
+			if (factory == null) {
+				// 在映射之外构建, 不在持有映射的锁时加载证书库
+				SSLConnectionSocketFactory newFactory = new SSLConnectionSocketFactory(trustConfig.getSSLContext());
+				factory = SSL_SOCKET_FACTORY_MAP.putIfAbsent(trustConfig, newFactory);
+				if (factory == null) {
+					factory = newFactory;
+				}
+			}
+			return factory;
+		}
+		
+	}
+	
+	/**
+	 * HTTP/2 传输层, 基于 HttpClient-5 的异步客户端, 同一主机的并发请求在一个连接上多路复用.
+	 * 
+	 * 明文(http)地址使用 HTTP/2 先验知识(h2c)直接建立连接, 加密(https)地址通过 ALPN 协商, 需要 JDK 8u252 及以上.
+	 * 
+	 * 请求体在异步执行器中流式写出, 响应体由调用线程边接收边读取, 均不会在内存中完整缓冲; 只重试幂等的请求方法; 不支持代理.
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class Http2Transport implements HttpTransport {
+		
+		// 幂等的请求方法, 与 StandardHttpRequestRetryHandler 一致
+		private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"));
+		
+		// 异步客户端, 每种证书信任配置和连接超时的组合使用独立的客户端
+		private final Map<ClientKey, CloseableHttpAsyncClient> clientMap = new ConcurrentHashMap<>();
+		
+		// 私有构造子
+		private Http2Transport() {
+		}
+		
+		/**
+		 * 获取共享的实例
+		 * 
+		 * @return {@link Http2Transport}
+		 */
+		private static Http2Transport getShared() {
+			return SharedHolder.INSTANCE;
+		}
+		
+		// 延迟创建共享的实例, 由类的初始化保证只创建一次
+		private static final class SharedHolder {
+			private static final Http2Transport INSTANCE = new Http2Transport();
+		}
+		
+		/**
+		 * 创建独立的 HTTP/2 传输层实例, 使用完成后需调用 {@link #close()} 释放连接
+		 * 
+		 * @return {@link Http2Transport}
+		 */
+		public static Http2Transport create() {
+			return new Http2Transport();
+		}
+		
+		/**
+		 * 关闭传输层, 释放所有的连接
+		 */
+		public void close() {
+			clientMap.values().forEach(client -> client.close(CloseMode.GRACEFUL));
+			clientMap.clear();
+		}
+		
+		/**
+		 * 获取证书信任配置和连接超时对应的异步客户端, 连接超时是客户端的连接配置, 不能按请求设置.
+		 * 
+		 * 客户端在映射之外构建和启动, 不在持有映射的锁时执行; 并发创建时保留先放入的客户端, 关闭多余的客户端
+		 * 
+		 * @param trustConfig
+		 *            证书信任配置
+		 * @param connectTimeout
+		 *            连接超时的毫秒数
+		 * 
+		 * @return CloseableHttpAsyncClient
+		 */
+		private CloseableHttpAsyncClient getClient(TrustConfig trustConfig, int connectTimeout) {
+			ClientKey key = new ClientKey(trustConfig, connectTimeout);
+			CloseableHttpAsyncClient client = clientMap.get(key);
+			if (client == null) {
+				CloseableHttpAsyncClient newClient = HttpAsyncClients.customHttp2()
+						.setTlsStrategy(ClientTlsStrategyBuilder.create().setSslContext(trustConfig.getSSLContext()).build())
+						.setDefaultConnectionConfig(ConnectionConfig.custom()
+								.setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+								.build())
+						.disableAutomaticRetries()
+						.build();
+				newClient.start();
+				client = clientMap.putIfAbsent(key, newClient);
+				if (client == null) {
+					client = newClient;
+				} else {
+					newClient.close(CloseMode.IMMEDIATE);
+				}
+			}
+			return client;
+		}
+		
+		@Override
+		public void execute(HttpUriRequest request, TransportOptions options, ResponseCallback callback) throws Exception {
+			RequestConfig config = options.getRequestConfig();
+			if (config.getProxy() != null) {
+				throw new UnsupportedOperationException("HTTP/2 transport does not support proxy.");
+			}
+			HttpEntity entity = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+			HttpClientContext context = HttpClientContext.create();
+			context.setRequestConfig(org.apache.hc.client5.http.config.RequestConfig.custom()
+					.setResponseTimeout(Timeout.ofMilliseconds(config.getSocketTimeout()))
+					.build());
+			// 与 HTTP/1.1 传输层的 StandardHttpRequestRetryHandler 一致, 只重试幂等的请求方法, 不可重复发送的请求体也不重试
+			boolean retryable = IDEMPOTENT_METHODS.contains(request.getMethod()) && (entity == null || entity.isRepeatable());
+			CloseableHttpAsyncClient client = getClient(options.getTrustConfig(), config.getConnectTimeout());
+			RequestTrace trace = options.getTrace();
+			for (int i = 0; ; i++) {
+				org.apache.hc.core5.http.message.BasicHttpRequest h2Request =
+						new org.apache.hc.core5.http.message.BasicHttpRequest(request.getMethod(), request.getURI());
+				for (Header header : request.getAllHeaders()) {
+					h2Request.addHeader(header.getName(), header.getValue());
+				}
+				StreamingResponseConsumer consumer = new StreamingResponseConsumer();
+				long start = System.nanoTime();
+				Future<Void> future = client.execute(new BasicRequestProducer(h2Request, entity == null ? null : new EntityProducer(entity)),
+						consumer, null, context, consumer);
+				BasicHttpResponse response;
+				try {
+					response = consumer.head.get();
+					// 异步客户端无法区分连接与首字节, 记录从发送请求到接收响应头的耗时
+					trace.record(Phase.TTFB, System.nanoTime() - start);
+				} catch (ExecutionException e) {
+					future.cancel(true);
+					if (!(e.getCause() instanceof IOException) || !retryable || i >= options.getRetryTimes()) {
+						throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+					trace.retries++;
+					continue;
+				}
+				try {
+					callback.handle(response);
+				} finally {
+					// 回调没有读完响应体时取消流, 释放连接上的流控窗口
+					if (!future.isDone()) {
+						future.cancel(true);
+					}
+				}
+				return;
+			}
+		}
+		
+		/**
+		 * 请求体的生产者, 在异步执行器中将请求体写出到共享缓冲区, 由连接的流控决定写出的速度, 请求体不会在内存中完整缓冲
+		 */
+		private static final class EntityProducer extends AbstractClassicEntityProducer {
+			
+			// 请求体
+			private final HttpEntity entity;
+			
+			private EntityProducer(HttpEntity entity) {
+				super(STREAM_BUFFER_SIZE, entity.getContentType() == null
+						? org.apache.hc.core5.http.ContentType.APPLICATION_OCTET_STREAM
+						: org.apache.hc.core5.http.ContentType.parse(entity.getContentType().getValue()), ExecutorHolder.INSTANCE);
+				this.entity = entity;
+			}
+			
+			@Override
+			protected void produceData(org.apache.hc.core5.http.ContentType contentType, OutputStream out) throws IOException {
+				entity.writeTo(out);
+			}
+			
+		}
+		
+		/**
+		 * 响应的消费者, 接收到响应头时即交给调用线程, 响应体经共享缓冲区由调用线程边接收边读取, 缓冲区满时暂停接收
+		 */
+		private static final class StreamingResponseConsumer implements AsyncResponseConsumer<Void>, FutureCallback<Void> {
+			
+			// 转换后的响应, 接收到响应头时完成, 请求失败时以异常完成
+			private final CompletableFuture<BasicHttpResponse> head = new CompletableFuture<>();
+			
+			// 响应体的共享缓冲区
+			private final SharedInputBuffer buffer = new SharedInputBuffer(STREAM_BUFFER_SIZE);
+			
+			// 请求失败的原因, 读取响应体时抛出
+			private volatile Exception failure;
+			
+			// 响应体接收完成的回调
+			private volatile FutureCallback<Void> resultCallback;
+			
+			@Override
+			public void consumeResponse(org.apache.hc.core5.http.HttpResponse h2Response, EntityDetails entityDetails,
+					org.apache.hc.core5.http.protocol.HttpContext context, FutureCallback<Void> resultCallback) {
+				this.resultCallback = resultCallback;
+				BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+						new ProtocolVersion("HTTP", 2, 0), h2Response.getCode(), h2Response.getReasonPhrase()));
+				for (org.apache.hc.core5.http.Header header : h2Response.getHeaders()) {
+					response.addHeader(header.getName(), header.getValue());
+				}
+				if (entityDetails != null) {
+					String contentType = entityDetails.getContentType();
+					response.setEntity(new InputStreamEntity(new ContentInputStream(buffer) {
+						@Override
+						public int read() throws IOException {
+							return checkFailure(super.read());
+						}
+						@Override
+						public int read(byte[] b, int off, int len) throws IOException {
+							return checkFailure(super.read(b, off, len));
+						}
+					}, entityDetails.getContentLength(), contentType == null ? null : ContentType.parse(contentType)));
+				}
+				head.complete(response);
+				if (entityDetails == null) {
+					resultCallback.completed(null);
+				}
+			}
+			
+			// 读到流的末尾时, 请求已失败则抛出失败的原因, 避免响应体被截断而不被察觉
+			private int checkFailure(int read) throws IOException {
+				Exception cause = failure;
+				if (read == -1 && cause != null) {
+					throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+				}
+				return read;
+			}
+			
+			@Override
+			public void informationResponse(org.apache.hc.core5.http.HttpResponse response,
+					org.apache.hc.core5.http.protocol.HttpContext context) {
+			}
+			
+			@Override
+			public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+				buffer.updateCapacity(capacityChannel);
+			}
+			
+			@Override
+			public void consume(ByteBuffer src) {
+				buffer.fill(src);
+			}
+			
+			@Override
+			public void streamEnd(List<? extends org.apache.hc.core5.http.Header> trailers) {
+				buffer.markEndStream();
+				FutureCallback<Void> callback = resultCallback;
+				if (callback != null) {
+					callback.completed(null);
+				}
+			}
+			
+			@Override
+			public void failed(Exception cause) {
+				failure = cause;
+				head.completeExceptionally(cause);
+				buffer.abort();
+			}
+			
+			@Override
+			public void releaseResources() {
+			}
+			
+			@Override
+			public void completed(Void result) {
+			}
+			
+			@Override
+			public void cancelled() {
+				failed(new InterruptedIOException("HTTP/2 stream cancelled."));
+			}
+			
+		}
+		
+		/**
+		 * 异步客户端的键, 由证书信任配置和连接超时组成
+		 */
+		private static final class ClientKey {
+			
+			// 证书信任配置
+			private final TrustConfig trustConfig;
+			
+			// 连接超时的毫秒数
+			private final int connectTimeout;
+			
+			private ClientKey(TrustConfig trustConfig, int connectTimeout) {
+				this.trustConfig = trustConfig;
+				this.connectTimeout = connectTimeout;
+			}
+			
+			@Override
+			public boolean equals(Object obj) {
+				if (this == obj) {
+					return true;
+				}
+				if (!(obj instanceof ClientKey)) {
+					return false;
+				}
+				ClientKey other = (ClientKey) obj;
+				return connectTimeout == other.connectTimeout && trustConfig.equals(other.trustConfig);
+			}
+			
+			@Override
+			public int hashCode() {
+				return trustConfig.hashCode() * 31 + connectTimeout;
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * 请求监听器
+	 * 
+	 * @author fanlychie
+	 */
+	@FunctionalInterface
+	public interface HttpListener {
+		
+		/**
+		 * 请求结束时回调, 在执行请求的线程中调用, 实现应尽量轻量
+		 * 
+		 * @param trace
+		 *            请求跟踪记录
+		 */
+		void onComplete(RequestTrace trace);
+		
+	}
+	
+	/**
+	 * 请求的生命周期阶段
+	 * 
+	 * @author fanlychie
+	 */
+	public enum Phase {
+		
+		/**
+		 * 等待连接池中的可用连接, 只有 HTTP/1.1 传输层记录, HTTP/2 的请求在共享的连接上多路复用, 没有租用的等待
+		 */
+		LEASE,
+		
+		/**
+		 * DNS 解析
+		 */
+		DNS,
+		
+		/**
+		 * 建立 TCP 连接
+		 */
+		CONNECT,
+		
+		/**
+		 * TLS 握手
+		 */
+		TLS,
+		
+		/**
+		 * 从开始发送请求到收到响应头(首字节)
+		 */
+		TTFB,
+		
+		/**
+		 * 读取响应体
+		 */
+		BODY_READ,
+		
+		/**
+		 * 请求的总耗时
+		 */
+		TOTAL
+		
+	}
+	
+	/**
+	 * 请求跟踪记录, 记录单个请求各阶段的耗时, 收发的字节数, 重试次数和状态码
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class RequestTrace {
+		
+		// 请求阶段
+		private static final Phase[] PHASES = Phase.values();
+		
+		// 请求方法
+		private final String method;
+		
+		// 请求主机
+		private final String host;
+		
+		// 开始时间
+		private final long startNanos = System.nanoTime();
+		
+		// 各阶段的耗时纳秒数, -1 表示未发生
+		private final long[] durations = new long[PHASES.length];
+		
+		// 状态码
+		private int statusCode;
+		
+		// 发送的字节数
+		private long bytesSent;
+		
+		// 接收的字节数
+		private long bytesReceived;
+		
+		// 重试次数
+		private int retries;
+		
+		// 请求异常
+		private Exception exception;
+		
+		// 私有构造子
+		private RequestTrace(String method, String host) {
+			this.method = method;
+			this.host = host;
+			Arrays.fill(durations, -1);
+		}
+		
+		/**
+		 * 记录阶段的耗时, 同一阶段多次发生(如重试)时累加
+		 * 
+		 * @param phase
+		 *            请求阶段
+		 * @param nanos
+		 *            耗时纳秒数
+		 */
+		public void record(Phase phase, long nanos) {
+			int index = phase.ordinal();
+			durations[index] = durations[index] < 0 ? nanos : durations[index] + nanos;
+		}
+		
+		/**
+		 * 获取阶段的耗时纳秒数
+		 * 
+		 * @param phase
+		 *            请求阶段
+		 * 
+		 * @return 耗时纳秒数, 该阶段未发生(如复用连接时没有 DNS 解析)时返回 -1
+		 */
+		public long getDuration(Phase phase) {
+			return durations[phase.ordinal()];
+		}
+		
+		public String getMethod() {
+			return method;
+		}
+		
+		public String getHost() {
+			return host;
+		}
+		
+		/**
+		 * 获取状态码
+		 * 
+		 * @return 状态码, 没有收到响应时返回 0
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+		
+		public long getBytesSent() {
+			return bytesSent;
+		}
+		
+		public long getBytesReceived() {
+			return bytesReceived;
+		}
+		
+		public int getRetries() {
+			return retries;
+		}
+		
+		/**
+		 * 获取请求异常
+		 * 
+		 * @return 请求异常, 请求成功时返回 null
+		 */
+		public Exception getException() {
+			return exception;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("RequestTrace{").append(method).append(' ').append(host)
+					.append(", status=").append(statusCode);
+			for (Phase phase : PHASES) {
+				if (durations[phase.ordinal()] >= 0) {
+					builder.append(", ").append(phase.name().toLowerCase()).append('=')
+							.append(durations[phase.ordinal()] / 1000000.0).append("ms");
+				}
+			}
+			builder.append(", sent=").append(bytesSent).append("B, received=").append(bytesReceived)
+					.append("B, retries=").append(retries);
+			if (exception != null) {
+				builder.append(", exception=").append(exception);
+			}
+			return builder.append('}').toString();
+		}
+		
+	}
+	
+	/**
+	 * 请求指标记录器, 按主机统计请求数, 错误数, 重试数, 收发字节数, 状态码分布和各阶段耗时的直方图.
+	 * 
+	 * 记录过程无锁, 可在高并发下长期开启, 通过 {@link #snapshot()} 导出指标快照.
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class MetricsRecorder implements HttpListener {
+		
+		// 主机指标表
+		private final Map<String, HostRecorder> hostMap = new ConcurrentHashMap<>();
+		
+		// 私有构造子
+		private MetricsRecorder() {
+		}
+		
+		@Override
+		public void onComplete(RequestTrace trace) {
+			String host = trace.getHost() == null ? "" : trace.getHost();
+			HostRecorder recorder = hostMap.get(host);
+			if (recorder == null) {
+				recorder = hostMap.computeIfAbsent(host, HostRecorder::new);
+			}
+			recorder.record(trace);
+		}
+		
+		/**
+		 * 导出指标快照
+		 * 
+		 * @return 以主机名为键的指标快照表
+		 */
+		public Map<String, HostMetrics> snapshot() {
+			Map<String, HostMetrics> snapshot = new TreeMap<>();
+			hostMap.forEach((host, recorder) -> snapshot.put(host, recorder.snapshot()));
+			return Collections.unmodifiableMap(snapshot);
+		}
+		
+		/**
+		 * 清空已记录的指标
+		 */
+		public void reset() {
+			hostMap.clear();
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			snapshot().values().forEach(metrics -> builder.append(metrics).append('\n'));
+			return builder.toString();
+		}
+		
+	}
+	
+	/**
+	 * 主机的指标快照
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class HostMetrics {
+		
+		// 主机
+		private final String host;
+		
+		// 请求数
+		private final long requestCount;
+		
+		// 错误数(请求异常)
+		private final long errorCount;
+		
+		// 重试数
+		private final long retryCount;
+		
+		// 发送的字节数
+		private final long bytesSent;
+		
+		// 接收的字节数
+		private final long bytesReceived;
+		
+		// 状态码分布
+		private final Map<Integer, Long> statusCounts;
+		
+		// 各阶段耗时
+		private final Map<Phase, Timing> timings;
+		
+		// 私有构造子
+		private HostMetrics(String host, long requestCount, long errorCount, long retryCount, long bytesSent,
+				long bytesReceived, Map<Integer, Long> statusCounts, Map<Phase, Timing> timings) {
+			this.host = host;
+			this.requestCount = requestCount;
+			this.errorCount = errorCount;
+			this.retryCount = retryCount;
+			this.bytesSent = bytesSent;
+			this.bytesReceived = bytesReceived;
+			this.statusCounts = Collections.unmodifiableMap(statusCounts);
+			this.timings = Collections.unmodifiableMap(timings);
+		}
+		
+		public String getHost() {
+			return host;
+		}
+		
+		public long getRequestCount() {
+			return requestCount;
+		}
+		
+		public long getErrorCount() {
+			return errorCount;
+		}
+		
+		public long getRetryCount() {
+			return retryCount;
+		}
+		
+		public long getBytesSent() {
+			return bytesSent;
+		}
+		
+		public long getBytesReceived() {
+			return bytesReceived;
+		}
+		
+		/**
+		 * 获取状态码分布
+		 * 
+		 * @return 以状态码为键, 次数为值的表
+		 */
+		public Map<Integer, Long> getStatusCounts() {
+			return statusCounts;
+		}
+		
+		/**
+		 * 获取各阶段的耗时统计, 未发生过的阶段不在表中
+		 * 
+		 * @return 以请求阶段为键的耗时统计表
+		 */
+		public Map<Phase, Timing> getTimings() {
+			return timings;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder(host).append(": requests=").append(requestCount)
+					.append(", errors=").append(errorCount).append(", retries=").append(retryCount)
+					.append(", sent=").append(bytesSent).append("B, received=").append(bytesReceived)
+					.append("B, status=").append(statusCounts);
+			timings.forEach((phase, timing) -> builder.append("\n  ").append(phase.name().toLowerCase()).append(": ").append(timing));
+			return builder.toString();
+		}
+		
+	}
+	
+	/**
+	 * 耗时统计
+	 * 
+	 * @author fanlychie
+	 */
+	public static final class Timing {
+		
+		// 次数
+		private final long count;
+		
+		// 平均毫秒数
+		private final double meanMillis;
+		
+		// 中位数毫秒数
+		private final double p50Millis;
+		
+		// 90 分位毫秒数
+		private final double p90Millis;
+		
+		// 99 分位毫秒数
+		private final double p99Millis;
+		
+		// 最大毫秒数
+		private final double maxMillis;
+		
+		// 私有构造子
+		private Timing(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis, double maxMillis) {
+			this.count = count;
+			this.meanMillis = meanMillis;
+			this.p50Millis = p50Millis;
+			this.p90Millis = p90Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+		
+		public double getMeanMillis() {
+			return meanMillis;
+		}
+		
+		public double getP50Millis() {
+			return p50Millis;
+		}
+		
+		public double getP90Millis() {
+			return p90Millis;
+		}
+		
+		public double getP99Millis() {
+			return p99Millis;
+		}
+		
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms",
+					count, meanMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+		}
+		
+	}
+	
+	/**
+	 * 单个主机的指标累加器
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class HostRecorder {
+		
+		// 主机
+		private final String host;
+		
+		// 请求数
+		private final LongAdder requestCount = new LongAdder();
+		
+		// 错误数
+		private final LongAdder errorCount = new LongAdder();
+		
+		// 重试数
+		private final LongAdder retryCount = new LongAdder();
+		
+		// 发送的字节数
+		private final LongAdder bytesSent = new LongAdder();
+		
+		// 接收的字节数
+		private final LongAdder bytesReceived = new LongAdder();
+		
+		// 状态码分布
+		private final Map<Integer, LongAdder> statusMap = new ConcurrentHashMap<>();
+		
+		// 各阶段耗时的直方图
+		private final Histogram[] histograms = new Histogram[Phase.values().length];
+		
+		private HostRecorder(String host) {
+			this.host = host;
+			for (int i = 0; i < histograms.length; i++) {
+				histograms[i] = new Histogram();
+			}
+		}
+		
+		/**
+		 * 记录请求跟踪记录
+		 * 
+		 * @param trace
+		 *            请求跟踪记录
+		 */
+		private void record(RequestTrace trace) {
+			requestCount.increment();
+			if (trace.getException() != null) {
+				errorCount.increment();
+			}
+			retryCount.add(trace.getRetries());
+			bytesSent.add(trace.getBytesSent());
+			bytesReceived.add(trace.getBytesReceived());
+			if (trace.getStatusCode() > 0) {
+				LongAdder counter = statusMap.get(trace.getStatusCode());
+				if (counter == null) {
+					counter = statusMap.computeIfAbsent(trace.getStatusCode(), code -> new LongAdder());
+				}
+				counter.increment();
+			}
+			for (int i = 0; i < histograms.length; i++) {
+				long nanos = trace.durations[i];
+				if (nanos >= 0) {
+					histograms[i].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+				}
+			}
+		}
+		
+		/**
+		 * 导出指标快照
+		 * 
+		 * @return {@link HostMetrics}
+		 */
+		private HostMetrics snapshot() {
+			Map<Integer, Long> statusCounts = new TreeMap<>();
+			statusMap.forEach((code, counter) -> statusCounts.put(code, counter.sum()));
+			Map<Phase, Timing> timings = new EnumMap<>(Phase.class);
+			for (Phase phase : Phase.values()) {
+				Timing timing = histograms[phase.ordinal()].snapshot();
+				if (timing != null) {
+					timings.put(phase, timing);
+				}
+			}
+			return new HostMetrics(host, requestCount.sum(), errorCount.sum(), retryCount.sum(), bytesSent.sum(),
+					bytesReceived.sum(), statusCounts, timings);
+		}
+		
+	}
+	
+	/**
+	 * 无锁的对数线性直方图, 以微秒为单位记录耗时, 每个 2 的幂区间等分为 8 个桶, 相对误差不超过 12.5%
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class Histogram {
+		
+		// 线性区间的桶数, 小于此值的数值每个值一个桶
+		private static final int LINEAR_BUCKETS = 16;
+		
+		// 每个 2 的幂区间的桶数的位数
+		private static final int SUB_BUCKET_BITS = 3;
+		
+		// 桶的总数
+		private static final int BUCKETS = LINEAR_BUCKETS + (64 - 4) * (1 << SUB_BUCKET_BITS);
+		
+		// 桶
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		
+		// 数值的总和
+		private final LongAdder sum = new LongAdder();
+		
+		// 最大值
+		private final AtomicLong max = new AtomicLong();
+		
+		/**
+		 * 记录数值
+		 * 
+		 * @param value
+		 *            数值
+		 */
+		private void record(long value) {
+			value = Math.max(0, value);
+			buckets.incrementAndGet(index(value));
+			sum.add(value);
+			long current;
+			while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+				// 竞争失败时重试
+			}
+		}
+		
+		/**
+		 * 导出耗时统计
+		 * 
+		 * @return {@link Timing}, 没有记录时返回 null
+		 */
+		private Timing snapshot() {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			if (total == 0) {
+				return null;
+			}
+			long maxValue = max.get();
+			return new Timing(total, sum.sum() / 1000.0 / total, percentile(counts, total, 0.5, maxValue) / 1000.0,
+					percentile(counts, total, 0.9, maxValue) / 1000.0, percentile(counts, total, 0.99, maxValue) / 1000.0,
+					maxValue / 1000.0);
+		}
+		
+		/**
+		 * 计算分位数, 返回所在桶的上界
+		 */
+		private static long percentile(long[] counts, long total, double quantile, long maxValue) {
+			long rank = Math.max(1, (long) Math.ceil(total * quantile));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), maxValue);
+				}
+			}
+			return maxValue;
+		}
+		
+		/**
+		 * 计算数值所在的桶
+		 */
+		private static int index(long value) {
+			if (value < LINEAR_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1));
+			return LINEAR_BUCKETS + ((exponent - 4) << SUB_BUCKET_BITS) + subBucket;
+		}
+		
+		/**
+		 * 计算桶的上界
+		 */
+		private static long upperBound(int index) {
+			if (index < LINEAR_BUCKETS) {
+				return index;
+			}
+			int exponent = ((index - LINEAR_BUCKETS) >> SUB_BUCKET_BITS) + 4;
+			int subBucket = (index - LINEAR_BUCKETS) & ((1 << SUB_BUCKET_BITS) - 1);
+			return (((long) (1 << SUB_BUCKET_BITS) + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+		
+	}
+	
+	/**
+	 * 统计发送字节数的请求体
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class CountingEntity extends HttpEntityWrapper {
+		
+		// 请求跟踪记录
+		private final RequestTrace trace;
+		
+		private CountingEntity(HttpEntity entity, RequestTrace trace) {
+			super(entity);
+			this.trace = trace;
+		}
+		
+		@Override
+		public void writeTo(OutputStream outstream) throws IOException {
+			super.writeTo(new FilterOutputStream(outstream) {
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					trace.bytesSent++;
+				}
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					trace.bytesSent += len;
+				}
+			});
+		}
+		
+	}
+	
+	/**
+	 * 统计读取字节数的输入流
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		
+		// 读取的字节数
+		private long count;
+		
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int read = in.read();
+			if (read != -1) {
+				count++;
+			}
+			return read;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+		
+	}
+	
+	/**
+	 * 记录连接租用耗时的连接管理器, 租用耗时即等待连接池中可用连接的时间, 不含新建连接的耗时
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class TracingConnectionManager extends PoolingHttpClientConnectionManager {
+		
+		private TracingConnectionManager(Registry<ConnectionSocketFactory> registry, DnsResolver dnsResolver) {
+			super(registry, dnsResolver);
+		}
+		
+		@Override
+		public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+			ConnectionRequest request = super.requestConnection(route, state);
+			return new ConnectionRequest() {
+				
+				@Override
+				public HttpClientConnection get(long timeout, TimeUnit tunit)
+						throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+					long start = System.nanoTime();
+					try {
+						return request.get(timeout, tunit);
+					} finally {
+						RequestTrace trace = Http1Transport.CURRENT_TRACE.get();
+						if (trace != null) {
+							trace.record(Phase.LEASE, System.nanoTime() - start);
+						}
+					}
+				}
+				
+				@Override
+				public boolean cancel() {
+					return request.cancel();
+				}
+				
+			};
+		}
+		
+	}
+	
+	/**
+	 * 记录 TCP 连接和 TLS 握手耗时的连接工厂, 耗时记录到请求上下文中的请求跟踪记录
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class TracingSocketFactory implements LayeredConnectionSocketFactory {
+		
+		// SSL 连接工厂, 明文连接时为 null
+		private final LayeredConnectionSocketFactory layered;
+		
+		private TracingSocketFactory(LayeredConnectionSocketFactory layered) {
+			this.layered = layered;
+		}
+		
+		@Override
+		public Socket createSocket(HttpContext context) throws IOException {
+			return layered != null ? layered.createSocket(context) : PlainConnectionSocketFactory.INSTANCE.createSocket(context);
+		}
+		
+		@Override
+		public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+				InetSocketAddress localAddress, HttpContext context) throws IOException {
+			long start = System.nanoTime();
+			Socket socket;
+			try {
+				socket = PlainConnectionSocketFactory.INSTANCE.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+			} finally {
+				Http1Transport.getTrace(context).record(Phase.CONNECT, System.nanoTime() - start);
+			}
+			if (layered == null) {
+				return socket;
+			}
+			// 握手期间使用连接超时作为读取超时
+			if (connectTimeout > 0 && socket.getSoTimeout() == 0) {
+				socket.setSoTimeout(connectTimeout);
+			}
+			return createLayeredSocket(socket, host.getHostName(), remoteAddress.getPort(), context);
+		}
+		
+		@Override
+		public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+			if (layered == null) {
+				return socket;
+			}
+			long start = System.nanoTime();
+			try {
+				return layered.createLayeredSocket(socket, target, port, context);
+			} finally {
+				Http1Transport.getTrace(context).record(Phase.TLS, System.nanoTime() - start);
+			}
+		}
+		
+	}
+	
+	/**
+	 * 记录首字节耗时的请求执行器, 执行器由多个请求共享, 开始发送的时间保存在请求上下文中
+	 * 
+	 * @author fanlychie
+	 */
+	private static final class TracingRequestExecutor extends HttpRequestExecutor {
+		
+		// 开始发送请求的时间在请求上下文中的属性名
+		private static final String SEND_START_ATTRIBUTE = TracingRequestExecutor.class.getName() + ".sendStart";
+		
+		@Override
+		protected HttpResponse doSendRequest(org.apache.http.HttpRequest request, HttpClientConnection conn,
+				HttpContext context) throws IOException, HttpException {
+			context.setAttribute(SEND_START_ATTRIBUTE, System.nanoTime());
+			return super.doSendRequest(request, conn, context);
+		}
+		
+		@Override
+		protected HttpResponse doReceiveResponse(org.apache.http.HttpRequest request, HttpClientConnection conn,
+				HttpContext context) throws HttpException, IOException {
+			HttpResponse response = super.doReceiveResponse(request, conn, context);
+			long sendStart = (Long) context.getAttribute(SEND_START_ATTRIBUTE);
+			Http1Transport.getTrace(context).record(Phase.TTFB, System.nanoTime() - sendStart);
+			return response;
 		}
 		
 	}
@@ -0,0 +1,759 @@
+package org.fanlychie.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON 工具类, 序列化时直接写出到字符流, 反序列化时从字符流增量解析, 不产生完整的中间字符串.
+ * <p>
+ * 对象的字段绑定使用 {@link ClassUtils} 缓存的类元数据, 静态字段和 transient 字段不参与序列化.
+ *
+ * @author fanlychie
+ */
+public final class JsonUtils {
+
+    // 类的可序列化字段表缓存
+    private static final Map<Class<?>, Map<String, Field>> FIELD_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 序列化对象为 JSON 字符串
+     *
+     * @param obj 对象
+     * @return 返回 JSON 字符串
+     */
+    public static String toJson(Object obj) {
+        StringWriter writer = new StringWriter();
+        write(obj, writer);
+        return writer.toString();
+    }
+
+    /**
+     * 序列化对象, 以 UTF-8 编码写出到输出流, 输出流不会被关闭
+     *
+     * @param obj 对象
+     * @param out 输出流
+     */
+    public static void write(Object obj, OutputStream out) {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+            write(obj, writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 序列化对象, 写出到字符流, 字符流不会被关闭
+     *
+     * @param obj    对象
+     * @param writer 字符流
+     */
+    public static void write(Object obj, Writer writer) {
+        try {
+            writeValue(obj, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 解析 JSON 字符串
+     *
+     * @param json JSON 字符串
+     * @param type 目标类型
+     * @return 返回解析得到的对象
+     */
+    public static <T> T parse(String json, Class<T> type) {
+        return read(new StringReader(json), type);
+    }
+
+    /**
+     * 从输入流增量解析 JSON, 输入流不会被关闭
+     *
+     * @param in      输入流
+     * @param charset 字符集编码
+     * @param type    目标类型
+     * @return 返回解析得到的对象
+     */
+    public static <T> T read(InputStream in, String charset, Class<T> type) {
+        try {
+            return read(new InputStreamReader(in, charset), type);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 从字符流增量解析 JSON, 字符流不会被关闭.
+     * <p>
+     * 目标类型为 Object 时, JSON 对象解析为 Map, 数组解析为 List, 整数解析为 Long, 小数解析为 Double.
+     *
+     * @param reader 字符流
+     * @param type   目标类型
+     * @return 返回解析得到的对象
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T read(Reader reader, Class<T> type) {
+        try {
+            JsonReader jsonReader = new JsonReader(reader);
+            T value = (T) jsonReader.readValue(type);
+            jsonReader.expectEnd();
+            return value;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 写出值
+     *
+     * @param obj    值
+     * @param writer 字符流
+     * @throws IOException
+     */
+    private static void writeValue(Object obj, Writer writer) throws IOException {
+        if (obj == null) {
+            writer.write("null");
+        } else if (obj instanceof CharSequence || obj instanceof Character) {
+            writeString(obj.toString(), writer);
+        } else if (obj instanceof Double || obj instanceof Float) {
+            double value = ((Number) obj).doubleValue();
+            writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : obj.toString());
+        } else if (obj instanceof Number || obj instanceof Boolean) {
+            writer.write(obj.toString());
+        } else if (obj instanceof Enum) {
+            writeString(((Enum<?>) obj).name(), writer);
+        } else if (obj instanceof Date) {
+            writer.write(Long.toString(((Date) obj).getTime()));
+        } else if (obj instanceof Map) {
+            writer.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), writer);
+                writer.write(':');
+                writeValue(entry.getValue(), writer);
+            }
+            writer.write('}');
+        } else if (obj instanceof Iterable) {
+            writer.write('[');
+            boolean first = true;
+            for (Object item : (Iterable<?>) obj) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeValue(item, writer);
+            }
+            writer.write(']');
+        } else if (obj.getClass().isArray()) {
+            writer.write('[');
+            int length = Array.getLength(obj);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeValue(Array.get(obj, i), writer);
+            }
+            writer.write(']');
+        } else {
+            writer.write('{');
+            boolean first = true;
+            for (Field field : getFieldMap(obj.getClass()).values()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(field.getName(), writer);
+                writer.write(':');
+                try {
+                    writeValue(field.get(obj), writer);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            writer.write('}');
+        }
+    }
+
+    /**
+     * 写出转义后的字符串
+     *
+     * @param str    字符串
+     * @param writer 字符流
+     * @throws IOException
+     */
+    private static void writeString(String str, Writer writer) throws IOException {
+        writer.write('"');
+        int start = 0, length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            String escape = null;
+            switch (c) {
+                case '"':
+                    escape = "\\\"";
+                    break;
+                case '\\':
+                    escape = "\\\\";
+                    break;
+                case '\n':
+                    escape = "\\n";
+                    break;
+                case '\r':
+                    escape = "\\r";
+                    break;
+                case '\t':
+                    escape = "\\t";
+                    break;
+                case '\b':
+                    escape = "\\b";
+                    break;
+                case '\f':
+                    escape = "\\f";
+                    break;
+                default:
+                    if (c < 0x20) {
+                        escape = String.format("\\u%04x", (int) c);
+                    }
+            }
+            if (escape != null) {
+                writer.write(str, start, i - start);
+                writer.write(escape);
+                start = i + 1;
+            }
+        }
+        writer.write(str, start, length - start);
+        writer.write('"');
+    }
+
+    /**
+     * 获取类的可序列化字段表, 排除 transient 和编译器生成的字段
+     *
+     * @param clazz 类
+     * @return 返回字段表
+     */
+    private static Map<String, Field> getFieldMap(Class<?> clazz) {
+        Map<String, Field> fieldMap = FIELD_MAP.get(clazz);
+        if (fieldMap == null) {
+            fieldMap = new HashMap<>();
+            for (Field field : ClassUtils.getInstanceFields(clazz).values()) {
+                if (!Modifier.isTransient(field.getModifiers()) && !field.isSynthetic()) {
+                    fieldMap.put(field.getName(), field);
+                }
+            }
+            FIELD_MAP.put(clazz, fieldMap);
+        }
+        return fieldMap;
+    }
+
+    /**
+     * 获取类型的原始类
+     *
+     * @param type 类型
+     * @return 返回原始类
+     */
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        } else if (type instanceof WildcardType) {
+            return rawClass(((WildcardType) type).getUpperBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    /**
+     * 获取泛型类型的参数类型
+     *
+     * @param type  类型
+     * @param index 参数索引
+     * @return 返回参数类型, 非泛型类型返回 Object.class
+     */
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < args.length) {
+                return args[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * 增量 JSON 解析器, 按块从字符流读取内容
+     */
+    private static final class JsonReader {
+
+        // 字符流
+        private final Reader reader;
+
+        // 字符缓存
+        private final char[] buffer = new char[8192];
+
+        // 复用的字符串构建器
+        private final StringBuilder builder = new StringBuilder();
+
+        // 缓存中的读取位置
+        private int pos;
+
+        // 缓存中的有效长度
+        private int limit;
+
+        // 已读取的字符数
+        private long offset;
+
+        private JsonReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * 读取值
+         *
+         * @param type 目标类型
+         * @return 返回读取到的值
+         * @throws IOException
+         */
+        private Object readValue(Type type) throws IOException {
+            Class<?> clazz = rawClass(type);
+            int c = peek();
+            switch (c) {
+                case '{':
+                    return readObject(type, clazz);
+                case '[':
+                    return readArray(type, clazz);
+                case '"':
+                    pos++;
+                    return convert(readString(), clazz, true);
+                case 'n':
+                    expectLiteral("null");
+                    return null;
+                case 't':
+                    expectLiteral("true");
+                    return convert(Boolean.TRUE, clazz);
+                case 'f':
+                    expectLiteral("false");
+                    return convert(Boolean.FALSE, clazz);
+                case -1:
+                    throw error("Unexpected end of input");
+                default:
+                    return convert(readNumber(), clazz, false);
+            }
+        }
+
+        /**
+         * 读取 JSON 对象
+         */
+        @SuppressWarnings("unchecked")
+        private Object readObject(Type type, Class<?> clazz) throws IOException {
+            pos++;
+            Map<String, Object> map = null;
+            Map<String, Field> fieldMap = null;
+            Object target;
+            if (clazz == Object.class || Map.class.isAssignableFrom(clazz)) {
+                map = clazz.isInterface() || clazz == Object.class ? new LinkedHashMap<>() : (Map<String, Object>) ClassUtils.newInstance(clazz);
+                target = map;
+            } else {
+                fieldMap = getFieldMap(clazz);
+                target = ClassUtils.newInstance(clazz);
+            }
+            if (peek() == '}') {
+                pos++;
+                return target;
+            }
+            while (true) {
+                if (peek() != '"') {
+                    throw error("Expected property name");
+                }
+                pos++;
+                String name = readString();
+                expect(':');
+                if (map != null) {
+                    map.put(name, readValue(typeArgument(type, 1)));
+                } else {
+                    Field field = fieldMap.get(name);
+                    if (field == null) {
+                        skipValue();
+                    } else {
+                        try {
+                            Object value = readValue(field.getGenericType());
+                            // 基本数据类型的字段遇到 null 时保留默认值
+                            if (value != null || !field.getType().isPrimitive()) {
+                                field.set(target, value);
+                            }
+                        } catch (IllegalAccessException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+                int c = peek();
+                pos++;
+                if (c == '}') {
+                    return target;
+                } else if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        /**
+         * 读取 JSON 数组
+         */
+        @SuppressWarnings("unchecked")
+        private Object readArray(Type type, Class<?> clazz) throws IOException {
+            pos++;
+            Type itemType;
+            Collection<Object> items;
+            if (clazz.isArray()) {
+                itemType = clazz.getComponentType();
+                items = new ArrayList<>();
+            } else if (clazz == Object.class || clazz.isAssignableFrom(ArrayList.class)) {
+                itemType = typeArgument(type, 0);
+                items = new ArrayList<>();
+            } else if (clazz.isAssignableFrom(LinkedHashSet.class)) {
+                itemType = typeArgument(type, 0);
+                items = new LinkedHashSet<>();
+            } else if (Collection.class.isAssignableFrom(clazz) && !clazz.isInterface()) {
+                itemType = typeArgument(type, 0);
+                items = (Collection<Object>) ClassUtils.newInstance(clazz);
+            } else {
+                throw error("Can not read array into " + clazz);
+            }
+            if (peek() == ']') {
+                pos++;
+            } else {
+                while (true) {
+                    items.add(readValue(itemType));
+                    int c = peek();
+                    pos++;
+                    if (c == ']') {
+                        break;
+                    } else if (c != ',') {
+                        throw error("Expected ',' or ']'");
+                    }
+                }
+            }
+            if (clazz.isArray()) {
+                Object array = Array.newInstance(clazz.getComponentType(), items.size());
+                int index = 0;
+                boolean primitive = clazz.getComponentType().isPrimitive();
+                for (Object item : items) {
+                    if (item != null || !primitive) {
+                        Array.set(array, index, item);
+                    }
+                    index++;
+                }
+                return array;
+            }
+            return items;
+        }
+
+        /**
+         * 跳过一个值, 不构建任何对象
+         */
+        private void skipValue() throws IOException {
+            int c = peek();
+            switch (c) {
+                case '{':
+                case '[':
+                    int depth = 0;
+                    boolean inString = false;
+                    do {
+                        c = read();
+                        if (c == -1) {
+                            throw error("Unexpected end of input");
+                        } else if (inString) {
+                            if (c == '\\') {
+                                read();
+                            } else if (c == '"') {
+                                inString = false;
+                            }
+                        } else if (c == '"') {
+                            inString = true;
+                        } else if (c == '{' || c == '[') {
+                            depth++;
+                        } else if (c == '}' || c == ']') {
+                            depth--;
+                        }
+                    } while (depth > 0);
+                    break;
+                case '"':
+                    pos++;
+                    readString();
+                    break;
+                case 'n':
+                    expectLiteral("null");
+                    break;
+                case 't':
+                    expectLiteral("true");
+                    break;
+                case 'f':
+                    expectLiteral("false");
+                    break;
+                default:
+                    readNumber();
+            }
+        }
+
+        /**
+         * 读取字符串内容(起始引号已被消费)
+         */
+        private String readString() throws IOException {
+            builder.setLength(0);
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw error("Unterminated string");
+                }
+                int start = pos;
+                while (pos < limit) {
+                    char c = buffer[pos];
+                    if (c == '"' || c == '\\') {
+                        break;
+                    }
+                    pos++;
+                }
+                builder.append(buffer, start, pos - start);
+                if (pos == limit) {
+                    continue;
+                }
+                char c = buffer[pos++];
+                if (c == '"') {
+                    return builder.toString();
+                }
+                int escape = read();
+                switch (escape) {
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid unicode escape");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        builder.append((char) code);
+                        break;
+                    case -1:
+                        throw error("Unterminated string");
+                    default:
+                        builder.append((char) escape);
+                }
+            }
+        }
+
+        /**
+         * 读取数字或其它裸字面量
+         */
+        private String readNumber() throws IOException {
+            builder.setLength(0);
+            while (true) {
+                if (pos == limit && !fill()) {
+                    break;
+                }
+                char c = buffer[pos];
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    builder.append(c);
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            if (builder.length() == 0) {
+                throw error("Unexpected character '" + (char) peek() + "'");
+            }
+            return builder.toString();
+        }
+
+        /**
+         * 转换文本值到目标类型
+         *
+         * @param text   文本
+         * @param clazz  目标类型
+         * @param quoted 是否为字符串字面量
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object convert(String text, Class<?> clazz, boolean quoted) {
+            if (clazz == String.class || clazz == CharSequence.class || (clazz == Object.class && quoted)) {
+                return text;
+            }
+            try {
+                if (clazz == Object.class || clazz == Number.class) {
+                    if (text.indexOf('.') == -1 && text.indexOf('e') == -1 && text.indexOf('E') == -1) {
+                        return text.length() < 19 ? (Object) Long.parseLong(text) : new BigInteger(text);
+                    }
+                    return Double.parseDouble(text);
+                } else if (clazz == int.class || clazz == Integer.class) {
+                    return Integer.parseInt(text);
+                } else if (clazz == long.class || clazz == Long.class) {
+                    return Long.parseLong(text);
+                } else if (clazz == double.class || clazz == Double.class) {
+                    return Double.parseDouble(text);
+                } else if (clazz == float.class || clazz == Float.class) {
+                    return Float.parseFloat(text);
+                } else if (clazz == short.class || clazz == Short.class) {
+                    return Short.parseShort(text);
+                } else if (clazz == byte.class || clazz == Byte.class) {
+                    return Byte.parseByte(text);
+                } else if (clazz == boolean.class || clazz == Boolean.class) {
+                    return Boolean.parseBoolean(text) || "1".equals(text);
+                } else if (clazz == char.class || clazz == Character.class) {
+                    return text.isEmpty() ? '\0' : text.charAt(0);
+                } else if (clazz == BigDecimal.class) {
+                    return new BigDecimal(text);
+                } else if (clazz == BigInteger.class) {
+                    return new BigInteger(text);
+                } else if (clazz == Date.class) {
+                    return new Date(Long.parseLong(text));
+                } else if (clazz.isEnum()) {
+                    return Enum.valueOf((Class<Enum>) clazz, text);
+                }
+            } catch (IllegalArgumentException e) {
+                throw error("Can not convert '" + text + "' to " + clazz);
+            }
+            throw error("Can not convert '" + text + "' to " + clazz);
+        }
+
+        /**
+         * 转换布尔值到目标类型
+         */
+        private Object convert(Boolean value, Class<?> clazz) {
+            if (clazz == String.class) {
+                return value.toString();
+            }
+            if (clazz == Object.class || clazz == boolean.class || clazz == Boolean.class) {
+                return value;
+            }
+            throw error("Can not convert '" + value + "' to " + clazz);
+        }
+
+        /**
+         * 校验输入已结束
+         */
+        private void expectEnd() throws IOException {
+            if (peek() != -1) {
+                throw error("Unexpected trailing content");
+            }
+        }
+
+        /**
+         * 校验下一个非空白字符
+         */
+        private void expect(char expected) throws IOException {
+            if (peek() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+            pos++;
+        }
+
+        /**
+         * 校验字面量
+         */
+        private void expectLiteral(String literal) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (read() != literal.charAt(i)) {
+                    throw error("Expected '" + literal + "'");
+                }
+            }
+        }
+
+        /**
+         * 查看下一个非空白字符, 不消费该字符
+         *
+         * @return 返回下一个非空白字符, 输入结束时返回 -1
+         */
+        private int peek() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return -1;
+                }
+                char c = buffer[pos];
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    pos++;
+                } else {
+                    return c;
+                }
+            }
+        }
+
+        /**
+         * 读取下一个字符
+         *
+         * @return 返回下一个字符, 输入结束时返回 -1
+         */
+        private int read() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            return buffer[pos++];
+        }
+
+        /**
+         * 填充字符缓存
+         *
+         * @return 有新的内容返回 true, 输入结束返回 false
+         */
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int read = reader.read(buffer, 0, buffer.length);
+            if (read == -1) {
+                return false;
+            }
+            limit = read;
+            return true;
+        }
+
+        /**
+         * 创建解析异常
+         */
+        private RuntimeException error(String message) {
+            return new RuntimeException(message + " at position " + (offset + pos));
+        }
+
+    }
+
+}
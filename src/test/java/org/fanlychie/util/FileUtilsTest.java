@@ -0,0 +1,119 @@
+package org.fanlychie.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FileUtils 下载的行为测试, 从本机的 {@link MockHttpServer} 下载
+ *
+ * @author fanlychie
+ */
+public class FileUtilsTest {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockHttpServer server;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockHttpServer();
+        content = MockHttpServer.randomBytes(FILE_SIZE, 7);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void downloadsSegmentsInParallel() throws Exception {
+        MockHttpServer.Route route = server.route("/file.bin").payload(content).ranges("\"v1\"");
+        File localFolder = folder.newFolder();
+        FileUtils.open(server.url("/file.bin")).setSegments(4).setChecksum("SHA-256", MockHttpServer.sha256(content)).download(localFolder);
+        assertArrayEquals(content, Files.readAllBytes(new File(localFolder, "file.bin").toPath()));
+        assertEquals(4, route.rangeRequests());
+        assertFalse(new File(localFolder, "file.bin.progress").exists());
+    }
+
+    @Test
+    public void resumesInterruptedSegmentedDownload() throws Exception {
+        // 每次响应只写出 64KB 就断开连接, 每段重试用尽后下载失败
+        MockHttpServer.Route route = server.route("/file.bin").payload(content).ranges("\"v1\"").truncateAfter(64 * 1024, 1000);
+        File localFolder = folder.newFolder();
+        File progressFile = new File(localFolder, "file.bin.progress");
+        try {
+            FileUtils.open(server.url("/file.bin")).setSegments(4).download(localFolder);
+            fail("expected the download to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertTrue(progressFile.exists());
+        long firstRun = route.bytesSent();
+        assertTrue(firstRun > 0);
+        route.truncateAfter(-1, 0);
+        FileUtils.open(server.url("/file.bin")).setSegments(4).download(localFolder);
+        assertArrayEquals(content, Files.readAllBytes(new File(localFolder, "file.bin").toPath()));
+        // 第二次只下载剩余的内容
+        assertTrue(route.bytesSent() - firstRun < FILE_SIZE);
+        assertFalse(progressFile.exists());
+    }
+
+    @Test
+    public void restartsWhenRemoteFileChanged() throws Exception {
+        MockHttpServer.Route route = server.route("/file.bin").payload(content).ranges("\"v1\"").truncateAfter(64 * 1024, 1000);
+        File localFolder = folder.newFolder();
+        try {
+            FileUtils.open(server.url("/file.bin")).setSegments(4).download(localFolder);
+            fail("expected the download to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        byte[] changed = MockHttpServer.randomBytes(FILE_SIZE, 8);
+        route.payload(changed).ranges("\"v2\"").truncateAfter(-1, 0);
+        long before = route.bytesSent();
+        FileUtils.open(server.url("/file.bin")).setSegments(4).download(localFolder);
+        assertArrayEquals(changed, Files.readAllBytes(new File(localFolder, "file.bin").toPath()));
+        assertEquals(FILE_SIZE, route.bytesSent() - before);
+    }
+
+    @Test
+    public void fallsBackToSingleConnectionWithoutRangeSupport() throws Exception {
+        MockHttpServer.Route route = server.route("/file.bin").payload(content);
+        File localFolder = folder.newFolder();
+        FileUtils.open(server.url("/file.bin")).setSegments(4).download(localFolder);
+        assertArrayEquals(content, Files.readAllBytes(new File(localFolder, "file.bin").toPath()));
+        assertEquals(0, route.rangeRequests());
+        assertEquals(FILE_SIZE, route.bytesSent());
+    }
+
+    @Test
+    public void deletesFileWhenChecksumMismatches() throws Exception {
+        server.route("/file.bin").payload(content).ranges("\"v1\"");
+        File localFolder = folder.newFolder();
+        try {
+            FileUtils.open(server.url("/file.bin")).setSegments(2).setChecksum("SHA-256", MockHttpServer.sha256(new byte[1])).download(localFolder);
+            fail("expected checksum mismatch");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Checksum mismatch"));
+        }
+        assertFalse(new File(localFolder, "file.bin").exists());
+    }
+
+}
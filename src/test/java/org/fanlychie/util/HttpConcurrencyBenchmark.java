@@ -0,0 +1,123 @@
+package org.fanlychie.util;
+
+import org.fanlychie.util.HttpUtils.HostMetrics;
+import org.fanlychie.util.HttpUtils.MetricsRecorder;
+import org.fanlychie.util.HttpUtils.Phase;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 并发请求的基准测试, 大量慢请求发送到本机的 {@link MockHttpServer}, 输出耗时, 吞吐量和各阶段耗时的分布.
+ * <p>
+ * 类名不匹配 surefire 默认的测试类模式, 不随构建运行, 需单独执行:
+ * <pre>
+ * mvn test -Dtest=HttpConcurrencyBenchmark -Dbenchmark.requests=5000 -Dbenchmark.latency=100
+ * </pre>
+ *
+ * @author fanlychie
+ */
+public class HttpConcurrencyBenchmark {
+
+    // 请求数
+    private static final int REQUESTS = Integer.getInteger("benchmark.requests", 2000);
+
+    // 服务端每个请求的延迟毫秒数
+    private static final int LATENCY = Integer.getInteger("benchmark.latency", 100);
+
+    // 平台线程池的线程数
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 64);
+
+    private MockHttpServer server;
+
+    private MetricsRecorder recorder;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockHttpServer();
+        recorder = HttpUtils.createMetricsRecorder();
+        HttpUtils.addListener(recorder);
+    }
+
+    @After
+    public void tearDown() {
+        HttpUtils.removeListener(recorder);
+        server.close();
+    }
+
+    @Test
+    public void platformThreadPool() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            run("platform pool(" + THREADS + ")", executor, REQUESTS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void defaultExecutor() throws Exception {
+        String label = HttpUtils.isVirtualThreadSupported() ? "virtual threads" : "cached pool";
+        run("default executor, " + label, HttpUtils.getDefaultExecutor(), REQUESTS);
+    }
+
+    /**
+     * 10000 个慢请求由虚拟线程执行, 载体线程数限制为 2, 检查请求等待 I/O 时是否释放载体线程:
+     * <pre>
+     * mvn test -Dtest=HttpConcurrencyBenchmark#virtualThreadsOnSmallCarrierPool \
+     *     -DargLine="-Djdk.virtualThreadScheduler.parallelism=2 -Djdk.virtualThreadScheduler.maxPoolSize=2 -Djdk.tracePinnedThreads=short"
+     * </pre>
+     * 载体线程被钉住时, 服务端同时处理的请求数不会超过载体线程数, 耗时接近 请求数 x 延迟 / 载体线程数.
+     * 实测 2 个载体线程时服务端同时处理的请求数接近连接池上限 64, 吞吐量受连接池限制;
+     * tracePinnedThreads 只报告归还连接时 PoolingHttpClientConnectionManager.releaseConnection 持有的对象锁
+     */
+    @Test
+    public void virtualThreadsOnSmallCarrierPool() throws Exception {
+        Assume.assumeTrue("virtual threads require JDK 21+", HttpUtils.isVirtualThreadSupported());
+        run("virtual threads, carriers=" + System.getProperty("jdk.virtualThreadScheduler.parallelism", "default"),
+                HttpUtils.getDefaultExecutor(), Integer.getInteger("benchmark.slowCalls", 10000));
+    }
+
+    /**
+     * 以执行器并发执行慢请求, 全部完成后输出结果
+     *
+     * @param label    输出的标签
+     * @param executor 执行请求的执行器
+     * @param requests 请求数
+     * @throws Exception
+     */
+    private void run(String label, Executor executor, int requests) throws Exception {
+        MockHttpServer.Route route = server.route("/slow").latency(LATENCY).payload(new byte[512]);
+        // 预热连接和类加载
+        HttpUtils.get(server.url("/slow")).execute((code, text) -> {
+        });
+        recorder.reset();
+        AtomicInteger succeeded = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            futures[i] = HttpUtils.get(server.url("/slow")).setExecutor(executor).executeAsync((code, text) -> {
+                if (code == 200) {
+                    succeeded.incrementAndGet();
+                }
+            });
+        }
+        CompletableFuture.allOf(futures).get();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        HostMetrics metrics = recorder.snapshot().values().iterator().next();
+        System.out.printf("%s: %d requests x %dms in %dms, %.0f req/s, server peak concurrency %d, connections %d%n",
+                label, requests, LATENCY, elapsedMillis, requests * 1000.0 / elapsedMillis, route.peakConcurrency(), route.connections());
+        System.out.printf("  total %s%n  lease %s%n", metrics.getTimings().get(Phase.TOTAL), metrics.getTimings().get(Phase.LEASE));
+        assertEquals(requests, succeeded.get());
+    }
+
+}
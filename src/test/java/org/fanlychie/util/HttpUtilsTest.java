@@ -0,0 +1,341 @@
+package org.fanlychie.util;
+
+import org.fanlychie.util.HttpUtils.HttpListener;
+import org.fanlychie.util.HttpUtils.Phase;
+import org.fanlychie.util.HttpUtils.RateLimitException;
+import org.fanlychie.util.HttpUtils.RequestTrace;
+import org.fanlychie.util.HttpUtils.SmoothRateLimiter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HttpUtils 的行为测试, 请求发送到本机的 {@link MockHttpServer}
+ *
+ * @author fanlychie
+ */
+public class HttpUtilsTest {
+
+    private MockHttpServer server;
+
+    // 本测试注册的监听器, 结束时移除
+    private final List<HttpListener> listeners = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockHttpServer();
+    }
+
+    @After
+    public void tearDown() {
+        listeners.forEach(HttpUtils::removeListener);
+        server.close();
+    }
+
+    @Test
+    public void getReturnsPayload() {
+        server.route("/hello").latency(20).payload("hello".getBytes(StandardCharsets.UTF_8));
+        AtomicReference<String> body = new AtomicReference<>();
+        HttpUtils.get(server.url("/hello")).execute((status, text) -> {
+            assertEquals(200, (int) status);
+            body.set(text);
+        });
+        assertEquals("hello", body.get());
+    }
+
+    @Test
+    public void retriesIdempotentRequestAfterConnectionFailure() {
+        MockHttpServer.Route route = server.route("/flaky").failFirst(2).payload("ok".getBytes(StandardCharsets.UTF_8));
+        List<RequestTrace> traces = captureTraces();
+        AtomicInteger status = new AtomicInteger();
+        HttpUtils.get(server.url("/flaky")).setRetryTimes(3).execute((code, text) -> status.set(code));
+        assertEquals(200, status.get());
+        assertEquals(3, route.requests());
+        assertEquals(2, traces.get(0).getRetries());
+    }
+
+    @Test
+    public void failsWhenRetriesAreExhausted() {
+        MockHttpServer.Route route = server.route("/down").failFirst(10);
+        List<RequestTrace> traces = captureTraces();
+        try {
+            HttpUtils.get(server.url("/down")).setRetryTimes(2).execute((code, text) -> fail("no response expected"));
+            fail("expected failure");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(3, route.requests());
+        assertNotNull(traces.get(0).getException());
+    }
+
+    @Test
+    public void doesNotRetryPost() {
+        MockHttpServer.Route route = server.route("/submit").failFirst(1);
+        try {
+            HttpUtils.post(server.url("/submit")).setBody("{}").setRetryTimes(3).execute((code, text) -> fail("no response expected"));
+            fail("expected failure");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(1, route.requests());
+    }
+
+    @Test
+    public void rateLimiterRejectsWhenNoPermitIsAvailable() {
+        MockHttpServer.Route route = server.route("/limited");
+        SmoothRateLimiter limiter = HttpUtils.tokenBucket(1, 1);
+        HttpUtils.get(server.url("/limited")).setRateLimiter(limiter).execute((code, text) -> {
+        });
+        try {
+            HttpUtils.get(server.url("/limited")).setRateLimiter(limiter).setRateLimitWaitMillis(0).execute((code, text) -> {
+            });
+            fail("expected RateLimitException");
+        } catch (RateLimitException e) {
+            // expected
+        }
+        assertEquals(1, route.requests());
+        assertEquals(1, limiter.getAcquiredCount());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void registeredRateLimiterPacesRequestsToHost() {
+        server.route("/paced");
+        String host = "127.0.0.1";
+        HttpUtils.registerRateLimiter(host, HttpUtils.leakyBucket(20));
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 6; i++) {
+                HttpUtils.get(server.url("/paced")).execute((code, text) -> {
+                });
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            // 6 个请求之间有 5 个 50ms 的间隔
+            assertTrue("elapsed " + elapsedMillis + "ms", elapsedMillis >= 200);
+        } finally {
+            HttpUtils.registerRateLimiter(host, null);
+        }
+    }
+
+    @Test
+    public void streamsRequestBodyOfUnknownLength() throws Exception {
+        server.route("/upload").echoDigest();
+        long length = 64L * 1024 * 1024 + 7;
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new PatternInputStream(length)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String expected = toHex(digest.digest()) + ":" + length;
+        List<RequestTrace> traces = captureTraces();
+        AtomicReference<String> body = new AtomicReference<>();
+        HttpUtils.post(server.url("/upload")).setBody(new PatternInputStream(length), -1).execute((code, text) -> body.set(text));
+        assertEquals(expected, body.get());
+        assertEquals(length, traces.get(0).getBytesSent());
+    }
+
+    @Test
+    public void sendsDirectBufferWithoutMovingItsPosition() {
+        server.route("/buffer").echoDigest();
+        byte[] content = MockHttpServer.randomBytes(1024 * 1024, 1);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content).flip();
+        buffer.position(100);
+        byte[] expected = new byte[content.length - 100];
+        System.arraycopy(content, 100, expected, 0, expected.length);
+        AtomicReference<String> body = new AtomicReference<>();
+        HttpUtils.post(server.url("/buffer")).setBody(buffer, null).execute((code, text) -> body.set(text));
+        assertEquals(MockHttpServer.sha256(expected) + ":" + expected.length, body.get());
+        assertEquals(100, buffer.position());
+    }
+
+    @Test
+    public void parsesJsonResponseFromStream() {
+        StringBuilder json = new StringBuilder("{\"name\":\"catalog\",\"items\":[");
+        for (int i = 0; i < 10000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"title\":\"item-").append(i).append("\"}");
+        }
+        server.route("/catalog").json(json.append("]}").toString());
+        AtomicReference<Catalog> result = new AtomicReference<>();
+        HttpUtils.get(server.url("/catalog")).execute(Catalog.class, (code, catalog) -> result.set(catalog));
+        assertEquals("catalog", result.get().name);
+        assertEquals(10000, result.get().items.size());
+        assertEquals("item-9999", result.get().items.get(9999).title);
+    }
+
+    @Test
+    public void jsonResponseIsNullForErrorStatus() {
+        server.route("/missing").status(404).json("{\"error\":\"not found\"}");
+        AtomicReference<Catalog> result = new AtomicReference<>(new Catalog());
+        HttpUtils.get(server.url("/missing")).execute(Catalog.class, (code, catalog) -> {
+            assertEquals(404, (int) code);
+            result.set(catalog);
+        });
+        assertNull(result.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsStreamingBodyCombinedWithFormParams() {
+        server.route("/form");
+        HttpUtils.post(server.url("/form")).addParam("name", "value").setBody(new byte[16], null).execute((code, text) -> {
+        });
+    }
+
+    @Test
+    public void reusesPooledConnections() {
+        MockHttpServer.Route route = server.route("/reuse").payload(new byte[1024]);
+        List<RequestTrace> traces = captureTraces();
+        for (int i = 0; i < 5; i++) {
+            HttpUtils.get(server.url("/reuse")).execute((code, text) -> {
+            });
+        }
+        assertEquals(1, route.connections());
+        assertTrue(traces.get(0).getDuration(Phase.CONNECT) >= 0);
+        for (int i = 1; i < traces.size(); i++) {
+            assertEquals(-1, traces.get(i).getDuration(Phase.CONNECT));
+        }
+    }
+
+    @Test
+    public void recordsLeaseWaitWhenPoolIsSaturated() throws Exception {
+        MockHttpServer.Route route = server.route("/busy").latency(200);
+        List<RequestTrace> traces = captureTraces();
+        ExecutorService executor = Executors.newFixedThreadPool(100);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(HttpUtils.get(server.url("/busy")).setExecutor(executor).executeAsync((code, text) -> {
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        } finally {
+            executor.shutdown();
+        }
+        // 每个主机最多 64 个连接, 其余的请求等待连接归还
+        assertTrue(route.peakConcurrency() <= 64);
+        long maxLeaseMillis = 0;
+        synchronized (traces) {
+            for (RequestTrace trace : traces) {
+                maxLeaseMillis = Math.max(maxLeaseMillis, trace.getDuration(Phase.LEASE) / 1000000);
+            }
+        }
+        assertTrue("max lease " + maxLeaseMillis + "ms", maxLeaseMillis >= 100);
+    }
+
+    @Test
+    public void reportsListenerExceptionsToHandler() {
+        server.route("/listened");
+        RuntimeException failure = new RuntimeException("listener failure");
+        HttpListener listener = trace -> {
+            throw failure;
+        };
+        AtomicReference<HttpListener> failedListener = new AtomicReference<>();
+        AtomicReference<RuntimeException> reported = new AtomicReference<>();
+        addListener(listener);
+        HttpUtils.setListenerErrorHandler((source, e) -> {
+            failedListener.set(source);
+            reported.set(e);
+        });
+        try {
+            AtomicInteger status = new AtomicInteger();
+            HttpUtils.get(server.url("/listened")).execute((code, text) -> status.set(code));
+            assertEquals(200, status.get());
+        } finally {
+            HttpUtils.setListenerErrorHandler((source, e) -> e.printStackTrace());
+        }
+        assertSame(listener, failedListener.get());
+        assertSame(failure, reported.get());
+    }
+
+    // 注册记录请求跟踪的监听器
+    private List<RequestTrace> captureTraces() {
+        List<RequestTrace> traces = Collections.synchronizedList(new ArrayList<>());
+        addListener(traces::add);
+        return traces;
+    }
+
+    private void addListener(HttpListener listener) {
+        listeners.add(listener);
+        HttpUtils.addListener(listener);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 按固定规律生成内容的输入流, 不占用与长度成比例的内存
+     */
+    private static final class PatternInputStream extends InputStream {
+
+        private final long length;
+
+        private long position;
+
+        private PatternInputStream(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return position < length ? (int) (position++ * 31 % 251) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) (position++ * 31 % 251);
+            }
+            return n;
+        }
+
+    }
+
+    public static class Catalog {
+
+        private String name;
+
+        private List<Item> items;
+
+    }
+
+    public static class Item {
+
+        private long id;
+
+        private String title;
+
+    }
+
+}
@@ -0,0 +1,396 @@
+package org.fanlychie.util;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的 HTTP 服务端, 基于 JDK 内置的 com.sun.net.httpserver, 监听本机回环地址的随机端口.
+ * <p>
+ * 每个路径对应一个 {@link Route}, 可设置响应的延迟, 内容和状态码, 并注入故障: 前若干次请求直接断开连接,
+ * 或响应内容写出若干字节后断开连接. 开启 Range 支持后响应 HEAD 和 Range 请求, 用于测试分段下载
+ *
+ * @author fanlychie
+ */
+final class MockHttpServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 启动服务端
+     *
+     * @throws IOException
+     */
+    MockHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "MockHttpServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+        server.start();
+    }
+
+    /**
+     * 添加或替换路径的路由
+     *
+     * @param path 请求路径, eg: /file
+     * @return {@link Route}
+     */
+    Route route(String path) {
+        Route route = new Route();
+        routes.put(path, route);
+        return route;
+    }
+
+    /**
+     * 获取路径的完整地址
+     *
+     * @param path 请求路径
+     * @return 返回完整地址
+     */
+    String url(String path) {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * 生成可重复的随机内容
+     *
+     * @param size 字节数
+     * @param seed 随机数种子
+     * @return 返回随机内容
+     */
+    static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 计算 SHA-256 摘要
+     *
+     * @param bytes 内容
+     * @return 返回十六进制的摘要
+     */
+    static String sha256(byte[] bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return toHex(digest.digest());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // 分发请求
+    private void dispatch(HttpExchange exchange) throws IOException {
+        try {
+            Route route = routes.get(exchange.getRequestURI().getPath());
+            if (route == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                route.handle(exchange);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 路由, 设置方法均可在请求进行中调用, 对之后的请求生效
+     */
+    static final class Route {
+
+        // 响应前的延迟毫秒数
+        private volatile long latencyMillis;
+
+        // 状态码
+        private volatile int status = 200;
+
+        // 响应内容
+        private volatile byte[] payload = new byte[0];
+
+        // 内容类型
+        private volatile String contentType = "application/octet-stream";
+
+        // 剩余的断开连接次数
+        private final AtomicInteger failures = new AtomicInteger();
+
+        // 写出若干字节后断开连接, 小于 0 表示不截断
+        private volatile long truncateAfter = -1;
+
+        // 剩余的截断次数
+        private final AtomicInteger truncations = new AtomicInteger();
+
+        // 强 ETag, 为 null 时不支持 Range 请求
+        private volatile String etag;
+
+        // 是否以请求体的摘要作为响应
+        private volatile boolean echoDigest;
+
+        // 请求数
+        private final AtomicInteger requests = new AtomicInteger();
+
+        // Range 请求数
+        private final AtomicInteger rangeRequests = new AtomicInteger();
+
+        // 写出的响应内容字节数
+        private final AtomicLong bytesSent = new AtomicLong();
+
+        // 正在处理的请求数
+        private final AtomicInteger active = new AtomicInteger();
+
+        // 同时处理的最大请求数
+        private final AtomicInteger peakConcurrency = new AtomicInteger();
+
+        // 客户端连接的地址
+        private final Set<String> connections = ConcurrentHashMap.newKeySet();
+
+        private Route() {
+        }
+
+        /**
+         * 设置响应前的延迟
+         *
+         * @param millis 毫秒数
+         * @return {@link Route}
+         */
+        Route latency(long millis) {
+            this.latencyMillis = millis;
+            return this;
+        }
+
+        /**
+         * 设置状态码
+         *
+         * @param status 状态码, 默认 200
+         * @return {@link Route}
+         */
+        Route status(int status) {
+            this.status = status;
+            return this;
+        }
+
+        /**
+         * 设置响应内容
+         *
+         * @param payload 响应内容
+         * @return {@link Route}
+         */
+        Route payload(byte[] payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        /**
+         * 设置 JSON 响应内容
+         *
+         * @param json JSON 文本
+         * @return {@link Route}
+         */
+        Route json(String json) {
+            this.contentType = "application/json; charset=utf-8";
+            this.payload = json.getBytes(StandardCharsets.UTF_8);
+            return this;
+        }
+
+        /**
+         * 接下来的若干次请求在响应之前直接断开连接
+         *
+         * @param times 次数
+         * @return {@link Route}
+         */
+        Route failFirst(int times) {
+            failures.set(times);
+            return this;
+        }
+
+        /**
+         * 接下来的若干次响应写出若干字节的内容后断开连接, 响应头中仍为完整的内容长度
+         *
+         * @param bytes 写出的字节数, 小于 0 时取消截断
+         * @param times 次数
+         * @return {@link Route}
+         */
+        Route truncateAfter(long bytes, int times) {
+            this.truncateAfter = bytes;
+            truncations.set(times);
+            return this;
+        }
+
+        /**
+         * 支持 HEAD 和 Range 请求, If-Range 与 ETag 不一致时返回完整的内容
+         *
+         * @param etag 强 ETag, eg: "v1"
+         * @return {@link Route}
+         */
+        Route ranges(String etag) {
+            this.etag = etag;
+            return this;
+        }
+
+        /**
+         * 以请求体的摘要作为响应, 格式为: SHA-256 摘要:字节数
+         *
+         * @return {@link Route}
+         */
+        Route echoDigest() {
+            this.echoDigest = true;
+            this.contentType = "text/plain; charset=utf-8";
+            return this;
+        }
+
+        int requests() {
+            return requests.get();
+        }
+
+        int rangeRequests() {
+            return rangeRequests.get();
+        }
+
+        long bytesSent() {
+            return bytesSent.get();
+        }
+
+        int peakConcurrency() {
+            return peakConcurrency.get();
+        }
+
+        int connections() {
+            return connections.size();
+        }
+
+        // 处理请求
+        private void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            connections.add(String.valueOf(exchange.getRemoteAddress()));
+            int current = active.incrementAndGet();
+            peakConcurrency.accumulateAndGet(current, Math::max);
+            try {
+                if (latencyMillis > 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }
+                // 抛出异常时服务端直接关闭连接, 客户端收不到响应
+                if (failures.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                    throw new IOException("Injected failure");
+                }
+                byte[] content = echoDigest ? digestRequestBody(exchange) : payload;
+                respond(exchange, content);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        // 读取请求体并计算摘要
+        private byte[] digestRequestBody(HttpExchange exchange) throws IOException {
+            MessageDigest digest = newDigest();
+            long length = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = exchange.getRequestBody()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    length += read;
+                }
+            }
+            return (toHex(digest.digest()) + ":" + length).getBytes(StandardCharsets.UTF_8);
+        }
+
+        // 写出响应, 按需处理 HEAD, Range 和截断
+        private void respond(HttpExchange exchange, byte[] content) throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", contentType);
+            int code = status;
+            long start = 0;
+            long end = content.length;
+            String tag = etag;
+            if (tag != null) {
+                headers.set("Accept-Ranges", "bytes");
+                headers.set("ETag", tag);
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(tag))) {
+                    String[] bounds = range.substring("bytes=".length()).split("-", 2);
+                    start = Long.parseLong(bounds[0]);
+                    end = bounds[1].isEmpty() ? content.length : Math.min(content.length, Long.parseLong(bounds[1]) + 1);
+                    code = 206;
+                    headers.set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + content.length);
+                    rangeRequests.incrementAndGet();
+                }
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                headers.set("Content-Length", String.valueOf(end - start));
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+            long length = end - start;
+            exchange.sendResponseHeaders(code, length == 0 ? -1 : length);
+            long limit = length;
+            boolean truncate = truncateAfter >= 0 && truncations.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0;
+            if (truncate) {
+                limit = Math.min(length, truncateAfter);
+            }
+            OutputStream out = exchange.getResponseBody();
+            for (long offset = 0; offset < limit; ) {
+                int n = (int) Math.min(64 * 1024, limit - offset);
+                out.write(content, (int) (start + offset), n);
+                offset += n;
+                bytesSent.addAndGet(n);
+            }
+            if (truncate) {
+                out.flush();
+                throw new IOException("Injected truncation after " + limit + " bytes");
+            }
+            out.close();
+        }
+
+    }
+
+}